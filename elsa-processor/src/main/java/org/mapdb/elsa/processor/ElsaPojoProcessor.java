@@ -0,0 +1,488 @@
+package org.mapdb.elsa.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * <p>
+ * Generates {@code ElsaPojoCatalog} class for each package with classes annotated by {@code org.mapdb.elsa.ElsaPojo}.
+ * Catalog contains class structure ({@code ElsaSerializerPojo.ClassInfo}) of annotated classes,
+ * so it does not have to be analyzed with reflection at runtime.
+ * </p><p>
+ * If all fields of class can be read and written from catalog package (they are not private or final),
+ * catalog also contains {@code ElsaSerializerPojo.FieldAccessor} which accesses fields directly.
+ * Other classes use reflection on {@code java.lang.reflect.Field}.
+ * Generated {@code FieldInfo} still looks up its {@code Field} with reflection, when catalog class is initialized.
+ * </p><p>
+ * Fields are resolved the same way as {@link java.io.ObjectStreamClass} does:
+ * non-static and non-transient fields, primitive fields first, sorted by name,
+ * followed by fields from serializable superclasses.
+ * </p>
+ */
+@SupportedAnnotationTypes(ElsaPojoProcessor.ANNOTATION)
+public class ElsaPojoProcessor extends AbstractProcessor {
+
+    static final String ANNOTATION = "org.mapdb.elsa.ElsaPojo";
+    static final String CATALOG = "ElsaPojoCatalog";
+
+    protected static final String CLASS_INFO = "org.mapdb.elsa.ElsaSerializerPojo.ClassInfo";
+    protected static final String FIELD_INFO = "org.mapdb.elsa.ElsaSerializerPojo.FieldInfo";
+    protected static final String RESOLVER = "org.mapdb.elsa.ElsaClassInfoResolver";
+    protected static final String ACCESSOR = "org.mapdb.elsa.ElsaSerializerPojo.FieldAccessor";
+    protected static final String UTIL = "org.mapdb.elsa.ElsaUtil";
+
+    /** packages with already generated catalog */
+    protected final Set<String> generated = new HashSet<String>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(ANNOTATION);
+        if (annotation == null)
+            return false;
+
+        //classes sorted by name in each package, so class order is stable
+        Map<String, SortedMap<String, TypeElement>> packages = new TreeMap<String, SortedMap<String, TypeElement>>();
+        for (Element e : roundEnv.getElementsAnnotatedWith(annotation)) {
+            TypeElement type = (TypeElement) e;
+            if (!check(type))
+                continue;
+            String pkg = elements().getPackageOf(type).getQualifiedName().toString();
+            SortedMap<String, TypeElement> classes = packages.get(pkg);
+            if (classes == null) {
+                classes = new TreeMap<String, TypeElement>();
+                packages.put(pkg, classes);
+            }
+            classes.put(elements().getBinaryName(type).toString(), type);
+        }
+
+        for (Map.Entry<String, SortedMap<String, TypeElement>> e : packages.entrySet()) {
+            String pkg = e.getKey();
+            Collection<TypeElement> classes = e.getValue().values();
+            if (!generated.add(pkg)) {
+                error(classes.iterator().next(), "Catalog for package '" + pkg + "' was already generated in previous round");
+                continue;
+            }
+            try {
+                writeCatalog(pkg, classes);
+            } catch (IOException ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Could not write " + CATALOG + " for package '" + pkg + "': " + ex);
+            }
+        }
+        return true;
+    }
+
+    /** @return true if class can be described by generated catalog */
+    protected boolean check(TypeElement type) {
+        if (type.getKind() != ElementKind.CLASS && type.getKind() != ElementKind.ENUM) {
+            error(type, "@ElsaPojo can only annotate class or enum");
+            return false;
+        }
+        if (type.getNestingKind() != NestingKind.TOP_LEVEL && type.getNestingKind() != NestingKind.MEMBER) {
+            error(type, "@ElsaPojo can not annotate local or anonymous class");
+            return false;
+        }
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                error(type, "@ElsaPojo can not annotate private class");
+                return false;
+            }
+            if (e.getEnclosingElement() instanceof TypeElement && !e.getModifiers().contains(Modifier.STATIC)
+                    && e.getKind() == ElementKind.CLASS) {
+                error(type, "@ElsaPojo can not annotate inner class, make it static");
+                return false;
+            }
+        }
+        if (!isSubtype(type, "java.io.Serializable")) {
+            error(type, "@ElsaPojo class must implement java.io.Serializable");
+            return false;
+        }
+        for (TypeElement t = type; t != null && isSubtype(t, "java.io.Serializable"); t = superclass(t)) {
+            for (VariableElement f : ElementFilter.fieldsIn(t.getEnclosedElements())) {
+                if (f.getSimpleName().contentEquals("serialPersistentFields")) {
+                    error(type, "@ElsaPojo class can not use serialPersistentFields");
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    protected void writeCatalog(String pkg, Collection<TypeElement> classes) throws IOException {
+        String name = pkg.isEmpty() ? CATALOG : pkg + "." + CATALOG;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(name, classes.toArray(new Element[0]));
+        Writer w = file.openWriter();
+        try {
+            w.write(catalogSource(pkg, classes));
+        } finally {
+            w.close();
+        }
+    }
+
+    /** @return source code of catalog class */
+    protected String catalogSource(String pkg, Collection<TypeElement> classes) {
+        StringBuilder b = new StringBuilder();
+        if (!pkg.isEmpty())
+            b.append("package ").append(pkg).append(";\n\n");
+        b.append("/**\n")
+                .append(" * Class catalog for classes annotated with {@code @ElsaPojo}.\n")
+                .append(" * Generated by {@code ").append(ElsaPojoProcessor.class.getName()).append("}, do not edit.\n")
+                .append(" */\n")
+                .append("public final class ").append(CATALOG).append(" {\n\n")
+                .append("    private ").append(CATALOG).append("() {\n    }\n\n");
+
+        b.append("    /** @return annotated classes sorted by name, this order can be used with {@code ElsaMaker.registerClasses()} */\n")
+                .append("    public static Class[] classes() {\n")
+                .append("        return new Class[]{\n");
+        for (TypeElement type : classes)
+            b.append("                ").append(classLiteral(type.asType(), pkg)).append(",\n");
+        b.append("        };\n    }\n\n");
+
+        b.append("    /** @return class infos in the same order as {@link #classes()} */\n")
+                .append("    public static ").append(CLASS_INFO).append("[] classInfos() {\n")
+                .append("        return new ").append(CLASS_INFO).append("[]{\n");
+        for (int i = 0; i < classes.size(); i++)
+            b.append("                classInfo").append(i).append("(),\n");
+        b.append("        };\n    }\n\n");
+
+        b.append("    /** puts class infos into {@code ElsaSerializerPojo} cache, so classes are not analyzed with reflection */\n")
+                .append("    public static void register() {\n")
+                .append("        Class[] classes = classes();\n")
+                .append("        ").append(CLASS_INFO).append("[] classInfos = classInfos();\n")
+                .append("        for (int i = 0; i < classes.length; i++)\n")
+                .append("            org.mapdb.elsa.ElsaSerializerPojo.cacheClassInfo(classes[i], classInfos[i]);\n")
+                .append("    }\n\n");
+
+        b.append("    /** @return resolver with generated class infos, class ID is index in {@link #classes()} */\n")
+                .append("    public static ").append(RESOLVER).append(" resolver() {\n")
+                .append("        return new ").append(RESOLVER).append(".ArrayBased(classInfos());\n")
+                .append("    }\n");
+
+        int i = 0;
+        for (TypeElement type : classes)
+            classInfoSource(b, i++, type, pkg);
+
+        b.append("\n    private static Class<?> load(String name) {\n")
+                .append("        try {\n")
+                .append("            return Class.forName(name, true, ").append(CATALOG).append(".class.getClassLoader());\n")
+                .append("        } catch (ClassNotFoundException e) {\n")
+                .append("            throw new NoClassDefFoundError(name);\n")
+                .append("        }\n")
+                .append("    }\n")
+                .append("}\n");
+        return b.toString();
+    }
+
+    protected void classInfoSource(StringBuilder b, int index, TypeElement type, String pkg) {
+        boolean isEnum = type.getKind() == ElementKind.ENUM;
+        boolean externalizable = isSubtype(type, "java.io.Externalizable");
+        boolean useObjectStream = !externalizable && useJavaSerialization(type);
+        List<VariableElement> fields = externalizable || useObjectStream
+                ? Collections.<VariableElement>emptyList()
+                : fields(type);
+
+        String clazz = classLiteral(type.asType(), pkg);
+        b.append("\n    private static ").append(CLASS_INFO).append(" classInfo").append(index).append("() {\n");
+        b.append("        java.io.ObjectStreamField[] streamFields = {\n");
+        for (VariableElement f : fields) {
+            b.append("                new java.io.ObjectStreamField(\"").append(f.getSimpleName()).append("\", ")
+                    .append(classLiteral(erasure(f), pkg)).append("),\n");
+        }
+        b.append("        };\n");
+        b.append("        ").append(FIELD_INFO).append("[] fields = {\n");
+        for (VariableElement f : fields) {
+            TypeMirror t = erasure(f);
+            b.append("                new ").append(FIELD_INFO).append("(\"").append(f.getSimpleName()).append("\", \"")
+                    .append(typeName(t)).append("\", ")
+                    .append(t.getKind().isPrimitive() ? "null" : classLiteral(t, pkg)).append(", ")
+                    .append(clazz).append("),\n");
+        }
+        b.append("        };\n");
+        b.append("        ").append(CLASS_INFO).append(" classInfo = new ").append(CLASS_INFO).append("(\"")
+                .append(elements().getBinaryName(type)).append("\", fields, ")
+                .append(isEnum).append(", ").append(externalizable).append(", ").append(useObjectStream).append(");\n");
+        b.append("        classInfo.objectStreamFields = streamFields;\n");
+        boolean accessor = !fields.isEmpty() && fieldsAccessible(fields, pkg);
+        if (accessor)
+            b.append("        classInfo.accessor = new Accessor").append(index).append("();\n");
+        b.append("        return classInfo;\n");
+        b.append("    }\n");
+        if (accessor)
+            accessorSource(b, index, type, fields);
+    }
+
+    /**
+     * Generates {@code FieldAccessor} for class. Primitive values are written the same way as
+     * {@code ElsaSerializerPojo.writePrimitiveField()}: int and long as packed zigzag, char as packed int,
+     * rest with fixed size.
+     */
+    protected void accessorSource(StringBuilder b, int index, TypeElement type, List<VariableElement> fields) {
+        String clazz = sourceName(type.asType());
+        b.append("\n    @SuppressWarnings({\"unchecked\", \"rawtypes\"})\n")
+                .append("    private static final class Accessor").append(index).append(" implements ").append(ACCESSOR).append(" {\n\n");
+
+        b.append("        @Override\n")
+                .append("        public void serialize(java.io.DataOutput out, Object value, org.mapdb.elsa.ElsaStack objectStack) throws java.io.IOException {\n")
+                .append("            writePrimitives(out, value);\n")
+                .append("            ").append(clazz).append(" o = (").append(clazz).append(") value;\n");
+        for (VariableElement f : fields) {
+            if (!f.asType().getKind().isPrimitive())
+                b.append("            objectStack.stackPush(").append(fieldRef(f, type)).append(");\n");
+        }
+        b.append("        }\n\n");
+
+        b.append("        @Override\n")
+                .append("        public void writePrimitives(java.io.DataOutput out, Object value) throws java.io.IOException {\n")
+                .append("            ").append(clazz).append(" o = (").append(clazz).append(") value;\n");
+        for (VariableElement f : fields) {
+            String ref = fieldRef(f, type);
+            switch (f.asType().getKind()) {
+                case INT:
+                    b.append("            {\n                int v = ").append(ref).append(";\n")
+                            .append("                ").append(UTIL).append(".packInt(out, (v << 1) ^ (v >> 31));\n            }\n");
+                    break;
+                case LONG:
+                    b.append("            {\n                long v = ").append(ref).append(";\n")
+                            .append("                ").append(UTIL).append(".packLong(out, (v << 1) ^ (v >> 63));\n            }\n");
+                    break;
+                case CHAR: b.append("            ").append(UTIL).append(".packInt(out, ").append(ref).append(");\n"); break;
+                case DOUBLE: b.append("            out.writeDouble(").append(ref).append(");\n"); break;
+                case BOOLEAN: b.append("            out.writeBoolean(").append(ref).append(");\n"); break;
+                case FLOAT: b.append("            out.writeFloat(").append(ref).append(");\n"); break;
+                case BYTE: b.append("            out.writeByte(").append(ref).append(");\n"); break;
+                case SHORT: b.append("            out.writeShort(").append(ref).append(");\n"); break;
+                default: break;
+            }
+        }
+        b.append("        }\n\n");
+
+        b.append("        @Override\n")
+                .append("        public void readPrimitives(java.io.DataInput in, Object value) throws java.io.IOException {\n")
+                .append("            ").append(clazz).append(" o = (").append(clazz).append(") value;\n");
+        for (VariableElement f : fields) {
+            String ref = fieldRef(f, type);
+            switch (f.asType().getKind()) {
+                case INT:
+                    b.append("            {\n                int v = ").append(UTIL).append(".unpackInt(in);\n")
+                            .append("                ").append(ref).append(" = (v >>> 1) ^ -(v & 1);\n            }\n");
+                    break;
+                case LONG:
+                    b.append("            {\n                long v = ").append(UTIL).append(".unpackLong(in);\n")
+                            .append("                ").append(ref).append(" = (v >>> 1) ^ -(v & 1);\n            }\n");
+                    break;
+                case CHAR: b.append("            ").append(ref).append(" = (char) ").append(UTIL).append(".unpackInt(in);\n"); break;
+                case DOUBLE: b.append("            ").append(ref).append(" = in.readDouble();\n"); break;
+                case BOOLEAN: b.append("            ").append(ref).append(" = in.readBoolean();\n"); break;
+                case FLOAT: b.append("            ").append(ref).append(" = in.readFloat();\n"); break;
+                case BYTE: b.append("            ").append(ref).append(" = in.readByte();\n"); break;
+                case SHORT: b.append("            ").append(ref).append(" = in.readShort();\n"); break;
+                default: break;
+            }
+        }
+        b.append("        }\n\n");
+
+        b.append("        @Override\n")
+                .append("        public Object get(Object object, int fieldId) {\n")
+                .append("            ").append(clazz).append(" o = (").append(clazz).append(") object;\n")
+                .append("            switch (fieldId) {\n");
+        for (int i = 0; i < fields.size(); i++)
+            b.append("                case ").append(i).append(": return ").append(fieldRef(fields.get(i), type)).append(";\n");
+        b.append("                default: throw new IllegalArgumentException(\"Unknown field ID: \" + fieldId);\n")
+                .append("            }\n")
+                .append("        }\n\n");
+
+        b.append("        @Override\n")
+                .append("        public void set(Object object, int fieldId, Object value) {\n")
+                .append("            ").append(clazz).append(" o = (").append(clazz).append(") object;\n")
+                .append("            switch (fieldId) {\n");
+        for (int i = 0; i < fields.size(); i++) {
+            TypeMirror t = erasure(fields.get(i));
+            String cast = t.getKind().isPrimitive() ? sourceName(types().boxedClass((PrimitiveType) t).asType()) : sourceName(t);
+            b.append("                case ").append(i).append(": ").append(fieldRef(fields.get(i), type))
+                    .append(" = (").append(cast).append(") value; return;\n");
+        }
+        b.append("                default: throw new IllegalArgumentException(\"Unknown field ID: \" + fieldId);\n")
+                .append("            }\n")
+                .append("        }\n")
+                .append("    }\n");
+    }
+
+    /** @return true if generated code in given package can read and set all fields directly */
+    protected boolean fieldsAccessible(List<VariableElement> fields, String pkg) {
+        for (VariableElement f : fields) {
+            Set<Modifier> mods = f.getModifiers();
+            TypeElement owner = (TypeElement) f.getEnclosingElement();
+            if (mods.contains(Modifier.PRIVATE) || mods.contains(Modifier.FINAL))
+                return false;
+            if (!mods.contains(Modifier.PUBLIC) && !elements().getPackageOf(owner).getQualifiedName().contentEquals(pkg))
+                return false;
+            if (!accessible(owner, pkg) || !accessible(f.asType(), pkg))
+                return false;
+        }
+        return true;
+    }
+
+    /** @return expression which accesses field of object {@code o}, field from superclass is accessed with cast */
+    private String fieldRef(VariableElement f, TypeElement type) {
+        TypeElement owner = (TypeElement) f.getEnclosingElement();
+        if (owner.equals(type))
+            return "o." + f.getSimpleName();
+        return "((" + sourceName(owner.asType()) + ") o)." + f.getSimpleName();
+    }
+
+    /** @return erased type name as used in source code */
+    private String sourceName(TypeMirror t) {
+        return types().erasure(t).toString();
+    }
+
+    /**
+     * Serializable fields in the same order as {@code ElsaSerializerPojo.makeFieldsForClass()},
+     * it walks class hierarchy until first non serializable class.
+     */
+    protected List<VariableElement> fields(TypeElement type) {
+        List<VariableElement> ret = new ArrayList<VariableElement>();
+        for (TypeElement t = type; t != null && isSubtype(t, "java.io.Serializable"); t = superclass(t)) {
+            List<VariableElement> fields = new ArrayList<VariableElement>();
+            for (VariableElement f : ElementFilter.fieldsIn(t.getEnclosedElements())) {
+                Set<Modifier> mods = f.getModifiers();
+                if (!mods.contains(Modifier.STATIC) && !mods.contains(Modifier.TRANSIENT))
+                    fields.add(f);
+            }
+            //same order as ObjectStreamField.compareTo()
+            Collections.sort(fields, new Comparator<VariableElement>() {
+                @Override
+                public int compare(VariableElement o1, VariableElement o2) {
+                    boolean p1 = o1.asType().getKind().isPrimitive();
+                    boolean p2 = o2.asType().getKind().isPrimitive();
+                    if (p1 != p2)
+                        return p1 ? -1 : 1;
+                    return o1.getSimpleName().toString().compareTo(o2.getSimpleName().toString());
+                }
+            });
+            ret.addAll(fields);
+        }
+        return ret;
+    }
+
+    /** same as {@code ElsaSerializerPojo.useJavaSerialization()} */
+    protected boolean useJavaSerialization(TypeElement type) {
+        for (TypeElement t = type; t != null; t = superclass(t)) {
+            if (t.getQualifiedName().contentEquals("java.lang.Object"))
+                return false;
+            for (ExecutableElement m : ElementFilter.methodsIn(t.getEnclosedElements())) {
+                String name = m.getSimpleName().toString();
+                List<? extends VariableElement> params = m.getParameters();
+                if (params.isEmpty() && (name.equals("writeReplace") || name.equals("readResolve")))
+                    return true;
+                if (params.size() == 1) {
+                    String param = types().erasure(params.get(0).asType()).toString();
+                    if (name.equals("readObject") && param.equals("java.io.ObjectInputStream"))
+                        return true;
+                    if (name.equals("writeObject") && param.equals("java.io.ObjectOutputStream"))
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** @return type name as returned by {@link Class#getName()} */
+    protected String typeName(TypeMirror t) {
+        if (t.getKind().isPrimitive())
+            return t.getKind().name().toLowerCase(Locale.ROOT);
+        if (t.getKind() == TypeKind.ARRAY)
+            return "[" + descriptor(((ArrayType) t).getComponentType());
+        return elements().getBinaryName((TypeElement) ((DeclaredType) t).asElement()).toString();
+    }
+
+    private String descriptor(TypeMirror t) {
+        switch (t.getKind()) {
+            case BOOLEAN: return "Z";
+            case BYTE: return "B";
+            case CHAR: return "C";
+            case SHORT: return "S";
+            case INT: return "I";
+            case LONG: return "J";
+            case FLOAT: return "F";
+            case DOUBLE: return "D";
+            case ARRAY: return "[" + descriptor(((ArrayType) t).getComponentType());
+            default: return "L" + typeName(t) + ";";
+        }
+    }
+
+    /** @return class literal, or call to {@code load()} if class is not accessible from given package */
+    protected String classLiteral(TypeMirror t, String pkg) {
+        t = types().erasure(t);
+        if (!accessible(t, pkg))
+            return "load(\"" + typeName(t) + "\")";
+        return t + ".class";
+    }
+
+    /** @return true if type (or component type of array) can be used in source code of given package */
+    protected boolean accessible(TypeMirror t, String pkg) {
+        TypeMirror component = types().erasure(t);
+        while (component.getKind() == TypeKind.ARRAY)
+            component = ((ArrayType) component).getComponentType();
+        return component.getKind() != TypeKind.DECLARED
+                || accessible((TypeElement) ((DeclaredType) component).asElement(), pkg);
+    }
+
+    protected boolean accessible(TypeElement type, String pkg) {
+        boolean samePackage = elements().getPackageOf(type).getQualifiedName().contentEquals(pkg);
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            Set<Modifier> mods = e.getModifiers();
+            if (mods.contains(Modifier.PRIVATE))
+                return false;
+            if (!samePackage && !mods.contains(Modifier.PUBLIC))
+                return false;
+        }
+        return true;
+    }
+
+    private TypeMirror erasure(VariableElement f) {
+        return types().erasure(f.asType());
+    }
+
+    private TypeElement superclass(TypeElement type) {
+        TypeMirror s = type.getSuperclass();
+        return s.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) s).asElement() : null;
+    }
+
+    private boolean isSubtype(TypeElement type, String superType) {
+        TypeElement s = elements().getTypeElement(superType);
+        return types().isSubtype(types().erasure(type.asType()), types().erasure(s.asType()));
+    }
+
+    private void error(Element e, String msg) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, msg, e);
+    }
+
+    private Elements elements() {
+        return processingEnv.getElementUtils();
+    }
+
+    private Types types() {
+        return processingEnv.getTypeUtils();
+    }
+}
@@ -0,0 +1,271 @@
+package org.mapdb.elsa.processor;
+
+import org.junit.Test;
+import org.mapdb.elsa.ElsaClassInfoResolver;
+import org.mapdb.elsa.ElsaMaker;
+import org.mapdb.elsa.ElsaSerializerPojo;
+import org.mapdb.elsa.ElsaSerializerPojo.ClassInfo;
+
+import javax.tools.*;
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ElsaPojoProcessorTest {
+
+    static final String[][] SOURCES = {
+            {"test/Base.java",
+                    "package test;\n" +
+                    "public class Base implements java.io.Serializable {\n" +
+                    "    protected long baseId;\n" +
+                    "    String baseName;\n" +
+                    "}\n"},
+            {"test/NotSerializableBase.java",
+                    "package test;\n" +
+                    "public class NotSerializableBase {\n" +
+                    "    int ignored;\n" +
+                    "}\n"},
+            {"test/Bean.java",
+                    "package test;\n" +
+                    "import java.util.*;\n" +
+                    "@org.mapdb.elsa.ElsaPojo\n" +
+                    "public class Bean<E> extends Base {\n" +
+                    "    private int i;\n" +
+                    "    private boolean b;\n" +
+                    "    char c;\n" +
+                    "    double d;\n" +
+                    "    String str;\n" +
+                    "    int[] ints;\n" +
+                    "    String[][] strs;\n" +
+                    "    List<String> list;\n" +
+                    "    E generic;\n" +
+                    "    Hidden hidden;\n" +
+                    "    Hidden[] hiddens;\n" +
+                    "    Nested nested;\n" +
+                    "    transient int skipped;\n" +
+                    "    static int skippedStatic;\n" +
+                    "    private static class Hidden implements java.io.Serializable {}\n" +
+                    "    @org.mapdb.elsa.ElsaPojo\n" +
+                    "    public static class Nested extends NotSerializableBase implements java.io.Serializable {\n" +
+                    "        long l;\n" +
+                    "    }\n" +
+                    "}\n"},
+            {"test/Ext.java",
+                    "package test;\n" +
+                    "@org.mapdb.elsa.ElsaPojo\n" +
+                    "public class Ext implements java.io.Externalizable {\n" +
+                    "    int i;\n" +
+                    "    public void writeExternal(java.io.ObjectOutput out) {}\n" +
+                    "    public void readExternal(java.io.ObjectInput in) {}\n" +
+                    "}\n"},
+            {"test/Replaced.java",
+                    "package test;\n" +
+                    "@org.mapdb.elsa.ElsaPojo\n" +
+                    "public class Replaced implements java.io.Serializable {\n" +
+                    "    int i;\n" +
+                    "    Object writeReplace() { return this; }\n" +
+                    "}\n"},
+            {"test/Direct.java",
+                    "package test;\n" +
+                    "@org.mapdb.elsa.ElsaPojo\n" +
+                    "public class Direct extends Base {\n" +
+                    "    int i;\n" +
+                    "    long l;\n" +
+                    "    double d;\n" +
+                    "    float f;\n" +
+                    "    boolean z;\n" +
+                    "    byte b;\n" +
+                    "    char c;\n" +
+                    "    short s;\n" +
+                    "    String str;\n" +
+                    "    Integer num;\n" +
+                    "    Object self;\n" +
+                    "    java.util.List<String> list;\n" +
+                    "}\n"},
+            {"test/Color.java",
+                    "package test;\n" +
+                    "@org.mapdb.elsa.ElsaPojo\n" +
+                    "public enum Color { RED, GREEN }\n"},
+    };
+
+    /** compiles test sources with processor and returns class loader with compiled classes */
+    static ClassLoader compile() throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        File dir = Files.createTempDirectory("elsa-processor").toFile();
+        List<File> files = new ArrayList<File>();
+        for (String[] s : SOURCES) {
+            File f = new File(dir, s[0]);
+            f.getParentFile().mkdirs();
+            Files.write(f.toPath(), s[1].getBytes(StandardCharsets.UTF_8));
+            files.add(f);
+        }
+        StringWriter log = new StringWriter();
+        StandardJavaFileManager fm = compiler.getStandardFileManager(null, null, null);
+        JavaCompiler.CompilationTask task = compiler.getTask(log, fm, null,
+                Arrays.asList("-d", dir.getPath(), "-s", dir.getPath(),
+                        "-classpath", System.getProperty("java.class.path")),
+                null, fm.getJavaFileObjectsFromFiles(files));
+        task.setProcessors(Collections.singletonList(new ElsaPojoProcessor()));
+        assertTrue(log.toString(), task.call());
+        fm.close();
+        return new URLClassLoader(new URL[]{dir.toURI().toURL()}, ElsaPojoProcessorTest.class.getClassLoader());
+    }
+
+    @Test
+    public void catalog_same_as_reflection() throws Exception {
+        ClassLoader loader = compile();
+        Class catalog = loader.loadClass("test.ElsaPojoCatalog");
+        Class[] classes = (Class[]) catalog.getMethod("classes").invoke(null);
+        ClassInfo[] infos = (ClassInfo[]) catalog.getMethod("classInfos").invoke(null);
+
+        assertEquals(6, classes.length);
+        for (int i = 0; i < classes.length; i++) {
+            ClassInfo reflective = ElsaSerializerPojo.makeClassInfo(classes[i], loader);
+            assertEquals(reflective, infos[i]);
+
+            if (reflective.useObjectStream || reflective.externalizable)
+                continue;
+            ObjectStreamField[] expected = fieldsForClass(classes[i]);
+            ObjectStreamField[] fields = infos[i].getObjectStreamFields();
+            assertEquals(expected.length, fields.length);
+            for (int j = 0; j < fields.length; j++) {
+                assertEquals(expected[j].getName(), fields[j].getName());
+                assertEquals(expected[j].getType(), fields[j].getType());
+            }
+        }
+    }
+
+    @Test
+    public void registered_catalog_used_by_serializer() throws Exception {
+        ClassLoader loader = compile();
+        Class catalog = loader.loadClass("test.ElsaPojoCatalog");
+        catalog.getMethod("register").invoke(null);
+        Class[] classes = (Class[]) catalog.getMethod("classes").invoke(null);
+        Class beanClass = loader.loadClass("test.Bean$Nested");
+        assertNotNull(ElsaSerializerPojo.makeClassInfo(beanClass, loader).getObjectStreamFields());
+
+        ElsaSerializerPojo ser = new ElsaMaker().classLoader(loader).registerClasses(classes).make();
+        Field l = beanClass.getDeclaredField("l");
+        l.setAccessible(true);
+        Object bean = beanClass.newInstance();
+        l.setLong(bean, 11L);
+        assertEquals(11L, l.getLong(ser.clone(bean)));
+    }
+
+    @Test
+    public void generated_resolver() throws Exception {
+        ClassLoader loader = compile();
+        Class catalog = loader.loadClass("test.ElsaPojoCatalog");
+        Class[] classes = (Class[]) catalog.getMethod("classes").invoke(null);
+        ClassInfo[] infos = (ClassInfo[]) catalog.getMethod("classInfos").invoke(null);
+        ElsaClassInfoResolver resolver = (ElsaClassInfoResolver) catalog.getMethod("resolver").invoke(null);
+        for (int i = 0; i < classes.length; i++) {
+            assertEquals(i, resolver.classToId(classes[i].getName()));
+            assertEquals(infos[i], resolver.getClassInfo(i));
+        }
+        assertEquals(-1, resolver.classToId("test.Unknown"));
+
+        ElsaSerializerPojo ser = new ElsaMaker().classLoader(loader).classInfoResolver(resolver).make();
+        Class beanClass = loader.loadClass("test.Bean$Nested");
+        Field l = beanClass.getDeclaredField("l");
+        l.setAccessible(true);
+        Object bean = beanClass.newInstance();
+        l.setLong(bean, 11L);
+        assertEquals(11L, l.getLong(ser.clone(bean)));
+        //class info is not written into data
+        assertTrue(ser.serializedSize(bean) < new ElsaMaker().classLoader(loader).make().serializedSize(bean));
+    }
+
+    @Test
+    public void generated_accessor_same_as_reflection() throws Exception {
+        ClassLoader loader = compile();
+        Class catalog = loader.loadClass("test.ElsaPojoCatalog");
+        Class[] classes = (Class[]) catalog.getMethod("classes").invoke(null);
+        ClassInfo[] infos = (ClassInfo[]) catalog.getMethod("classInfos").invoke(null);
+        List<String> names = new ArrayList<String>();
+        for (Class c : classes)
+            names.add(c.getName());
+        //private fields
+        assertNull(infos[names.indexOf("test.Bean")].accessor);
+        assertNotNull(infos[names.indexOf("test.Bean$Nested")].accessor);
+        ClassInfo generated = infos[names.indexOf("test.Direct")];
+        assertNotNull(generated.accessor);
+
+        Class clazz = loader.loadClass("test.Direct");
+        ClassInfo reflective = ElsaSerializerPojo.makeClassInfo(clazz, loader);
+        assertNull(reflective.accessor);
+
+        Object bean = clazz.newInstance();
+        Object[][] values = {
+                {"i", -11}, {"l", Long.MIN_VALUE}, {"d", -0D}, {"f", 1.5F}, {"z", true}, {"b", (byte) -3},
+                {"c", 'x'}, {"s", (short) -2}, {"str", "aa"}, {"num", 12}, {"self", bean},
+                {"list", new ArrayList<String>(Arrays.asList("a", "b"))},
+                {"baseId", 7L}, {"baseName", "base"}};
+        for (Object[] v : values)
+            field(clazz, (String) v[0]).set(bean, v[1]);
+
+        //default, typed and presence bitmap layout
+        for (int mode = 0; mode < 3; mode++) {
+            byte[] expected = serialize(maker(mode, loader).classInfoResolver(new ElsaClassInfoResolver.ArrayBased(
+                    new ClassInfo[]{reflective})).make(), bean);
+            ElsaSerializerPojo ser = maker(mode, loader).classInfoResolver(new ElsaClassInfoResolver.ArrayBased(
+                    new ClassInfo[]{generated})).make();
+            assertArrayEquals(expected, serialize(ser, bean));
+
+            Object bean2 = ser.deserialize(new DataInputStream(new ByteArrayInputStream(expected)));
+            assertSame(bean2, field(clazz, "self").get(bean2));
+            for (Object[] v : values) {
+                if (!v[0].equals("self"))
+                    assertEquals(v[0].toString(), v[1], field(clazz, (String) v[0]).get(bean2));
+            }
+        }
+
+        //class info written into stream
+        ElsaSerializerPojo ser = new ElsaMaker().classLoader(loader).make();
+        byte[] expected = serialize(ser, bean);
+        catalog.getMethod("register").invoke(null);
+        assertNotNull(ElsaSerializerPojo.makeClassInfo(clazz, loader).accessor);
+        ser = new ElsaMaker().classLoader(loader).make();
+        assertArrayEquals(expected, serialize(ser, bean));
+        Object bean2 = ser.deserialize(new DataInputStream(new ByteArrayInputStream(expected)));
+        assertSame(bean2, field(clazz, "self").get(bean2));
+        assertEquals(-11, field(clazz, "i").get(bean2));
+    }
+
+    static ElsaMaker maker(int mode, ClassLoader loader) {
+        ElsaMaker maker = new ElsaMaker().classLoader(loader);
+        return mode == 1 ? maker.typedFieldsEnable() : mode == 2 ? maker.presenceBitmapEnable() : maker;
+    }
+
+    static byte[] serialize(ElsaSerializerPojo ser, Object o) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ser.serialize(new DataOutputStream(out), o);
+        return out.toByteArray();
+    }
+
+    static Field field(Class clazz, String name) throws Exception {
+        for (Class c = clazz; c != null; c = c.getSuperclass()) {
+            try {
+                Field f = c.getDeclaredField(name);
+                f.setAccessible(true);
+                return f;
+            } catch (NoSuchFieldException e) {
+                //try superclass
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+
+    static ObjectStreamField[] fieldsForClass(Class clazz) throws Exception {
+        Method m = ElsaSerializerPojo.class.getDeclaredMethod("makeFieldsForClass", Class.class);
+        m.setAccessible(true);
+        return (ObjectStreamField[]) m.invoke(null, clazz);
+    }
+}
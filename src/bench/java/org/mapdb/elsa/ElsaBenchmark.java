@@ -0,0 +1,214 @@
+package org.mapdb.elsa;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * <p>
+ * Timing benchmarks for decoding and object stacks. They are not unit tests, correctness is checked by regular tests.
+ * Each benchmark runs several rounds and prints best time.
+ * </p><p>
+ * Harness is not part of the build, compile it against main classes and run:
+ * </p>
+ * <pre>
+ * mvn compile
+ * javac -cp target/classes -d target/bench src/bench/java/org/mapdb/elsa/ElsaBenchmark.java
+ * java -cp target/classes:target/bench org.mapdb.elsa.ElsaBenchmark [benchmark names]
+ * </pre>
+ * Without arguments all benchmarks are run.
+ */
+public class ElsaBenchmark {
+
+    enum Order {ASCENDING, DESCENDING}
+
+    static class Bean implements Serializable {
+        final int f;
+
+        Bean(int f) {
+            this.f = f;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> names = Arrays.asList(args);
+        if (names.isEmpty() || names.contains("hashCollections"))
+            hashCollections();
+        if (names.isEmpty() || names.contains("dispatch"))
+            dispatch();
+        if (names.isEmpty() || names.contains("stackRead"))
+            stackRead();
+        if (names.isEmpty() || names.contains("stack"))
+            stack();
+        if (names.isEmpty() || names.contains("instantiation"))
+            instantiation();
+    }
+
+    static byte[] serialize(ElsaSerializerBase ser, Object o) throws IOException {
+        ElsaDataOutput out = new ElsaDataOutput();
+        ser.serialize(out, o);
+        return out.copyBytes();
+    }
+
+    /** @return best time of deserializing given data */
+    static long deserialize(ElsaSerializerBase ser, byte[] b, int rounds) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long t = System.nanoTime();
+            ser.deserialize(new ElsaDataInput(b));
+            best = Math.min(best, System.nanoTime() - t);
+        }
+        return best;
+    }
+
+    /** @return best time of serializing given object {@code count} times */
+    static long serialize(ElsaSerializerPojo ser, Object o, int rounds, int count) throws IOException {
+        ElsaDataOutput out = new ElsaDataOutput();
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long t = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                out.reset();
+                ser.serialize(out, o);
+            }
+            best = Math.min(best, System.nanoTime() - t);
+        }
+        return best;
+    }
+
+    /** decodes maps and sets with many entries */
+    static void hashCollections() throws IOException {
+        ArrayList l = new ArrayList();
+        for (int size : new int[]{1000, 10000, 100000}) {
+            HashMap m = new HashMap();
+            LinkedHashSet set = new LinkedHashSet();
+            for (int i = 0; i < size; i++) {
+                m.put(i, (long) i);
+                set.add(i);
+            }
+            l.add(m);
+            l.add(new LinkedHashMap(m));
+            l.add(new HashSet(set));
+            l.add(set);
+        }
+        ElsaSerializerPojo ser = new ElsaSerializerPojo();
+        long time = deserialize(ser, serialize(ser, l), 20);
+        System.out.println("Deserialize HashMap, LinkedHashMap, HashSet, LinkedHashSet with 1K, 10K, 100K entries: " +
+                time / 1000000 + " ms");
+    }
+
+    /** compares switch dispatch with table dispatch on list of small values */
+    static void dispatch() throws IOException {
+        ArrayList values = new ArrayList();
+        values.add(true);
+        values.add(false);
+        for (int shift = 0; shift < 63; shift++) {
+            long l = 1L << shift;
+            values.add(l);
+            values.add(-l);
+            values.add((int) l);
+            values.add(-(int) l);
+        }
+        String s = "";
+        for (int i = 0; i < 20; i++) {
+            values.add(s);
+            s += (char) ('a' + i);
+        }
+        ArrayList list = new ArrayList();
+        for (int i = 0; i < 1000000; i++)
+            list.add(values.get(i % values.size()));
+        ElsaSerializerBase ser = new ElsaSerializerBase();
+        byte[] b = serialize(ser, list);
+
+        long table = Long.MAX_VALUE;
+        for (int round = 0; round < 20; round++) {
+            long t = System.nanoTime();
+            DataInput in = new ElsaDataInput(b);
+            ElsaStack stack = new ElsaStack.ReadStack();
+            if (in.readUnsignedByte() != ElsaSerializerBase.Header.ARRAYLIST)
+                throw new AssertionError();
+            int size = ElsaUtil.unpackInt(in);
+            ArrayList decoded = new ArrayList(size);
+            stack.add(decoded);
+            for (int i = 0; i < size; i++) {
+                Object o = ser.headerDeser[in.readUnsignedByte()].deserialize(in, stack);
+                stack.add(o);
+                decoded.add(o);
+            }
+            table = Math.min(table, System.nanoTime() - t);
+        }
+        long swtch = deserialize(ser, b, 20);
+        System.out.println("Deserialize 1M small values: table dispatch " + table / 1000000 + " ms, " +
+                "switch dispatch " + swtch / 1000000 + " ms");
+    }
+
+    static ArrayList graph(int size) {
+        ArrayList graph = new ArrayList();
+        for (int i = 0; i < size; i++)
+            graph.add(new ArrayList(Arrays.asList(i, "a" + i)));
+        return graph;
+    }
+
+    /** compares decoding with identity map stack and read only stack */
+    static void stackRead() throws IOException {
+        ElsaSerializerPojo ser = new ElsaSerializerPojo();
+        byte[] b = serialize(ser, graph(100000));
+
+        long map = Long.MAX_VALUE;
+        for (int round = 0; round < 10; round++) {
+            long t = System.nanoTime();
+            ser.deserialize(new ElsaDataInput(b), new ElsaStack.MapStack(new IdentityHashMap()));
+            map = Math.min(map, System.nanoTime() - t);
+        }
+        long read = deserialize(ser, b, 10);
+        System.out.println("ElsaStack deserialize 100K graph: MapStack(IdentityHashMap) " + map / 1000000 + " ms, " +
+                "ReadStack " + read / 1000000 + " ms");
+    }
+
+    /** compares stack implementations on large and tiny graphs */
+    static void stack() throws IOException {
+        ElsaSerializerPojo mapStack = new ElsaSerializerPojo() {
+            @Override
+            protected ElsaStack newElsaStack() {
+                return new ElsaStack.MapStack(new IdentityHashMap());
+            }
+        };
+        ElsaSerializerPojo hashStack = new ElsaSerializerPojo();
+        ElsaSerializerPojo adaptiveStack = new ElsaMaker().make();
+
+        ArrayList graph = graph(100000);
+        long map = serialize(mapStack, graph, 10, 1);
+        long hash = serialize(hashStack, graph, 10, 1);
+        long adaptive = serialize(adaptiveStack, graph, 10, 1);
+        System.out.println("ElsaStack serialize 100K graph: MapStack(IdentityHashMap) " + map / 1000000 + " ms, " +
+                "IdentityHashStack " + hash / 1000000 + " ms, AdaptiveStack " + adaptive / 1000000 + " ms");
+
+        //tiny graph, where linear search should win
+        ArrayList tiny = new ArrayList(Arrays.asList("a", 1L, new ArrayList()));
+        long tinyArray = serialize(new ElsaMaker().referenceArrayEnable().make(), tiny, 5, 100000);
+        long tinyHash = serialize(hashStack, tiny, 5, 100000);
+        long tinyAdaptive = serialize(adaptiveStack, tiny, 5, 100000);
+        System.out.println("ElsaStack serialize 3 item graph 100K times: IdentityArray " + tinyArray / 1000000 + " ms, " +
+                "IdentityHashStack " + tinyHash / 1000000 + " ms, AdaptiveStack " + tinyAdaptive / 1000000 + " ms");
+    }
+
+    /** decodes many enums and small POJOs */
+    static void instantiation() throws IOException {
+        //enum is written as ordinal, without references
+        ElsaSerializerPojo.ClassInfo order = new ElsaSerializerPojo.ClassInfo(
+                Order.class.getName(), new ElsaSerializerPojo.FieldInfo[0], true, false, false);
+        ElsaSerializerPojo ser = new ElsaSerializerPojo(null, 1, null, null, null, null, null,
+                new ElsaClassInfoResolver.ArrayBased(new ElsaSerializerPojo.ClassInfo[]{order}));
+
+        List<Object> enums = new ArrayList<Object>();
+        List<Object> beans = new ArrayList<Object>();
+        for (int i = 0; i < 100000; i++) {
+            enums.add(i % 3 == 0 ? Order.ASCENDING : Order.DESCENDING);
+            beans.add(new Bean(i));
+        }
+        long enumTime = deserialize(ser, serialize(ser, enums), 20);
+        long beanTime = deserialize(ser, serialize(ser, beans), 20);
+        System.out.println("Deserialize 100K enums: " + enumTime / 1000 + " us, small POJOs: " + beanTime / 1000 + " us");
+    }
+}
@@ -0,0 +1,268 @@
+package org.mapdb.elsa;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>
+ * {@link DataInput} which reads from {@link ByteBuffer}, both heap and direct (off-heap) buffers are supported.
+ * </p><p>
+ * Data are read with absolute positioning, starting at buffer position and ending at its limit.
+ * Buffer position is not modified while data are read, call {@link #finish()} to move it after consumed data.
+ * Primitive arrays are read in bulk using views such as {@link ByteBuffer#asLongBuffer()}.
+ * </p>
+ */
+public final class ElsaByteBufferInput extends ElsaInput {
+
+    private final ByteBuffer origBuf;
+    /** big endian view of original buffer, shares content with original buffer */
+    private final ByteBuffer buf;
+    /** current read position in buffer */
+    public int pos;
+    private final int limit;
+
+    /**
+     * @param buf buffer to read data from, reading starts at its current position
+     */
+    public ElsaByteBufferInput(ByteBuffer buf) {
+        this.origBuf = buf;
+        this.buf = buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.pos = buf.position();
+        this.limit = buf.limit();
+    }
+
+    /** Moves position of original buffer after consumed data */
+    public void finish() {
+        ((Buffer) origBuf).position(pos);
+    }
+
+    /** @return number of bytes which can still be read */
+    public int remaining() {
+        return limit - pos;
+    }
+
+    /**
+     * Checks that buffer has at least {@code n} more bytes.
+     *
+     * @param n number of bytes which will be read
+     * @throws EOFException if there is not enough data
+     */
+    public void checkAvail(long n) throws EOFException {
+        if (n < 0 || n > limit - pos)
+            throw new EOFException();
+    }
+
+    /** @return view of buffer starting at current position */
+    private ByteBuffer view() {
+        ByteBuffer b = buf.duplicate();
+        ((Buffer) b).position(pos);
+        return b.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    @Override
+    public int read() {
+        if (pos >= limit)
+            return -1;
+        return buf.get(pos++) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0)
+            return 0;
+        int avail = limit - pos;
+        if (avail <= 0)
+            return -1;
+        len = Math.min(len, avail);
+        view().get(b, off, len);
+        pos += len;
+        return len;
+    }
+
+    @Override
+    public long skip(long n) {
+        int skip = (int) Math.max(0, Math.min(n, limit - pos));
+        pos += skip;
+        return skip;
+    }
+
+    @Override
+    public int available() {
+        return limit - pos;
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        checkAvail(len);
+        view().get(b, off, len);
+        pos += len;
+    }
+
+    @Override
+    public int skipBytes(int n) {
+        return (int) skip(n);
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        if (pos >= limit)
+            throw new EOFException();
+        return buf.get(pos++);
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xFF;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        checkAvail(2);
+        short ret = buf.getShort(pos);
+        pos += 2;
+        return ret;
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xFFFF;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        return (char) readShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        checkAvail(4);
+        int ret = buf.getInt(pos);
+        pos += 4;
+        return ret;
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        checkAvail(8);
+        long ret = buf.getLong(pos);
+        pos += 8;
+        return ret;
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /** same as {@link DataInputStream#readLine()}, line is terminated by '\n', '\r' or "\r\n" */
+    @Override
+    @Deprecated
+    public String readLine() {
+        if (pos >= limit)
+            return null;
+        StringBuilder b = new StringBuilder();
+        while (pos < limit) {
+            char c = (char) (buf.get(pos++) & 0xFF);
+            if (c == '\n')
+                break;
+            if (c == '\r') {
+                if (pos < limit && buf.get(pos) == '\n')
+                    pos++;
+                break;
+            }
+            b.append(c);
+        }
+        return b.toString();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+
+    /**
+     * Unpack int value, same format as {@link ElsaUtil#unpackInt(DataInput)}.
+     *
+     * @return unpacked value
+     * @throws IOException if end of buffer was reached
+     */
+    public int unpackInt() throws IOException {
+        int ret = 0;
+        byte v;
+        do {
+            if (pos >= limit)
+                throw new EOFException();
+            v = buf.get(pos++);
+            ret = (ret << 7) | (v & 0x7F);
+        } while ((v & 0x80) == 0);
+        return ret;
+    }
+
+    /**
+     * Unpack long value, same format as {@link ElsaUtil#unpackLong(DataInput)}.
+     *
+     * @return unpacked value
+     * @throws IOException if end of buffer was reached
+     */
+    public long unpackLong() throws IOException {
+        long ret = 0;
+        byte v;
+        do {
+            if (pos >= limit)
+                throw new EOFException();
+            v = buf.get(pos++);
+            ret = (ret << 7) | (v & 0x7F);
+        } while ((v & 0x80) == 0);
+        return ret;
+    }
+
+    public void readShorts(short[] v) throws IOException {
+        checkAvail(v.length * 2L);
+        view().asShortBuffer().get(v);
+        pos += v.length * 2;
+    }
+
+    public void readInts(int[] v) throws IOException {
+        checkAvail(v.length * 4L);
+        view().asIntBuffer().get(v);
+        pos += v.length * 4;
+    }
+
+    public void readLongs(long[] v) throws IOException {
+        checkAvail(v.length * 8L);
+        view().asLongBuffer().get(v);
+        pos += v.length * 8;
+    }
+
+    public void readFloats(float[] v) throws IOException {
+        checkAvail(v.length * 4L);
+        view().asFloatBuffer().get(v);
+        pos += v.length * 4;
+    }
+
+    public void readDoubles(double[] v) throws IOException {
+        checkAvail(v.length * 8L);
+        view().asDoubleBuffer().get(v);
+        pos += v.length * 8;
+    }
+}
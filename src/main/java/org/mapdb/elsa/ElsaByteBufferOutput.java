@@ -0,0 +1,219 @@
+package org.mapdb.elsa;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>
+ * {@link DataOutput} which writes into {@link ByteBuffer}, both heap and direct (off-heap) buffers are supported.
+ * </p><p>
+ * Data are written with absolute positioning, starting at buffer position.
+ * Buffer position is not modified while data are written, call {@link #finish()} to move it after written data.
+ * Primitive arrays are written in bulk using views such as {@link ByteBuffer#asLongBuffer()}.
+ * If there is not enough space in buffer, {@link BufferOverflowException} is thrown.
+ * </p>
+ */
+public final class ElsaByteBufferOutput extends ElsaOutput {
+
+    private final ByteBuffer origBuf;
+    /** big endian view of original buffer, shares content with original buffer */
+    private final ByteBuffer buf;
+    /** current write position in buffer */
+    public int pos;
+    private final int limit;
+
+    /**
+     * @param buf buffer to write data into, writing starts at its current position
+     */
+    public ElsaByteBufferOutput(ByteBuffer buf) {
+        this.origBuf = buf;
+        this.buf = buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.pos = buf.position();
+        this.limit = buf.limit();
+    }
+
+    /** Moves position of original buffer after written data */
+    public void finish() {
+        ((Buffer) origBuf).position(pos);
+    }
+
+    /**
+     * Checks that buffer has enough space for extra bytes
+     *
+     * @param n number of bytes which will be written
+     * @throws BufferOverflowException if there is not enough space
+     */
+    public void ensureAvail(long n) {
+        if (n < 0 || n > limit - pos)
+            throw new BufferOverflowException();
+    }
+
+    /** @return view of buffer starting at current position */
+    private ByteBuffer view() {
+        ByteBuffer b = buf.duplicate();
+        ((Buffer) b).position(pos);
+        return b.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureAvail(1);
+        buf.put(pos++, (byte) b);
+    }
+
+    @Override
+    public void write(byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureAvail(len);
+        view().put(b, off, len);
+        pos += len;
+    }
+
+    @Override
+    public void writeBoolean(boolean v) {
+        write(v ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(int v) {
+        write(v);
+    }
+
+    @Override
+    public void writeShort(int v) {
+        ensureAvail(2);
+        buf.putShort(pos, (short) v);
+        pos += 2;
+    }
+
+    @Override
+    public void writeChar(int v) {
+        writeShort(v);
+    }
+
+    @Override
+    public void writeInt(int v) {
+        ensureAvail(4);
+        buf.putInt(pos, v);
+        pos += 4;
+    }
+
+    @Override
+    public void writeLong(long v) {
+        ensureAvail(8);
+        buf.putLong(pos, v);
+        pos += 8;
+    }
+
+    @Override
+    public void writeFloat(float v) {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    @Override
+    public void writeDouble(double v) {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    @Override
+    public void writeBytes(String s) {
+        int len = s.length();
+        ensureAvail(len);
+        for (int i = 0; i < len; i++)
+            buf.put(pos++, (byte) s.charAt(i));
+    }
+
+    @Override
+    public void writeChars(String s) {
+        int len = s.length();
+        ensureAvail(len * 2L);
+        for (int i = 0; i < len; i++) {
+            buf.putChar(pos, s.charAt(i));
+            pos += 2;
+        }
+    }
+
+    /** same format as {@link java.io.DataOutputStream#writeUTF(String)} */
+    @Override
+    public void writeUTF(String s) throws IOException {
+        //encode into temporary heap array, and copy it in single batch
+        ElsaDataOutput out = new ElsaDataOutput(s.length() + 2);
+        out.writeUTF(s);
+        write(out.buf, 0, out.pos);
+    }
+
+    /**
+     * Pack int into buffer, same format as {@link ElsaUtil#packInt(DataOutput, int)}.
+     *
+     * @param value to be serialized, must be non-negative
+     */
+    public void packInt(int value) {
+        int shift = (value & ~0x7F);
+        if (shift != 0) {
+            shift = 31 - Integer.numberOfLeadingZeros(value);
+            shift -= shift % 7; // round down to nearest multiple of 7
+            ensureAvail(shift / 7 + 1);
+            while (shift != 0) {
+                buf.put(pos++, (byte) ((value >>> shift) & 0x7F));
+                shift -= 7;
+            }
+        } else {
+            ensureAvail(1);
+        }
+        buf.put(pos++, (byte) ((value & 0x7F) | 0x80));
+    }
+
+    /**
+     * Pack long into buffer, same format as {@link ElsaUtil#packLong(DataOutput, long)}.
+     *
+     * @param value to be serialized, must be non-negative
+     */
+    public void packLong(long value) {
+        int shift = 63 - Long.numberOfLeadingZeros(value);
+        shift -= shift % 7; // round down to nearest multiple of 7
+        ensureAvail(shift / 7 + 1);
+        while (shift != 0) {
+            buf.put(pos++, (byte) ((value >>> shift) & 0x7F));
+            shift -= 7;
+        }
+        buf.put(pos++, (byte) ((value & 0x7F) | 0x80));
+    }
+
+    public void writeShorts(short[] v) {
+        ensureAvail(v.length * 2L);
+        view().asShortBuffer().put(v);
+        pos += v.length * 2;
+    }
+
+    public void writeInts(int[] v) {
+        ensureAvail(v.length * 4L);
+        view().asIntBuffer().put(v);
+        pos += v.length * 4;
+    }
+
+    public void writeLongs(long[] v) {
+        ensureAvail(v.length * 8L);
+        view().asLongBuffer().put(v);
+        pos += v.length * 8;
+    }
+
+    public void writeFloats(float[] v) {
+        ensureAvail(v.length * 4L);
+        view().asFloatBuffer().put(v);
+        pos += v.length * 4;
+    }
+
+    public void writeDoubles(double[] v) {
+        ensureAvail(v.length * 8L);
+        view().asDoubleBuffer().put(v);
+        pos += v.length * 8;
+    }
+}
@@ -0,0 +1,304 @@
+package org.mapdb.elsa;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * <p>
+ * {@link DataOutput} which serializes directly into ring of direct {@link ByteBuffer}s
+ * and writes them into {@link WritableByteChannel} (socket, file...).
+ * </p><p>
+ * Buffers are filled one after another. Once all buffers in ring are full, they are written into channel
+ * in single gathering write and reused. So large object graph is never fully materialized on heap.
+ * Call {@link #flush()} to write remaining data into channel.
+ * </p><p>
+ * Buffers with default size are taken from shared pool and returned into pool on {@link #close()}.
+ * This class is not thread safe.
+ * </p>
+ */
+public final class ElsaChannelOutput extends ElsaOutput {
+
+    /** default size of single buffer in ring */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    /** default number of buffers in ring */
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+
+    /** direct buffers with default size, shared between outputs */
+    protected static final ConcurrentLinkedQueue<ByteBuffer> POOL = new ConcurrentLinkedQueue<ByteBuffer>();
+    /** maximal number of buffers kept in pool */
+    protected static final int POOL_MAX_SIZE = 64;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer[] ring;
+    private final boolean pooled;
+    /** index of buffer in ring which is currently filled */
+    private int index = 0;
+    /** buffer which is currently filled, it is {@code ring[index]} */
+    private ByteBuffer cur;
+    private boolean closed = false;
+
+    /**
+     * Creates output with pooled buffers of default size.
+     *
+     * @param channel channel to write data into
+     */
+    public ElsaChannelOutput(WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+    }
+
+    /**
+     * @param channel channel to write data into
+     * @param bufferSize size of single buffer in ring, must be at least 8 bytes
+     * @param bufferCount number of buffers in ring
+     */
+    public ElsaChannelOutput(WritableByteChannel channel, int bufferSize, int bufferCount) {
+        if (bufferSize < 8 || bufferCount < 1)
+            throw new IllegalArgumentException("Buffer size must be at least 8 and buffer count at least 1");
+        this.channel = channel;
+        this.pooled = bufferSize == DEFAULT_BUFFER_SIZE;
+        this.ring = new ByteBuffer[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            ByteBuffer b = pooled ? POOL.poll() : null;
+            ring[i] = b != null ? b : ByteBuffer.allocateDirect(bufferSize);
+        }
+        this.cur = ring[0];
+    }
+
+    /**
+     * Moves to next buffer in ring, if all buffers are full, they are written into channel.
+     */
+    private void next() throws IOException {
+        if (closed)
+            throw new IOException("Output is closed");
+        if (index == ring.length - 1) {
+            drain();
+        } else {
+            cur = ring[++index];
+        }
+    }
+
+    /**
+     * Writes all filled buffers into channel and resets ring.
+     */
+    private void drain() throws IOException {
+        int count = index + 1;
+        for (int i = 0; i < count; i++)
+            ((Buffer) ring[i]).flip();
+        if (channel instanceof GatheringByteChannel) {
+            GatheringByteChannel gch = (GatheringByteChannel) channel;
+            while (ring[index].hasRemaining())
+                gch.write(ring, 0, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                while (ring[i].hasRemaining())
+                    channel.write(ring[i]);
+            }
+        }
+        for (int i = 0; i < count; i++)
+            ((Buffer) ring[i]).clear();
+        index = 0;
+        cur = ring[0];
+    }
+
+    /** Writes all buffered data into channel. */
+    @Override
+    public void flush() throws IOException {
+        if (closed)
+            throw new IOException("Output is closed");
+        if (index == 0 && cur.position() == 0)
+            return;
+        drain();
+    }
+
+    /**
+     * Flushes remaining data, closes channel and returns buffers into pool.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        try {
+            flush();
+            channel.close();
+        } finally {
+            closed = true;
+            //buffers can be reused by other output, so make sure nothing is written into them
+            cur = ByteBuffer.allocate(0);
+            if (pooled) {
+                for (ByteBuffer b : ring) {
+                    if (POOL.size() >= POOL_MAX_SIZE)
+                        break;
+                    ((Buffer) b).clear();
+                    POOL.offer(b);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!cur.hasRemaining())
+            next();
+        cur.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!cur.hasRemaining())
+                next();
+            int count = Math.min(len, cur.remaining());
+            cur.put(b, off, count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void writeBoolean(boolean v) throws IOException {
+        write(v ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(int v) throws IOException {
+        write(v);
+    }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+        if (cur.remaining() >= 2) {
+            cur.putShort((short) v);
+        } else {
+            write(v >>> 8);
+            write(v);
+        }
+    }
+
+    @Override
+    public void writeChar(int v) throws IOException {
+        writeShort(v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        if (cur.remaining() >= 4) {
+            cur.putInt(v);
+        } else {
+            writeShort(v >>> 16);
+            writeShort(v);
+        }
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        if (cur.remaining() >= 8) {
+            cur.putLong(v);
+        } else {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+    }
+
+    @Override
+    public void writeFloat(float v) throws IOException {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    @Override
+    public void writeDouble(double v) throws IOException {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    @Override
+    public void writeBytes(String s) throws IOException {
+        int len = s.length();
+        for (int i = 0; i < len; i++)
+            write(s.charAt(i));
+    }
+
+    @Override
+    public void writeChars(String s) throws IOException {
+        int len = s.length();
+        for (int i = 0; i < len; i++)
+            writeShort(s.charAt(i));
+    }
+
+    /** same format as {@link java.io.DataOutputStream#writeUTF(String)} */
+    @Override
+    public void writeUTF(String s) throws IOException {
+        //encode into temporary heap array, and copy it in single batch
+        ElsaDataOutput out = new ElsaDataOutput(s.length() + 2);
+        out.writeUTF(s);
+        write(out.buf, 0, out.pos);
+    }
+
+    /**
+     * Pack int into output, same format as {@link ElsaUtil#packInt(DataOutput, int)}.
+     *
+     * @param value to be serialized, must be non-negative
+     * @throws IOException if channel write failed
+     */
+    public void packInt(int value) throws IOException {
+        if (cur.remaining() < 5) {
+            packIntSlow(value);
+            return;
+        }
+        int shift = (value & ~0x7F);
+        if (shift != 0) {
+            shift = 31 - Integer.numberOfLeadingZeros(value);
+            shift -= shift % 7; // round down to nearest multiple of 7
+            while (shift != 0) {
+                cur.put((byte) ((value >>> shift) & 0x7F));
+                shift -= 7;
+            }
+        }
+        cur.put((byte) ((value & 0x7F) | 0x80));
+    }
+
+    private void packIntSlow(int value) throws IOException {
+        int shift = (value & ~0x7F);
+        if (shift != 0) {
+            shift = 31 - Integer.numberOfLeadingZeros(value);
+            shift -= shift % 7;
+            while (shift != 0) {
+                write((value >>> shift) & 0x7F);
+                shift -= 7;
+            }
+        }
+        write((value & 0x7F) | 0x80);
+    }
+
+    /**
+     * Pack long into output, same format as {@link ElsaUtil#packLong(DataOutput, long)}.
+     *
+     * @param value to be serialized, must be non-negative
+     * @throws IOException if channel write failed
+     */
+    public void packLong(long value) throws IOException {
+        int shift = 63 - Long.numberOfLeadingZeros(value);
+        shift -= shift % 7; // round down to nearest multiple of 7
+        if (cur.remaining() > shift / 7) {
+            while (shift != 0) {
+                cur.put((byte) ((value >>> shift) & 0x7F));
+                shift -= 7;
+            }
+            cur.put((byte) ((value & 0x7F) | 0x80));
+        } else {
+            while (shift != 0) {
+                write((int) ((value >>> shift) & 0x7F));
+                shift -= 7;
+            }
+            write((int) ((value & 0x7F) | 0x80));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.mapdb.elsa;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Serializer and deserializer bound to single top level type, see {@link ElsaSerializerPojo#codecFor(Class)}.
+ * Type of top level object is not resolved on each call, so binary data written by codec
+ * can only be read by codec for the same type.
+ *
+ * @param <T> type of top level object
+ */
+public interface ElsaCodec<T> {
+
+    /**
+     * Converts object instance into binary form
+     *
+     * @param output output into which binary data will be written while object is serialized
+     * @param value object instance to be serialized
+     * @throws IOException an exception from underlying stream
+     */
+    void serialize(DataOutput output, T value) throws IOException;
+
+    /**
+     * Reads binary data from input and converts them into object instance.
+     *
+     * @param input input to read data from
+     * @return deserialized object
+     * @throws IOException an exception from underlying stream
+     */
+    T deserialize(DataInput input) throws IOException;
+
+    /**
+     * Reads binary data from byte array and converts them into object instance.
+     *
+     * @param buf array to read data from
+     * @param off offset of first byte in array
+     * @param len number of bytes which can be read from array
+     * @return deserialized object
+     * @throws IOException if data are corrupted
+     */
+    default T deserialize(byte[] buf, int off, int len) throws IOException {
+        return deserialize(new ElsaDataInput(buf, off, len));
+    }
+}
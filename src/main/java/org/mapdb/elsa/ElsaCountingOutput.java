@@ -0,0 +1,188 @@
+package org.mapdb.elsa;
+
+import java.io.DataOutput;
+import java.io.UTFDataFormatException;
+
+/**
+ * <p>
+ * {@link DataOutput} which discards all data and only counts number of written bytes.
+ * It is used to calculate serialized size without allocating any buffer.
+ * </p><p>
+ * Packed numbers, strings and primitive arrays are counted arithmetically, without encoding their content.
+ * </p>
+ */
+public final class ElsaCountingOutput extends ElsaOutput {
+
+    private long count = 0;
+
+    /** @return number of bytes written so far */
+    public long size() {
+        return count;
+    }
+
+    /** resets counter to zero, so this output can be reused */
+    public void reset() {
+        count = 0;
+    }
+
+    /**
+     * @param value non-negative value
+     * @return number of bytes used by {@link ElsaUtil#packInt(DataOutput, int)}
+     */
+    public static int packedIntSize(int value) {
+        return value == 0 ? 1 : (31 - Integer.numberOfLeadingZeros(value)) / 7 + 1;
+    }
+
+    /**
+     * @param value non-negative value
+     * @return number of bytes used by {@link ElsaUtil#packLong(DataOutput, long)}
+     */
+    public static int packedLongSize(long value) {
+        return value == 0 ? 1 : (63 - Long.numberOfLeadingZeros(value)) / 7 + 1;
+    }
+
+    @Override
+    public void write(int b) {
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b) {
+        count += b.length;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        count += len;
+    }
+
+    @Override
+    public void writeBoolean(boolean v) {
+        count++;
+    }
+
+    @Override
+    public void writeByte(int v) {
+        count++;
+    }
+
+    @Override
+    public void writeShort(int v) {
+        count += 2;
+    }
+
+    @Override
+    public void writeChar(int v) {
+        count += 2;
+    }
+
+    @Override
+    public void writeInt(int v) {
+        count += 4;
+    }
+
+    @Override
+    public void writeLong(long v) {
+        count += 8;
+    }
+
+    @Override
+    public void writeFloat(float v) {
+        count += 4;
+    }
+
+    @Override
+    public void writeDouble(double v) {
+        count += 8;
+    }
+
+    @Override
+    public void writeBytes(String s) {
+        count += s.length();
+    }
+
+    @Override
+    public void writeChars(String s) {
+        count += s.length() * 2L;
+    }
+
+    /** same size as {@link java.io.DataOutputStream#writeUTF(String)} */
+    @Override
+    public void writeUTF(String s) throws UTFDataFormatException {
+        int len = s.length();
+        int utfLen = 0;
+        for (int i = 0; i < len; i++) {
+            int c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F)
+                utfLen++;
+            else if (c > 0x07FF)
+                utfLen += 3;
+            else
+                utfLen += 2;
+        }
+        if (utfLen > 65535)
+            throw new UTFDataFormatException("encoded string too long: " + utfLen + " bytes");
+        count += utfLen + 2;
+    }
+
+    public void packInt(int value) {
+        count += packedIntSize(value);
+    }
+
+    public void packLong(long value) {
+        count += packedLongSize(value);
+    }
+
+    /** counts chars written as packed ints, see {@link ElsaDataOutput#packChars(String)} */
+    public void packChars(String s) {
+        int len = s.length();
+        long size = len;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            //chars take 1 to 3 bytes
+            if (c > 0x7F)
+                size += c > 0x3FFF ? 2 : 1;
+        }
+        count += size;
+    }
+
+    /** counts chars written as packed ints, see {@link ElsaDataOutput#packChars(char[])} */
+    public void packChars(char[] v) {
+        long size = v.length;
+        for (char c : v) {
+            if (c > 0x7F)
+                size += c > 0x3FFF ? 2 : 1;
+        }
+        count += size;
+    }
+
+    /** counts string written as Latin-1, see {@link ElsaDataOutput#writeLatin1(String)} */
+    public void writeLatin1(String s) {
+        count += s.length();
+    }
+
+    /** counts string written as modified UTF-8, see {@link ElsaDataOutput#writeModifiedUtf8(String, int)} */
+    public void writeModifiedUtf8(String s, int utfLen) {
+        count += utfLen;
+    }
+
+    public void writeShorts(short[] v) {
+        count += v.length * 2L;
+    }
+
+    public void writeInts(int[] v) {
+        count += v.length * 4L;
+    }
+
+    public void writeLongs(long[] v) {
+        count += v.length * 8L;
+    }
+
+    public void writeFloats(float[] v) {
+        count += v.length * 4L;
+    }
+
+    public void writeDoubles(double[] v) {
+        count += v.length * 8L;
+    }
+}
@@ -0,0 +1,420 @@
+package org.mapdb.elsa;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ * {@link DataInput} which reads from {@code byte[]} using position arithmetic.
+ * It is faster alternative to {@code DataInputStream(ByteArrayInputStream)}:
+ * it is not synchronized and packed values and Strings are decoded in tight loops over array,
+ * without virtual call for each byte.
+ * </p><p>
+ * Built-in Elsa deserializers recognize this class and use its bulk methods
+ * to read Strings and primitive arrays.
+ * </p>
+ */
+public final class ElsaDataInput extends ElsaInput {
+
+    /** underlying array */
+    public final byte[] buf;
+    /** current read position in {@link #buf} */
+    public int pos;
+    /** position after last readable byte */
+    public final int limit;
+
+    public ElsaDataInput(byte[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    /**
+     * @param buf array to read data from
+     * @param off position of first byte to read
+     * @param len number of readable bytes
+     */
+    public ElsaDataInput(byte[] buf, int off, int len) {
+        if (off < 0 || len < 0 || off + len > buf.length || off + len < 0)
+            throw new IndexOutOfBoundsException();
+        this.buf = buf;
+        this.pos = off;
+        this.limit = off + len;
+    }
+
+    /** @return number of bytes which can still be read */
+    public int remaining() {
+        return limit - pos;
+    }
+
+    /**
+     * Checks that input has at least {@code n} more bytes.
+     *
+     * @param n number of bytes which will be read
+     * @throws EOFException if there is not enough data
+     */
+    public void checkAvail(long n) throws EOFException {
+        if (n < 0 || n > limit - pos)
+            throw new EOFException();
+    }
+
+    @Override
+    public int read() {
+        if (pos >= limit)
+            return -1;
+        return buf[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0)
+            return 0;
+        int avail = limit - pos;
+        if (avail <= 0)
+            return -1;
+        len = Math.min(len, avail);
+        System.arraycopy(buf, pos, b, off, len);
+        pos += len;
+        return len;
+    }
+
+    @Override
+    public long skip(long n) {
+        int skip = (int) Math.max(0, Math.min(n, limit - pos));
+        pos += skip;
+        return skip;
+    }
+
+    @Override
+    public int available() {
+        return limit - pos;
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        checkAvail(len);
+        System.arraycopy(buf, pos, b, off, len);
+        pos += len;
+    }
+
+    @Override
+    public int skipBytes(int n) {
+        return (int) skip(n);
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        if (pos >= limit)
+            throw new EOFException();
+        return buf[pos++];
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xFF;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        checkAvail(2);
+        return getShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xFFFF;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        return (char) readShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        checkAvail(4);
+        return getInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        checkAvail(8);
+        return getLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /** same as {@link DataInputStream#readLine()}, line is terminated by '\n', '\r' or "\r\n" */
+    @Override
+    @Deprecated
+    public String readLine() {
+        if (pos >= limit)
+            return null;
+        StringBuilder b = new StringBuilder();
+        while (pos < limit) {
+            char c = (char) (buf[pos++] & 0xFF);
+            if (c == '\n')
+                break;
+            if (c == '\r') {
+                if (pos < limit && buf[pos] == '\n')
+                    pos++;
+                break;
+            }
+            b.append(c);
+        }
+        return b.toString();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+
+    /**
+     * Unpack int value, same format as {@link ElsaUtil#unpackInt(DataInput)}.
+     *
+     * @return unpacked value
+     * @throws IOException if end of input was reached
+     */
+    public int unpackInt() throws IOException {
+        final byte[] buf = this.buf;
+        int pos = this.pos;
+        int ret = 0;
+        byte v;
+        try {
+            do {
+                v = buf[pos++];
+                ret = (ret << 7) | (v & 0x7F);
+            } while ((v & 0x80) == 0);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new EOFException();
+        }
+        if (pos > limit)
+            throw new EOFException();
+        this.pos = pos;
+        return ret;
+    }
+
+    /**
+     * Unpack long value, same format as {@link ElsaUtil#unpackLong(DataInput)}.
+     *
+     * @return unpacked value
+     * @throws IOException if end of input was reached
+     */
+    public long unpackLong() throws IOException {
+        final byte[] buf = this.buf;
+        int pos = this.pos;
+        long ret = 0;
+        byte v;
+        try {
+            do {
+                v = buf[pos++];
+                ret = (ret << 7) | (v & 0x7F);
+            } while ((v & 0x80) == 0);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new EOFException();
+        }
+        if (pos > limit)
+            throw new EOFException();
+        this.pos = pos;
+        return ret;
+    }
+
+    /**
+     * Reads String where each char is stored as packed int.
+     * This is format used by {@code ElsaSerializerBase.SER_STRING}.
+     *
+     * @param len number of chars in string
+     * @return decoded string
+     * @throws IOException if end of input was reached
+     */
+    public String unpackString(int len) throws IOException {
+        char[] c = new char[len];
+        unpackChars(c);
+        return new String(c);
+    }
+
+    /**
+     * Reads String where each char is stored as single byte (Latin-1).
+     *
+     * @param len number of chars in string
+     * @return decoded string
+     * @throws IOException if end of input was reached
+     */
+    public String readLatin1(int len) throws IOException {
+        if (len > limit - pos)
+            throw new EOFException();
+        String ret = new String(buf, pos, len, StandardCharsets.ISO_8859_1);
+        pos += len;
+        return ret;
+    }
+
+    /**
+     * Reads String stored in modified UTF-8 encoding, without length prefix.
+     *
+     * @param len number of chars in string
+     * @param utfLen number of encoded bytes
+     * @return decoded string
+     * @throws IOException if end of input was reached or data are corrupted
+     */
+    public String readModifiedUtf8(int len, int utfLen) throws IOException {
+        if (utfLen > limit - pos)
+            throw new EOFException();
+        char[] c = new char[len];
+        ElsaSerializerBase.decodeModifiedUtf8(buf, pos, utfLen, c);
+        pos += utfLen;
+        return new String(c);
+    }
+
+    /**
+     * Fills array with chars, each char is stored as packed int.
+     *
+     * @param c array to fill
+     * @throws IOException if end of input was reached
+     */
+    public void unpackChars(char[] c) throws IOException {
+        final byte[] buf = this.buf;
+        int pos = this.pos;
+        try {
+            for (int i = 0; i < c.length; i++) {
+                byte v = buf[pos++];
+                if (v < 0) {
+                    //common case, char smaller than 128 occupies single byte
+                    c[i] = (char) (v & 0x7F);
+                    continue;
+                }
+                int ret = v;
+                do {
+                    v = buf[pos++];
+                    ret = (ret << 7) | (v & 0x7F);
+                } while ((v & 0x80) == 0);
+                c[i] = (char) ret;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new EOFException();
+        }
+        if (pos > limit)
+            throw new EOFException();
+        this.pos = pos;
+    }
+
+    public void readShorts(short[] v) throws IOException {
+        checkAvail(v.length * 2L);
+        for (int i = 0; i < v.length; i++)
+            v[i] = getShort();
+    }
+
+    public void readInts(int[] v) throws IOException {
+        checkAvail(v.length * 4L);
+        for (int i = 0; i < v.length; i++)
+            v[i] = getInt();
+    }
+
+    public void readLongs(long[] v) throws IOException {
+        checkAvail(v.length * 8L);
+        for (int i = 0; i < v.length; i++)
+            v[i] = getLong();
+    }
+
+    public void readFloats(float[] v) throws IOException {
+        checkAvail(v.length * 4L);
+        for (int i = 0; i < v.length; i++)
+            v[i] = Float.intBitsToFloat(getInt());
+    }
+
+    public void readDoubles(double[] v) throws IOException {
+        checkAvail(v.length * 8L);
+        for (int i = 0; i < v.length; i++)
+            v[i] = Double.longBitsToDouble(getLong());
+    }
+
+    /** reads single signed byte for each value */
+    public void readIntsAsBytes(int[] v) throws IOException {
+        checkAvail(v.length);
+        for (int i = 0; i < v.length; i++)
+            v[i] = buf[pos++];
+    }
+
+    /** reads signed short for each value */
+    public void readIntsAsShorts(int[] v) throws IOException {
+        checkAvail(v.length * 2L);
+        for (int i = 0; i < v.length; i++)
+            v[i] = getShort();
+    }
+
+    /** reads single signed byte for each value */
+    public void readLongsAsBytes(long[] v) throws IOException {
+        checkAvail(v.length);
+        for (int i = 0; i < v.length; i++)
+            v[i] = buf[pos++];
+    }
+
+    /** reads signed short for each value */
+    public void readLongsAsShorts(long[] v) throws IOException {
+        checkAvail(v.length * 2L);
+        for (int i = 0; i < v.length; i++)
+            v[i] = getShort();
+    }
+
+    /** reads signed int for each value */
+    public void readLongsAsInts(long[] v) throws IOException {
+        checkAvail(v.length * 4L);
+        for (int i = 0; i < v.length; i++)
+            v[i] = getInt();
+    }
+
+
+    // get* methods do not check for available data, caller must call checkAvail() first
+
+    private short getShort() {
+        int pos = this.pos;
+        short ret = (short) ((buf[pos] << 8) | (buf[pos + 1] & 0xFF));
+        this.pos = pos + 2;
+        return ret;
+    }
+
+    private int getInt() {
+        final byte[] buf = this.buf;
+        int pos = this.pos;
+        int ret = ((buf[pos] & 0xFF) << 24)
+                | ((buf[pos + 1] & 0xFF) << 16)
+                | ((buf[pos + 2] & 0xFF) << 8)
+                | (buf[pos + 3] & 0xFF);
+        this.pos = pos + 4;
+        return ret;
+    }
+
+    private long getLong() {
+        final byte[] buf = this.buf;
+        int pos = this.pos;
+        long ret = ((long) (buf[pos] & 0xFF) << 56)
+                | ((long) (buf[pos + 1] & 0xFF) << 48)
+                | ((long) (buf[pos + 2] & 0xFF) << 40)
+                | ((long) (buf[pos + 3] & 0xFF) << 32)
+                | ((long) (buf[pos + 4] & 0xFF) << 24)
+                | ((long) (buf[pos + 5] & 0xFF) << 16)
+                | ((long) (buf[pos + 6] & 0xFF) << 8)
+                | ((long) (buf[pos + 7] & 0xFF));
+        this.pos = pos + 8;
+        return ret;
+    }
+}
@@ -0,0 +1,427 @@
+package org.mapdb.elsa;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Growable {@code byte[]} backed {@link DataOutput}.
+ * It is faster alternative to {@code DataOutputStream(ByteArrayOutputStream)}:
+ * it is not synchronized, all writes are done with direct position arithmetic over single array,
+ * and packed values are written inline rather than byte-by-byte through {@link DataOutput} interface.
+ * </p><p>
+ * Built-in Elsa serializers recognize this class and use its bulk methods to write
+ * Strings and primitive arrays. Binary format is the same as with any other {@code DataOutput}.
+ * </p>
+ */
+public final class ElsaDataOutput extends ElsaOutput {
+
+    /** maximal size of array supported by most JVMs */
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    /** number of values written after single {@link #ensureAvail(long)} call, if each value has variable size */
+    private static final int CHUNK = 1024;
+
+    /** underlying array, it is replaced with bigger array when it needs to grow */
+    public byte[] buf;
+    /** current position in {@link #buf}, also number of bytes written so far */
+    public int pos;
+
+    public ElsaDataOutput() {
+        this(128);
+    }
+
+    public ElsaDataOutput(int initialSize) {
+        buf = new byte[Math.max(1, initialSize)];
+        pos = 0;
+    }
+
+    /**
+     * Makes sure that underlying array has space for extra bytes, grows it if necessary.
+     * Size is {@code long}, so callers can multiply array length without overflow.
+     *
+     * @param n number of bytes which will be written
+     * @throws OutOfMemoryError if output would not fit into array
+     */
+    public void ensureAvail(long n) {
+        long size = pos + n;
+        if (size > buf.length) {
+            if (n < 0 || size > MAX_SIZE)
+                throw new OutOfMemoryError("Output is larger than 2GB");
+            //grow array, at least double its size to amortize copy
+            buf = Arrays.copyOf(buf, (int) Math.min(MAX_SIZE, Math.max(size, buf.length * 2L)));
+        }
+    }
+
+    /** @return copy of written data */
+    public byte[] copyBytes() {
+        return Arrays.copyOf(buf, pos);
+    }
+
+    /** @return number of bytes written so far */
+    public int size() {
+        return pos;
+    }
+
+    /** Discards written data, but keeps underlying array, so it can be reused */
+    public void reset() {
+        pos = 0;
+    }
+
+    /**
+     * Writes content of this output into stream
+     *
+     * @param out stream to write data into
+     * @throws IOException an exception from underlying stream
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, pos);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureAvail(1);
+        buf[pos++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureAvail(len);
+        System.arraycopy(b, off, buf, pos, len);
+        pos += len;
+    }
+
+    @Override
+    public void writeBoolean(boolean v) {
+        ensureAvail(1);
+        buf[pos++] = (byte) (v ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(int v) {
+        ensureAvail(1);
+        buf[pos++] = (byte) v;
+    }
+
+    @Override
+    public void writeShort(int v) {
+        ensureAvail(2);
+        buf[pos++] = (byte) (v >> 8);
+        buf[pos++] = (byte) v;
+    }
+
+    @Override
+    public void writeChar(int v) {
+        writeShort(v);
+    }
+
+    @Override
+    public void writeInt(int v) {
+        ensureAvail(4);
+        putInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) {
+        ensureAvail(8);
+        putLong(v);
+    }
+
+    @Override
+    public void writeFloat(float v) {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    @Override
+    public void writeDouble(double v) {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    @Override
+    public void writeBytes(String s) {
+        int len = s.length();
+        ensureAvail(len);
+        for (int i = 0; i < len; i++)
+            buf[pos++] = (byte) s.charAt(i);
+    }
+
+    @Override
+    public void writeChars(String s) {
+        int len = s.length();
+        ensureAvail(len * 2L);
+        for (int i = 0; i < len; i++) {
+            int c = s.charAt(i);
+            buf[pos++] = (byte) (c >> 8);
+            buf[pos++] = (byte) c;
+        }
+    }
+
+    /** same format as {@link java.io.DataOutputStream#writeUTF(String)} */
+    @Override
+    public void writeUTF(String s) throws IOException {
+        int len = s.length();
+        int utfLen = 0;
+        for (int i = 0; i < len; i++) {
+            int c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F)
+                utfLen++;
+            else if (c > 0x07FF)
+                utfLen += 3;
+            else
+                utfLen += 2;
+        }
+        if (utfLen > 65535)
+            throw new UTFDataFormatException("encoded string too long: " + utfLen + " bytes");
+
+        ensureAvail(utfLen + 2);
+        buf[pos++] = (byte) (utfLen >> 8);
+        buf[pos++] = (byte) utfLen;
+        for (int i = 0; i < len; i++) {
+            int c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                buf[pos++] = (byte) c;
+            } else if (c > 0x07FF) {
+                buf[pos++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                buf[pos++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Pack int into output, same format as {@link ElsaUtil#packInt(DataOutput, int)}.
+     * It will occupy 1-5 bytes depending on value (lower values occupy smaller space)
+     *
+     * @param value to be serialized, must be non-negative
+     */
+    public void packInt(int value) {
+        ensureAvail(5);
+        putPackedInt(value);
+    }
+
+    /**
+     * Pack long into output, same format as {@link ElsaUtil#packLong(DataOutput, long)}.
+     * It will occupy 1-10 bytes depending on value (lower values occupy smaller space)
+     *
+     * @param value to be serialized, must be non-negative
+     */
+    public void packLong(long value) {
+        ensureAvail(10);
+        putPackedLong(value);
+    }
+
+    /**
+     * Writes each char of String as packed int, this is format used by {@code ElsaSerializerBase.SER_STRING}
+     *
+     * @param s string to write
+     */
+    public void packChars(String s) {
+        int len = s.length();
+        for (int i = 0; i < len; ) {
+            //packed char takes up to 3 bytes, space is reserved in chunks, so large string does not reserve 3x its size
+            int end = Math.min(len, i + CHUNK);
+            ensureAvail((end - i) * 3);
+            for (; i < end; i++)
+                putPackedInt(s.charAt(i));
+        }
+    }
+
+    /**
+     * Writes each char as packed int
+     *
+     * @param v chars to write
+     */
+    public void packChars(char[] v) {
+        for (int i = 0; i < v.length; ) {
+            int end = Math.min(v.length, i + CHUNK);
+            ensureAvail((end - i) * 3);
+            for (; i < end; i++)
+                putPackedInt(v[i]);
+        }
+    }
+
+    /**
+     * Writes low byte of each char, used for Latin-1 strings.
+     *
+     * @param s string with all chars smaller than 256
+     */
+    @SuppressWarnings("deprecation")
+    public void writeLatin1(String s) {
+        int len = s.length();
+        ensureAvail(len);
+        s.getBytes(0, len, buf, pos);
+        pos += len;
+    }
+
+    /**
+     * Writes chars in modified UTF-8 encoding, without length prefix.
+     *
+     * @param s string to write
+     * @param utfLen number of encoded bytes, see {@link ElsaSerializerBase#modifiedUtf8Length(String)}
+     */
+    public void writeModifiedUtf8(String s, int utfLen) {
+        ensureAvail(utfLen);
+        pos = ElsaSerializerBase.encodeModifiedUtf8(s, buf, pos);
+    }
+
+    /**
+     * Writes each value as packed int
+     *
+     * @param v values to write, must be non-negative
+     */
+    public void packInts(int[] v) {
+        for (int i = 0; i < v.length; ) {
+            int end = Math.min(v.length, i + CHUNK);
+            ensureAvail((end - i) * 5);
+            for (; i < end; i++)
+                putPackedInt(v[i]);
+        }
+    }
+
+    /**
+     * Writes each value as packed long
+     *
+     * @param v values to write, must be non-negative
+     */
+    public void packLongs(long[] v) {
+        for (int i = 0; i < v.length; ) {
+            int end = Math.min(v.length, i + CHUNK);
+            ensureAvail((end - i) * 10);
+            for (; i < end; i++)
+                putPackedLong(v[i]);
+        }
+    }
+
+    public void writeShorts(short[] v) {
+        ensureAvail(v.length * 2L);
+        for (short s : v) {
+            buf[pos++] = (byte) (s >> 8);
+            buf[pos++] = (byte) s;
+        }
+    }
+
+    public void writeInts(int[] v) {
+        ensureAvail(v.length * 4L);
+        for (int i : v)
+            putInt(i);
+    }
+
+    public void writeLongs(long[] v) {
+        ensureAvail(v.length * 8L);
+        for (long l : v)
+            putLong(l);
+    }
+
+    public void writeFloats(float[] v) {
+        ensureAvail(v.length * 4L);
+        for (float f : v)
+            putInt(Float.floatToIntBits(f));
+    }
+
+    public void writeDoubles(double[] v) {
+        ensureAvail(v.length * 8L);
+        for (double d : v)
+            putLong(Double.doubleToLongBits(d));
+    }
+
+    /** writes lowest byte of each value */
+    public void writeIntsAsBytes(int[] v) {
+        ensureAvail(v.length);
+        for (int i : v)
+            buf[pos++] = (byte) i;
+    }
+
+    /** writes two lowest bytes of each value */
+    public void writeIntsAsShorts(int[] v) {
+        ensureAvail(v.length * 2L);
+        for (int i : v) {
+            buf[pos++] = (byte) (i >> 8);
+            buf[pos++] = (byte) i;
+        }
+    }
+
+    /** writes lowest byte of each value */
+    public void writeLongsAsBytes(long[] v) {
+        ensureAvail(v.length);
+        for (long l : v)
+            buf[pos++] = (byte) l;
+    }
+
+    /** writes two lowest bytes of each value */
+    public void writeLongsAsShorts(long[] v) {
+        ensureAvail(v.length * 2L);
+        for (long l : v) {
+            buf[pos++] = (byte) (l >> 8);
+            buf[pos++] = (byte) l;
+        }
+    }
+
+    /** writes four lowest bytes of each value */
+    public void writeLongsAsInts(long[] v) {
+        ensureAvail(v.length * 4L);
+        for (long l : v)
+            putInt((int) l);
+    }
+
+
+    // put* methods do not check for available space, caller must call ensureAvail() first
+
+    private void putInt(int v) {
+        byte[] buf = this.buf;
+        int pos = this.pos;
+        buf[pos] = (byte) (v >> 24);
+        buf[pos + 1] = (byte) (v >> 16);
+        buf[pos + 2] = (byte) (v >> 8);
+        buf[pos + 3] = (byte) v;
+        this.pos = pos + 4;
+    }
+
+    private void putLong(long v) {
+        byte[] buf = this.buf;
+        int pos = this.pos;
+        buf[pos] = (byte) (v >> 56);
+        buf[pos + 1] = (byte) (v >> 48);
+        buf[pos + 2] = (byte) (v >> 40);
+        buf[pos + 3] = (byte) (v >> 32);
+        buf[pos + 4] = (byte) (v >> 24);
+        buf[pos + 5] = (byte) (v >> 16);
+        buf[pos + 6] = (byte) (v >> 8);
+        buf[pos + 7] = (byte) v;
+        this.pos = pos + 8;
+    }
+
+    private void putPackedInt(int value) {
+        //common case, single byte for values smaller than 128
+        int shift = (value & ~0x7F);
+        if (shift != 0) {
+            shift = 31 - Integer.numberOfLeadingZeros(value);
+            shift -= shift % 7; // round down to nearest multiple of 7
+            while (shift != 0) {
+                buf[pos++] = (byte) ((value >>> shift) & 0x7F);
+                shift -= 7;
+            }
+        }
+        buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+    }
+
+    private void putPackedLong(long value) {
+        int shift = 63 - Long.numberOfLeadingZeros(value);
+        shift -= shift % 7; // round down to nearest multiple of 7
+        while (shift != 0) {
+            buf[pos++] = (byte) ((value >>> shift) & 0x7F);
+            shift -= 7;
+        }
+        buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+    }
+}
@@ -0,0 +1,164 @@
+package org.mapdb.elsa;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <p>
+ * Common base of Elsa inputs. Deserializer helpers check for this class once
+ * and delegate packed numbers, strings and primitive arrays to it.
+ * </p><p>
+ * Default implementations read the same format as generic {@link DataInput} code,
+ * subclasses override them with faster versions.
+ * </p>
+ */
+abstract class ElsaInput extends InputStream implements DataInput {
+
+    /**
+     * Reads packed int, see {@link ElsaUtil#unpackInt(DataInput)}
+     *
+     * @return the value
+     * @throws IOException if end of input was reached
+     */
+    public abstract int unpackInt() throws IOException;
+
+    /**
+     * Reads packed long, see {@link ElsaUtil#unpackLong(DataInput)}
+     *
+     * @return the value
+     * @throws IOException if end of input was reached
+     */
+    public abstract long unpackLong() throws IOException;
+
+    /**
+     * Reads String where each char is stored as packed int.
+     *
+     * @param len number of chars in string
+     * @return decoded string
+     * @throws IOException if end of input was reached
+     */
+    public String unpackString(int len) throws IOException {
+        char[] c = new char[len];
+        unpackChars(c);
+        return new String(c);
+    }
+
+    /**
+     * Reads String where each char is stored as single byte (Latin-1).
+     *
+     * @param len number of chars in string
+     * @return decoded string
+     * @throws IOException if end of input was reached
+     */
+    public String readLatin1(int len) throws IOException {
+        char[] c = new char[len];
+        for (int i = 0; i < len; i++)
+            c[i] = (char) readUnsignedByte();
+        return new String(c);
+    }
+
+    /**
+     * Reads String stored in modified UTF-8 encoding, without length prefix.
+     *
+     * @param len number of chars in string
+     * @param utfLen number of encoded bytes
+     * @return decoded string
+     * @throws IOException if end of input was reached or data are corrupted
+     */
+    public String readModifiedUtf8(int len, int utfLen) throws IOException {
+        byte[] b = new byte[utfLen];
+        readFully(b);
+        char[] c = new char[len];
+        ElsaSerializerBase.decodeModifiedUtf8(b, 0, utfLen, c);
+        return new String(c);
+    }
+
+    /**
+     * Fills array with chars, each char is stored as packed int.
+     *
+     * @param c array to fill
+     * @throws IOException if end of input was reached
+     */
+    public void unpackChars(char[] c) throws IOException {
+        for (int i = 0; i < c.length; i++)
+            c[i] = (char) unpackInt();
+    }
+
+    /**
+     * Fills array with packed ints
+     *
+     * @param v array to fill
+     * @throws IOException if end of input was reached
+     */
+    public void unpackInts(int[] v) throws IOException {
+        for (int i = 0; i < v.length; i++)
+            v[i] = unpackInt();
+    }
+
+    /**
+     * Fills array with packed longs
+     *
+     * @param v array to fill
+     * @throws IOException if end of input was reached
+     */
+    public void unpackLongs(long[] v) throws IOException {
+        for (int i = 0; i < v.length; i++)
+            v[i] = unpackLong();
+    }
+
+    public void readShorts(short[] v) throws IOException {
+        for (int i = 0; i < v.length; i++)
+            v[i] = readShort();
+    }
+
+    public void readInts(int[] v) throws IOException {
+        for (int i = 0; i < v.length; i++)
+            v[i] = readInt();
+    }
+
+    public void readLongs(long[] v) throws IOException {
+        for (int i = 0; i < v.length; i++)
+            v[i] = readLong();
+    }
+
+    public void readFloats(float[] v) throws IOException {
+        for (int i = 0; i < v.length; i++)
+            v[i] = readFloat();
+    }
+
+    public void readDoubles(double[] v) throws IOException {
+        for (int i = 0; i < v.length; i++)
+            v[i] = readDouble();
+    }
+
+    /** reads single signed byte for each value */
+    public void readIntsAsBytes(int[] v) throws IOException {
+        for (int i = 0; i < v.length; i++)
+            v[i] = readByte();
+    }
+
+    /** reads signed short for each value */
+    public void readIntsAsShorts(int[] v) throws IOException {
+        for (int i = 0; i < v.length; i++)
+            v[i] = readShort();
+    }
+
+    /** reads single signed byte for each value */
+    public void readLongsAsBytes(long[] v) throws IOException {
+        for (int i = 0; i < v.length; i++)
+            v[i] = readByte();
+    }
+
+    /** reads signed short for each value */
+    public void readLongsAsShorts(long[] v) throws IOException {
+        for (int i = 0; i < v.length; i++)
+            v[i] = readShort();
+    }
+
+    /** reads signed int for each value */
+    public void readLongsAsInts(long[] v) throws IOException {
+        for (int i = 0; i < v.length; i++)
+            v[i] = readInt();
+    }
+}
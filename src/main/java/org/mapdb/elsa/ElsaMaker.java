@@ -16,6 +16,7 @@ final public class ElsaMaker {
     protected Object[] singletons = null;
     protected List<Class> classes = new ArrayList<Class>();
     protected ElsaClassCallback unknownClassNotification = null;
+    protected ElsaClassInfoResolver classInfoResolver = null;
 
     protected Map<Class, ElsaSerializerBase.Serializer> registeredSers = new HashMap();
     protected Map<Class, Integer> registeredSerHeaders = new HashMap();
@@ -26,9 +27,15 @@ final public class ElsaMaker {
      * 3 is {@link org.mapdb.elsa.ElsaStack.MapStack} with HashMap,
      * 2 is {@link org.mapdb.elsa.ElsaStack.IdentityArray},
      * 1 is {@link org.mapdb.elsa.ElsaStack.NoReferenceStack},
-     * 0 is {@link org.mapdb.elsa.ElsaStack.MapStack} with IdentityHashMap,
+     * 0 is {@link org.mapdb.elsa.ElsaStack.IdentityHashStack},
+     * 4 is {@link org.mapdb.elsa.ElsaStack.AdaptiveStack}, it is default
      */
-    protected int objectStack = 0;
+    protected int objectStack = 4;
+
+    protected int referenceThreshold = ElsaStack.AdaptiveStack.DEFAULT_THRESHOLD;
+    protected boolean threadLocalStack = false;
+    protected boolean presenceBitmap = false;
+    protected boolean typedFields = false;
 
     /**
      * Register list of singletons. Singletons are serialized using only two bytes. Deserialized singletons  keep reference equality.
@@ -51,12 +58,17 @@ final public class ElsaMaker {
         return new ElsaSerializerPojo(
                 classLoader,
                 objectStack,
+                referenceThreshold,
+                threadLocalStack,
+                presenceBitmap,
+                typedFields,
                 singletons,
                 registeredSers,
                 registeredSerHeaders,
                 registeredDeser,
                 unknownClassNotification,
-                new ElsaClassInfoResolver.ArrayBased(classes.toArray(new Class[0]), classLoader)
+                classInfoResolver!=null ? classInfoResolver :
+                        new ElsaClassInfoResolver.ArrayBased(classes.toArray(new Class[0]), classLoader)
         );
     }
 
@@ -67,11 +79,27 @@ final public class ElsaMaker {
      * @return this maker
      */
     public ElsaMaker registerClasses(Class... classes){
+        if(classInfoResolver!=null)
+            throw new IllegalArgumentException("Class info resolver is already set");
         for(Class clazz:classes)
             this.classes.add(clazz);
         return this;
     }
 
+    /**
+     * Use given resolver for registered classes, for example {@code ElsaPojoCatalog.resolver()} generated by
+     * {@code elsa-processor}. It can not be combined with {@link #registerClasses(Class[])}.
+     *
+     * @param classInfoResolver resolver which maps class IDs to class infos
+     * @return this maker
+     */
+    public ElsaMaker classInfoResolver(ElsaClassInfoResolver classInfoResolver){
+        if(!classes.isEmpty())
+            throw new IllegalArgumentException("Classes are already registered");
+        this.classInfoResolver = classInfoResolver;
+        return this;
+    }
+
     /**
      * Callback notified when class with unknown structure is serialized.
      * You can than add unknown Class to your Class Catalog (or whatever you are using)
@@ -151,9 +179,75 @@ final public class ElsaMaker {
         return this;
     }
 
+    /**
+     * Uses identity hash table to track backward references.
+     * It has constant overhead for each object, so it is good for large object graphs.
+     *
+     * @return this maker
+     */
+    public ElsaMaker referenceIdentityHashEnable() {
+        objectStack = 0;
+        return this;
+    }
+
+    /**
+     * Uses linear object array to track backward references, but switches to identity hash table once
+     * number of objects crosses given threshold. This is default setting with threshold
+     * {@value org.mapdb.elsa.ElsaStack.AdaptiveStack#DEFAULT_THRESHOLD}.
+     * It performs well for both tiny and large object graphs.
+     *
+     * @param threshold number of objects after which hash table is created
+     * @return this maker
+     */
+    public ElsaMaker referenceAdaptiveEnable(int threshold) {
+        if(threshold<0)
+            throw new IllegalArgumentException("Negative threshold");
+        objectStack = 4;
+        referenceThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * Caches reference tracking stack for each thread and reuses it for next serialization or deserialization.
+     * Stack is cleared after each use, but keeps its backing arrays, so small object graphs are processed without allocation.
+     * Cached stack keeps memory used by the largest object graph processed by given thread.
+     *
+     * @return this maker
+     */
+    public ElsaMaker threadLocalStackEnable() {
+        threadLocalStack = true;
+        return this;
+    }
+
+    /**
+     * Fields with default value (null, zero or false) are not written. POJO starts with bitmap of fields
+     * with non default value, only values of those fields follows.
+     * Bitmap is used only if object has enough fields with default value, it is useful for wide and sparse objects.
+     * Data written with this option can be read by serializer without this option.
+     *
+     * @return this maker
+     */
+    public ElsaMaker presenceBitmapEnable() {
+        presenceBitmap = true;
+        return this;
+    }
+
+    /**
+     * Values of POJO fields with final declared type ({@code String}, boxed numbers, enums and primitive arrays)
+     * are written without header, their type is known from field declaration.
+     * Enums are stored by ordinal, so order of enum constants must not change.
+     * Data written with this option can be read by serializer without this option.
+     *
+     * @return this maker
+     */
+    public ElsaMaker typedFieldsEnable() {
+        typedFields = true;
+        return this;
+    }
+
     /**
      * Uses HashMap to track backward references.
-     * Normally {@code IdentityHashMap} is used, this settings track references but also performs
+     * Normally identity hash table is used, this settings track references but also performs
      * deduplication using {@code hashCode()} and {@code equals()}.
      * This setting slows down serialization significantly, but has zero overhead on deserialization.
      *
@@ -0,0 +1,422 @@
+package org.mapdb.elsa;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * Reads file with Elsa serialized records, stored one after another without any extra framing.
+ * Such file is usually created by calling {@link ElsaSerializer#serialize(DataOutput, Object)} repeatedly on single output.
+ * </p><p>
+ * File is memory mapped with {@link FileChannel#map(FileChannel.MapMode, long, long)}, so it is read without
+ * extra syscalls and copies. Files larger than 2GB are mapped in multiple segments,
+ * records can cross segment boundaries.
+ * </p><p>
+ * Java has no public API to unmap file, mapped memory is released when buffers are garbage collected.
+ * </p>
+ */
+public class ElsaMappedFileReader implements Closeable {
+
+    /** default segment size is 1GB */
+    protected static final int DEFAULT_SEGMENT_SHIFT = 30;
+
+    protected final ElsaSerializer serializer;
+    protected final RandomAccessFile raf;
+    protected final MappedInput input;
+
+    /**
+     * Maps file and prepares it for reading.
+     *
+     * @param file file with serialized records
+     * @param serializer used to deserialize records, must have the same configuration as serializer which wrote the file
+     * @throws IOException if file could not be opened or mapped
+     */
+    public ElsaMappedFileReader(File file, ElsaSerializer serializer) throws IOException {
+        this(file, serializer, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    ElsaMappedFileReader(File file, ElsaSerializer serializer, int segmentShift) throws IOException {
+        this.serializer = serializer;
+        this.raf = new RandomAccessFile(file, "r");
+        try {
+            this.input = new MappedInput(raf.getChannel(), segmentShift);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /** @return true if there are more records to read */
+    public boolean hasNext() {
+        return input.pos < input.size;
+    }
+
+    /**
+     * Deserializes next record from file
+     *
+     * @return deserialized object
+     * @throws IOException if data are corrupted, {@code EOFException} if there are no more records
+     */
+    public Object next() throws IOException {
+        if (!hasNext())
+            throw new EOFException();
+        return serializer.deserialize(input);
+    }
+
+    /** @return offset in file where next record starts */
+    public long position() {
+        return input.pos;
+    }
+
+    /**
+     * Moves reader to given offset in file, it must be start of an record
+     *
+     * @param pos offset in file
+     */
+    public void position(long pos) {
+        if (pos < 0 || pos > input.size)
+            throw new IllegalArgumentException("Position outside of file: " + pos);
+        input.pos = pos;
+    }
+
+    /** @return size of file in bytes */
+    public long size() {
+        return input.size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+
+    /**
+     * {@link DataInput} over file mapped in one or more {@link MappedByteBuffer} segments.
+     * Segment size is power of two, so position is split into segment index and offset with bit operations.
+     * Packed numbers, Latin-1 strings and primitive arrays are read directly from segment,
+     * values which cross segment boundary are read byte by byte.
+     */
+    protected static final class MappedInput extends ElsaInput {
+
+        private final ByteBuffer[] segments;
+        private final int shift;
+        private final int mask;
+        private final long size;
+        private long pos = 0;
+
+        MappedInput(FileChannel channel, int shift) throws IOException {
+            this.shift = shift;
+            this.mask = (1 << shift) - 1;
+            this.size = channel.size();
+            long segSize = 1L << shift;
+            int count = (int) ((size + segSize - 1) >>> shift);
+            segments = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long offset = (long) i << shift;
+                segments[i] = channel
+                        .map(FileChannel.MapMode.READ_ONLY, offset, Math.min(segSize, size - offset))
+                        .order(ByteOrder.BIG_ENDIAN);
+            }
+        }
+
+        /** @return true if {@code n} bytes starting at current position are in single segment */
+        private boolean inSegment(long n) throws EOFException {
+            if (n > size - pos)
+                throw new EOFException();
+            return (pos & mask) + n <= mask + 1;
+        }
+
+        private ByteBuffer segment() {
+            return segments[(int) (pos >>> shift)];
+        }
+
+        private int offset() {
+            return (int) (pos & mask);
+        }
+
+        /** @return big endian view of segment starting at current position, or null if {@code n} bytes cross segment boundary */
+        private ByteBuffer view(long n) throws EOFException {
+            if (!inSegment(n))
+                return null;
+            ByteBuffer b = segment().duplicate();
+            ((Buffer) b).position(offset());
+            return b.order(ByteOrder.BIG_ENDIAN);
+        }
+
+        @Override
+        public int read() {
+            if (pos >= size)
+                return -1;
+            int ret = segment().get(offset()) & 0xFF;
+            pos++;
+            return ret;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (pos >= size)
+                return -1;
+            len = (int) Math.min(len, size - pos);
+            copy(b, off, len);
+            return len;
+        }
+
+        private void copy(byte[] b, int off, int len) {
+            while (len > 0) {
+                ByteBuffer seg = segment().duplicate();
+                int segOffset = offset();
+                int count = Math.min(len, mask + 1 - segOffset);
+                ((Buffer) seg).position(segOffset);
+                seg.get(b, off, count);
+                pos += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public long skip(long n) {
+            long skip = Math.max(0, Math.min(n, size - pos));
+            pos += skip;
+            return skip;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, size - pos);
+        }
+
+        @Override
+        public void readFully(byte[] b) throws IOException {
+            readFully(b, 0, b.length);
+        }
+
+        @Override
+        public void readFully(byte[] b, int off, int len) throws IOException {
+            if (len > size - pos)
+                throw new EOFException();
+            copy(b, off, len);
+        }
+
+        @Override
+        public int skipBytes(int n) {
+            return (int) skip(n);
+        }
+
+        @Override
+        public boolean readBoolean() throws IOException {
+            return readByte() != 0;
+        }
+
+        @Override
+        public byte readByte() throws IOException {
+            if (pos >= size)
+                throw new EOFException();
+            byte ret = segment().get(offset());
+            pos++;
+            return ret;
+        }
+
+        @Override
+        public int readUnsignedByte() throws IOException {
+            return readByte() & 0xFF;
+        }
+
+        @Override
+        public short readShort() throws IOException {
+            if (!inSegment(2))
+                return (short) ((readUnsignedByte() << 8) | readUnsignedByte());
+            short ret = segment().getShort(offset());
+            pos += 2;
+            return ret;
+        }
+
+        @Override
+        public int readUnsignedShort() throws IOException {
+            return readShort() & 0xFFFF;
+        }
+
+        @Override
+        public char readChar() throws IOException {
+            return (char) readShort();
+        }
+
+        @Override
+        public int readInt() throws IOException {
+            if (!inSegment(4))
+                return (readUnsignedShort() << 16) | readUnsignedShort();
+            int ret = segment().getInt(offset());
+            pos += 4;
+            return ret;
+        }
+
+        @Override
+        public long readLong() throws IOException {
+            if (!inSegment(8))
+                return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+            long ret = segment().getLong(offset());
+            pos += 8;
+            return ret;
+        }
+
+        @Override
+        public float readFloat() throws IOException {
+            return Float.intBitsToFloat(readInt());
+        }
+
+        @Override
+        public double readDouble() throws IOException {
+            return Double.longBitsToDouble(readLong());
+        }
+
+        @Override
+        @Deprecated
+        public String readLine() throws IOException {
+            if (pos >= size)
+                return null;
+            StringBuilder b = new StringBuilder();
+            while (pos < size) {
+                char c = (char) readUnsignedByte();
+                if (c == '\n')
+                    break;
+                if (c == '\r') {
+                    if (pos < size && segment().get(offset()) == '\n')
+                        pos++;
+                    break;
+                }
+                b.append(c);
+            }
+            return b.toString();
+        }
+
+        @Override
+        public String readUTF() throws IOException {
+            return DataInputStream.readUTF(this);
+        }
+
+        @Override
+        public int unpackInt() throws IOException {
+            if (pos >= size)
+                throw new EOFException();
+            ByteBuffer seg = segment();
+            int start = offset();
+            int end = (int) Math.min(mask + 1, start + size - pos);
+            int ret = 0;
+            for (int off = start; off < end; ) {
+                byte v = seg.get(off++);
+                ret = (ret << 7) | (v & 0x7F);
+                if ((v & 0x80) != 0) {
+                    pos += off - start;
+                    return ret;
+                }
+            }
+            //value continues in next segment
+            return (int) unpackSlow();
+        }
+
+        @Override
+        public long unpackLong() throws IOException {
+            if (pos >= size)
+                throw new EOFException();
+            ByteBuffer seg = segment();
+            int start = offset();
+            int end = (int) Math.min(mask + 1, start + size - pos);
+            long ret = 0;
+            for (int off = start; off < end; ) {
+                byte v = seg.get(off++);
+                ret = (ret << 7) | (v & 0x7F);
+                if ((v & 0x80) != 0) {
+                    pos += off - start;
+                    return ret;
+                }
+            }
+            //value continues in next segment
+            return unpackSlow();
+        }
+
+        /** reads packed value byte by byte, used if value crosses segment boundary */
+        private long unpackSlow() throws IOException {
+            long ret = 0;
+            byte v;
+            do {
+                v = readByte();
+                ret = (ret << 7) | (v & 0x7F);
+            } while ((v & 0x80) == 0);
+            return ret;
+        }
+
+        @Override
+        public String readLatin1(int len) throws IOException {
+            if (!inSegment(len))
+                return super.readLatin1(len);
+            ByteBuffer seg = segment();
+            int off = offset();
+            char[] c = new char[len];
+            for (int i = 0; i < len; i++)
+                c[i] = (char) (seg.get(off + i) & 0xFF);
+            pos += len;
+            return new String(c);
+        }
+
+        @Override
+        public void readShorts(short[] v) throws IOException {
+            ByteBuffer b = view(v.length * 2L);
+            if (b == null) {
+                super.readShorts(v);
+                return;
+            }
+            b.asShortBuffer().get(v);
+            pos += v.length * 2L;
+        }
+
+        @Override
+        public void readInts(int[] v) throws IOException {
+            ByteBuffer b = view(v.length * 4L);
+            if (b == null) {
+                super.readInts(v);
+                return;
+            }
+            b.asIntBuffer().get(v);
+            pos += v.length * 4L;
+        }
+
+        @Override
+        public void readLongs(long[] v) throws IOException {
+            ByteBuffer b = view(v.length * 8L);
+            if (b == null) {
+                super.readLongs(v);
+                return;
+            }
+            b.asLongBuffer().get(v);
+            pos += v.length * 8L;
+        }
+
+        @Override
+        public void readFloats(float[] v) throws IOException {
+            ByteBuffer b = view(v.length * 4L);
+            if (b == null) {
+                super.readFloats(v);
+                return;
+            }
+            b.asFloatBuffer().get(v);
+            pos += v.length * 4L;
+        }
+
+        @Override
+        public void readDoubles(double[] v) throws IOException {
+            ByteBuffer b = view(v.length * 8L);
+            if (b == null) {
+                super.readDoubles(v);
+                return;
+            }
+            b.asDoubleBuffer().get(v);
+            pos += v.length * 8L;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.mapdb.elsa;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * Common base of Elsa outputs. Serializer helpers check for this class once
+ * and delegate packed numbers, strings and primitive arrays to it.
+ * </p><p>
+ * Default implementations write the same format as generic {@link DataOutput} code,
+ * subclasses override them with faster versions.
+ * </p>
+ */
+abstract class ElsaOutput extends OutputStream implements DataOutput {
+
+    /**
+     * Writes packed int, see {@link ElsaUtil#packInt(DataOutput, int)}
+     *
+     * @param value to write, must be non-negative
+     * @throws IOException in case of IO error
+     */
+    public abstract void packInt(int value) throws IOException;
+
+    /**
+     * Writes packed long, see {@link ElsaUtil#packLong(DataOutput, long)}
+     *
+     * @param value to write, must be non-negative
+     * @throws IOException in case of IO error
+     */
+    public abstract void packLong(long value) throws IOException;
+
+    /**
+     * Writes each char as packed int
+     *
+     * @param s string to write
+     * @throws IOException in case of IO error
+     */
+    public void packChars(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++)
+            packInt(s.charAt(i));
+    }
+
+    /**
+     * Writes each char as packed int
+     *
+     * @param v chars to write
+     * @throws IOException in case of IO error
+     */
+    public void packChars(char[] v) throws IOException {
+        for (char c : v)
+            packInt(c);
+    }
+
+    /**
+     * Writes low byte of each char, used for Latin-1 strings.
+     *
+     * @param s string with all chars smaller than 256
+     * @throws IOException in case of IO error
+     */
+    public void writeLatin1(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++)
+            write(s.charAt(i));
+    }
+
+    /**
+     * Writes chars in modified UTF-8 encoding, without length prefix.
+     *
+     * @param s string to write
+     * @param utfLen number of encoded bytes, see {@link ElsaSerializerBase#modifiedUtf8Length(String)}
+     * @throws IOException in case of IO error
+     */
+    public void writeModifiedUtf8(String s, int utfLen) throws IOException {
+        byte[] b = new byte[utfLen];
+        ElsaSerializerBase.encodeModifiedUtf8(s, b, 0);
+        write(b);
+    }
+
+    /**
+     * Writes each value as packed int
+     *
+     * @param v values to write, must be non-negative
+     * @throws IOException in case of IO error
+     */
+    public void packInts(int[] v) throws IOException {
+        for (int i : v)
+            packInt(i);
+    }
+
+    /**
+     * Writes each value as packed long
+     *
+     * @param v values to write, must be non-negative
+     * @throws IOException in case of IO error
+     */
+    public void packLongs(long[] v) throws IOException {
+        for (long l : v)
+            packLong(l);
+    }
+
+    public void writeShorts(short[] v) throws IOException {
+        for (short s : v)
+            writeShort(s);
+    }
+
+    public void writeInts(int[] v) throws IOException {
+        for (int i : v)
+            writeInt(i);
+    }
+
+    public void writeLongs(long[] v) throws IOException {
+        for (long l : v)
+            writeLong(l);
+    }
+
+    public void writeFloats(float[] v) throws IOException {
+        for (float f : v)
+            writeFloat(f);
+    }
+
+    public void writeDoubles(double[] v) throws IOException {
+        for (double d : v)
+            writeDouble(d);
+    }
+
+    /** writes low byte of each value */
+    public void writeIntsAsBytes(int[] v) throws IOException {
+        for (int i : v)
+            write(i);
+    }
+
+    /** writes low two bytes of each value */
+    public void writeIntsAsShorts(int[] v) throws IOException {
+        for (int i : v)
+            writeShort(i);
+    }
+
+    /** writes low byte of each value */
+    public void writeLongsAsBytes(long[] v) throws IOException {
+        for (long l : v)
+            write((int) l);
+    }
+
+    /** writes low two bytes of each value */
+    public void writeLongsAsShorts(long[] v) throws IOException {
+        for (long l : v)
+            writeShort((int) l);
+    }
+
+    /** writes low four bytes of each value */
+    public void writeLongsAsInts(long[] v) throws IOException {
+        for (long l : v)
+            writeInt((int) l);
+    }
+}
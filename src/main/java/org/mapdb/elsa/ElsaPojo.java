@@ -0,0 +1,25 @@
+package org.mapdb.elsa;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>
+ * Marks POJO class for {@code elsa-processor} annotation processor.
+ * Processor generates {@code ElsaPojoCatalog} class in package of annotated classes,
+ * with class structure ({@link ElsaSerializerPojo.ClassInfo}) resolved at compile time.
+ * </p><p>
+ * Call {@code ElsaPojoCatalog.register()} at startup, so {@link ElsaSerializerPojo#makeClassInfo(Class, ClassLoader)}
+ * does not have to analyze class with reflection.
+ * </p><p>
+ * If all fields of annotated class are accessible from generated code, catalog also contains
+ * {@link ElsaSerializerPojo.FieldAccessor} which reads and writes fields without reflection.
+ * {@link ElsaSerializerPojo.FieldInfo} in catalog still looks up its {@code Field} with reflection.
+ * </p>
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface ElsaPojo {
+}
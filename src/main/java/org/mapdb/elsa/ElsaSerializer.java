@@ -29,6 +29,19 @@ public interface ElsaSerializer {
      */
     Object deserialize(DataInput input) throws IOException;
 
+    /**
+     * Reads binary data from byte array and converts them into object instance.
+     *
+     * @param buf array to read data from
+     * @param off offset of first byte in array
+     * @param len number of bytes which can be read from array
+     * @return deserialized object
+     * @throws IOException if data are corrupted
+     */
+    default Object deserialize(byte[] buf, int off, int len) throws IOException {
+        return deserialize(new ElsaDataInput(buf, off, len));
+    }
+
     /**
      * Deep binary clone. Serialize object into binary form, and then use data to deserialize it.
      * Returned object should be equal to original, but is completely different instance.
@@ -18,6 +18,7 @@ package org.mapdb.elsa;
 import java.io.*;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -140,6 +141,32 @@ public class ElsaSerializerBase implements ElsaSerializer{
     }
 
 
+    protected static final class DeserIntArray implements Deserializer {
+        final int encoding;
+
+        DeserIntArray(int encoding) {
+            this.encoding = encoding;
+        }
+
+        @Override
+        public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+            return readIntArray(in, ElsaUtil.unpackInt(in), encoding);
+        }
+    }
+
+    protected static final class DeserLongArray implements Deserializer {
+        final int encoding;
+
+        DeserLongArray(int encoding) {
+            this.encoding = encoding;
+        }
+
+        @Override
+        public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+            return readLongArray(in, ElsaUtil.unpackInt(in), encoding);
+        }
+    }
+
     protected static final class DeserInt implements Deserializer {
 
         protected final int digits;
@@ -185,6 +212,12 @@ public class ElsaSerializerBase implements ElsaSerializer{
     }
 
     protected final int objectStackType;
+    /** number of objects after which {@link ElsaStack.AdaptiveStack} switches to hash index, used with objectStackType 4 */
+    protected final int referenceThreshold;
+    /** caches stack for each thread, so it is not allocated on every call, null if disabled */
+    protected final transient ThreadLocal<ElsaStack> stackCache;
+    /** same as {@link #stackCache}, but for deserialization */
+    protected final transient ThreadLocal<ElsaStack> readStackCache;
     protected final Object[] singletons;
     protected final IdentityHashMap<Object, Integer> singletonsReverse = new IdentityHashMap();
 
@@ -233,8 +266,23 @@ public class ElsaSerializerBase implements ElsaSerializer{
             Map<Class, Serializer> userSer,
             Map<Class, Integer> userSerHeaders,
             Map<Integer, Deserializer> userDeser){
+        this(classLoader, objectStackType, ElsaStack.AdaptiveStack.DEFAULT_THRESHOLD, false, singletons, userSer, userSerHeaders, userDeser);
+    }
+
+    public ElsaSerializerBase(
+            ClassLoader classLoader,
+            int objectStackType,
+            int referenceThreshold,
+            boolean threadLocalStack,
+            Object[] singletons,
+            Map<Class, Serializer> userSer,
+            Map<Class, Integer> userSerHeaders,
+            Map<Integer, Deserializer> userDeser){
         this.classLoader = defaultClassLoaderIfNull(classLoader);
         this.objectStackType = objectStackType;
+        this.referenceThreshold = referenceThreshold;
+        this.stackCache = threadLocalStack ? new ThreadLocal<ElsaStack>() : null;
+        this.readStackCache = threadLocalStack ? new ThreadLocal<ElsaStack>() : null;
         this.singletons = singletons!=null? singletons.clone():new Object[0];
         for(int i=0;i<this.singletons.length;i++){
             singletonsReverse.put(this.singletons[i], i);
@@ -297,9 +345,7 @@ public class ElsaSerializerBase implements ElsaSerializer{
             public void serialize(DataOutput out, char[] value, ElsaStack objectStack) throws IOException {
                 out.write(Header.ARRAY_CHAR);
                 ElsaUtil.packInt(out,value.length);
-                for(char v:value){
-                    ElsaUtil.packInt(out,v);
-                }
+                packChars(out, value);
             }
         });
         ser.put(short[].class, new Serializer<short[]>() {
@@ -307,9 +353,7 @@ public class ElsaSerializerBase implements ElsaSerializer{
             public void serialize(DataOutput out, short[] value, ElsaStack objectStack) throws IOException {
                 out.write(Header.ARRAY_SHORT);
                 ElsaUtil.packInt(out,value.length);
-                for(short v:value){
-                    out.writeShort(v);
-                }
+                ElsaSerializerBase.writeShorts(out, value);
             }
         });
         ser.put(float[].class, new Serializer<float[]>() {
@@ -317,9 +361,7 @@ public class ElsaSerializerBase implements ElsaSerializer{
             public void serialize(DataOutput out, float[] value, ElsaStack objectStack) throws IOException {
                 out.write(Header.ARRAY_FLOAT);
                 ElsaUtil.packInt(out,value.length);
-                for(float v:value){
-                    out.writeFloat(v);
-                }
+                ElsaSerializerBase.writeFloats(out, value);
             }
         });
         ser.put(double[].class, new Serializer<double[]>() {
@@ -327,9 +369,7 @@ public class ElsaSerializerBase implements ElsaSerializer{
             public void serialize(DataOutput out, double[] value, ElsaStack objectStack) throws IOException {
                 out.write(Header.ARRAY_DOUBLE);
                 ElsaUtil.packInt(out,value.length);
-                for(double v:value){
-                    out.writeDouble(v);
-                }
+                ElsaSerializerBase.writeDoubles(out, value);
             }
         });
         ser.put(int[].class, SER_INT_ARRAY);
@@ -642,6 +682,19 @@ public class ElsaSerializerBase implements ElsaSerializer{
                 return deserializeString(in, ElsaUtil.unpackInt(in));
             }
         };
+        headerDeser[Header.STRING_LATIN1] = new Deserializer(){
+            @Override
+            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                return readLatin1(in, ElsaUtil.unpackInt(in));
+            }
+        };
+        headerDeser[Header.STRING_UTF8] = new Deserializer(){
+            @Override
+            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                int len = ElsaUtil.unpackInt(in);
+                return readModifiedUtf8(in, len, ElsaUtil.unpackInt(in));
+            }
+        };
         headerDeser[Header.STRING_1] = new DeserStringLen(1);
         headerDeser[Header.STRING_2] = new DeserStringLen(2);
         headerDeser[Header.STRING_3] = new DeserStringLen(3);
@@ -716,37 +769,12 @@ public class ElsaSerializerBase implements ElsaSerializer{
                 return ElsaSerializerBase.readBooleanArray(size, in);
             }
         };
-        headerDeser[Header.ARRAY_INT] = new Deserializer() {
-            @Override
-            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                int size = ElsaUtil.unpackInt(in);
-                int[] ret = new int[size];
-                for(int i=0;i<size;i++){
-                    ret[i] = in.readInt();
-                }
-                return ret;
-            }
-        };
-
-        headerDeser[Header.ARRAY_LONG] = new Deserializer() {
-            @Override
-            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                int size = ElsaUtil.unpackInt(in);
-                long[] ret = new long[size];
-                for(int i=0;i<size;i++){
-                    ret[i] = in.readLong();
-                }
-                return ret;
-            }
-        };
         headerDeser[Header.ARRAY_SHORT] =  new Deserializer() {
             @Override
             public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
                 int size = ElsaUtil.unpackInt(in);
                 short[] ret = new short[size];
-                for(int i=0;i<size;i++){
-                    ret[i] = in.readShort();
-                }
+                readShorts(in, ret);
                 return ret;
             }
         };
@@ -755,9 +783,7 @@ public class ElsaSerializerBase implements ElsaSerializer{
             public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
                 int size = ElsaUtil.unpackInt(in);
                 double[] ret = new double[size];
-                for(int i=0;i<size;i++){
-                    ret[i] = in.readDouble();
-                }
+                readDoubles(in, ret);
                 return ret;
             }
         };
@@ -766,9 +792,7 @@ public class ElsaSerializerBase implements ElsaSerializer{
             public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
                 int size = ElsaUtil.unpackInt(in);
                 float[] ret = new float[size];
-                for(int i=0;i<size;i++){
-                    ret[i] = in.readFloat();
-                }
+                readFloats(in, ret);
                 return ret;
             }
         };
@@ -777,78 +801,16 @@ public class ElsaSerializerBase implements ElsaSerializer{
             public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
                 int size = ElsaUtil.unpackInt(in);
                 char[] ret = new char[size];
-                for(int i=0;i<size;i++){
-                    ret[i] = (char)ElsaUtil.unpackInt(in);
-                }
+                unpackChars(in, ret);
                 return ret;
             }
         };
         headerDeser[Header.ARRAY_BYTE]= DESER_BYTE_ARRAY;
 
-        headerDeser[Header.ARRAY_INT_BYTE] = new Deserializer(){
-            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                int[] ret=new int[ElsaUtil.unpackInt(in)];
-                for(int i=0;i<ret.length;i++)
-                    ret[i] = in.readByte();
-                return ret;
-            }
-        };
-
-        headerDeser[Header.ARRAY_INT_SHORT] = new Deserializer(){
-            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                int[] ret=new int[ElsaUtil.unpackInt(in)];
-                for(int i=0;i<ret.length;i++)
-                    ret[i] = in.readShort();
-                return ret;
-            }
-        };
-
-
-        headerDeser[Header.ARRAY_INT_PACKED] = new Deserializer(){
-            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                int[] ret=new int[ElsaUtil.unpackInt(in)];
-                for(int i=0;i<ret.length;i++)
-                    ret[i] = ElsaUtil.unpackInt(in);
-                return ret;
-            }
-        };
-
-
-        headerDeser[Header.ARRAY_LONG_BYTE] = new Deserializer(){
-            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                long[] ret=new long[ElsaUtil.unpackInt(in)];
-                for(int i=0;i<ret.length;i++)
-                    ret[i] = in.readByte();
-                return ret;
-            }
-        };
-
-        headerDeser[Header.ARRAY_LONG_SHORT] = new Deserializer(){
-            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                long[] ret=new long[ElsaUtil.unpackInt(in)];
-                for(int i=0;i<ret.length;i++)
-                    ret[i] = in.readShort();
-                return ret;
-            }
-        };
-
-        headerDeser[Header.ARRAY_LONG_INT] = new Deserializer(){
-            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                long[] ret=new long[ElsaUtil.unpackInt(in)];
-                for(int i=0;i<ret.length;i++)
-                    ret[i] = in.readInt();
-                return ret;
-            }
-        };
-
-        headerDeser[Header.ARRAY_LONG_PACKED] = new Deserializer(){
-            @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                long[] ret=new long[ElsaUtil.unpackInt(in)];
-                for(int i=0;i<ret.length;i++)
-                    ret[i] = ElsaUtil.unpackLong(in);
-                return ret;
-            }
-        };
+        for(int encoding = 0; encoding<=Header.ARRAY_INT-Header.ARRAY_INT_BYTE; encoding++)
+            headerDeser[Header.ARRAY_INT_BYTE+encoding] = new DeserIntArray(encoding);
+        for(int encoding = 0; encoding<=Header.ARRAY_LONG-Header.ARRAY_LONG_BYTE; encoding++)
+            headerDeser[Header.ARRAY_LONG_BYTE+encoding] = new DeserLongArray(encoding);
 
         headerDeser[Header.BIGINTEGER] = new Deserializer(){
             @Override
@@ -919,7 +881,7 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
         headerDeser[Header.ARRAYLIST] = new Deserializer() {
             @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeArrayList(in, objectStack);
+                return ElsaSerializerBase.this.deserialize(in, Header.ARRAYLIST, objectStack);
             }
 
             @Override public boolean needsObjectStack() {
@@ -929,7 +891,7 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
         headerDeser[Header.ARRAY_OBJECT] = new Deserializer() {
             @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeArrayObject(in, objectStack);
+                return ElsaSerializerBase.this.deserialize(in, Header.ARRAY_OBJECT, objectStack);
             }
             @Override public boolean needsObjectStack() {
                 return true;
@@ -938,7 +900,7 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
         headerDeser[Header.LINKEDLIST] = new Deserializer() {
             @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeLinkedList(in, objectStack);
+                return ElsaSerializerBase.this.deserialize(in, Header.LINKEDLIST, objectStack);
             }
             @Override public boolean needsObjectStack() {
                 return true;
@@ -947,7 +909,7 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
         headerDeser[Header.TREESET] = new Deserializer() {
             @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeTreeSet(in, objectStack);
+                return ElsaSerializerBase.this.deserialize(in, Header.TREESET, objectStack);
             }
             @Override public boolean needsObjectStack() {
                 return true;
@@ -956,7 +918,7 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
         headerDeser[Header.HASHSET] = new Deserializer() {
             @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeHashSet(in, objectStack);
+                return ElsaSerializerBase.this.deserialize(in, Header.HASHSET, objectStack);
             }
             @Override public boolean needsObjectStack() {
                 return true;
@@ -965,7 +927,7 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
         headerDeser[Header.LINKEDHASHSET] = new Deserializer() {
             @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeLinkedHashSet(in, objectStack);
+                return ElsaSerializerBase.this.deserialize(in, Header.LINKEDHASHSET, objectStack);
             }
             @Override public boolean needsObjectStack() {
                 return true;
@@ -974,7 +936,7 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
         headerDeser[Header.TREEMAP] = new Deserializer() {
             @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeTreeMap(in, objectStack);
+                return ElsaSerializerBase.this.deserialize(in, Header.TREEMAP, objectStack);
             }
             @Override public boolean needsObjectStack() {
                 return true;
@@ -983,7 +945,7 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
         headerDeser[Header.HASHMAP] = new Deserializer() {
             @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeHashMap(in, objectStack);
+                return ElsaSerializerBase.this.deserialize(in, Header.HASHMAP, objectStack);
             }
             @Override public boolean needsObjectStack() {
                 return true;
@@ -992,7 +954,7 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
         headerDeser[Header.LINKEDHASHMAP] = new Deserializer() {
             @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeLinkedHashMap(in, objectStack);
+                return ElsaSerializerBase.this.deserialize(in, Header.LINKEDHASHMAP, objectStack);
             }
             @Override public boolean needsObjectStack() {
                 return true;
@@ -1001,7 +963,7 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
         headerDeser[Header.PROPERTIES] = new Deserializer() {
             @Override public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
-                return deserializeProperties(in, objectStack);
+                return ElsaSerializerBase.this.deserialize(in, Header.PROPERTIES, objectStack);
             }
             @Override public boolean needsObjectStack() {
                 return true;
@@ -1058,38 +1020,127 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
     @Override
     public void serialize(final DataOutput output, Object obj) throws IOException {
-        ElsaStack stack = newElsaStack();
+        ElsaStack stack = acquireElsaStack();
+        serializeGraph(output, obj, stack);
+        releaseElsaStack(stack);
+    }
+
+    /**
+     * Serializes object using caller supplied stack. Stack is reset after serialization, so it can be reused.
+     * It should be the same type as stack configured in this serializer.
+     *
+     * @param output output into which binary data will be written while object is serialized
+     * @param obj object instance to be serialized
+     * @param stack stack used to track references, must be empty
+     * @throws IOException an exception from underlying stream
+     */
+    public void serialize(final DataOutput output, Object obj, ElsaStack stack) throws IOException {
+        try {
+            serializeGraph(output, obj, stack);
+        }finally {
+            stack.reset();
+        }
+    }
+
+    private void serializeGraph(final DataOutput output, Object obj, ElsaStack stack) throws IOException {
+        serializeObject(output, obj, stack);
+        serializePushed(output, stack);
+    }
+
+    /**
+     * Serializes objects pushed into stack, and objects pushed by them, until stack is empty.
+     * It is used to write container whose header and type is not stored in binary data.
+     *
+     * @param output output into which binary data will be written
+     * @param stack stack with pushed objects
+     * @throws IOException an exception from underlying stream
+     */
+    protected void serializePushed(final DataOutput output, ElsaStack stack) throws IOException {
         while (true) {
-            serialize(output, obj, stack);
             stack.stackFinish(); //rotate new objects on stack
-            if(stack.stackEmpty())
+            if (stack.stackEmpty())
                 return;
-            obj = stack.stackPop();
-
+            serializeObject(output, stack.stackPop(), stack);
         }
     }
 
+    /**
+     * Returns stack for single serialization or deserialization.
+     * If thread local stack is enabled, cached stack is returned, otherwise new stack is created.
+     *
+     * @return stack, should be returned with {@link #releaseElsaStack(ElsaStack)}
+     */
+    protected ElsaStack acquireElsaStack() {
+        if(stackCache==null)
+            return newElsaStack();
+        ElsaStack stack = stackCache.get();
+        if(stack==null)
+            return newElsaStack(); //first use on this thread, or cached stack is used by outer (reentrant) call
+        stackCache.set(null);
+        return stack;
+    }
+
+    /**
+     * Resets stack and puts it into thread local cache, if cache is enabled.
+     *
+     * @param stack stack returned by {@link #acquireElsaStack()}
+     */
+    protected void releaseElsaStack(ElsaStack stack) {
+        if(stackCache==null)
+            return;
+        stack.reset();
+        stackCache.set(stack);
+    }
+
+    /** same as {@link #acquireElsaStack()}, but returns stack for deserialization */
+    protected ElsaStack acquireElsaReadStack() {
+        if(readStackCache==null)
+            return newElsaReadStack();
+        ElsaStack stack = readStackCache.get();
+        if(stack==null)
+            return newElsaReadStack();
+        readStackCache.set(null);
+        return stack;
+    }
+
+    /** same as {@link #releaseElsaStack(ElsaStack)}, but for stack returned by {@link #acquireElsaReadStack()} */
+    protected void releaseElsaReadStack(ElsaStack stack) {
+        if(readStackCache==null)
+            return;
+        stack.reset();
+        readStackCache.set(stack);
+    }
+
+    /**
+     * Creates stack used for deserialization. Deserialization only resolves objects by their index,
+     * so it uses array based stack regardless of configured stack type.
+     *
+     * @return new stack
+     */
+    protected ElsaStack newElsaReadStack() {
+        return new ElsaStack.ReadStack();
+    }
+
     protected ElsaStack newElsaStack() {
         switch(objectStackType){
             case 3: return new ElsaStack.MapStack(new HashMap());
             case 2: return new ElsaStack.IdentityArray();
             case 1: return new ElsaStack.NoReferenceStack();
-            case 0: return new ElsaStack.MapStack(new IdentityHashMap());
+            case 4: return new ElsaStack.AdaptiveStack(referenceThreshold);
+            case 0: return new ElsaStack.IdentityHashStack();
             default: throw new IllegalArgumentException("Unknown objectStackType:  " +objectStackType);
         }
     }
 
     @Override
     public <E> E clone(E value) throws IOException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        DataOutputStream out2 = new DataOutputStream(out);
-        serialize(out2, value);
+        ElsaDataOutput out = new ElsaDataOutput();
+        serialize(out, value);
 
-        DataInputStream ins = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
-        return (E) deserialize(ins);
+        return (E) deserialize(out.buf, 0, out.pos);
     }
 
-    private void serialize(final DataOutput out, final Object obj, ElsaStack objectStack) throws IOException {
+    private void serializeObject(final DataOutput out, final Object obj, ElsaStack objectStack) throws IOException {
 
         if (obj == null) {
             out.write(Header.NULL);
@@ -1143,20 +1194,32 @@ public class ElsaSerializerBase implements ElsaSerializer{
             int len = value.length();
             if(len == 0){
                 out.write(Header.STRING_0);
-            }else{
-                if (len<=10){
-                    out.write(Header.STRING_0+len);
+            }else if(len>10){
+                //longer strings are written in bulk, choose encoding by largest char
+                int all = 0;
+                for(int i=0;i<len;i++)
+                    all |= value.charAt(i);
+                if(all<256){
+                    out.write(Header.STRING_LATIN1);
+                    ElsaUtil.packInt(out, len);
+                    writeLatin1(out, value);
                 }else{
-                    out.write(Header.STRING);
+                    long utfLen = modifiedUtf8Length(value);
+                    if(utfLen>Integer.MAX_VALUE){
+                        //encoded size does not fit into int, write each char packed
+                        out.write(Header.STRING);
+                        ElsaUtil.packInt(out, len);
+                        packChars(out, value);
+                        return;
+                    }
+                    out.write(Header.STRING_UTF8);
                     ElsaUtil.packInt(out, len);
+                    ElsaUtil.packInt(out, (int) utfLen);
+                    writeModifiedUtf8(out, value, (int) utfLen);
                 }
-                ser(out, value.toCharArray());
-            }
-        }
-
-        void ser(DataOutput out, char[] cc) throws IOException {
-            for(char c:cc){
-                ElsaUtil.packInt(out, c);
+            }else{
+                out.write(Header.STRING_0+len);
+                packChars(out, value);
             }
         }
     };
@@ -1164,64 +1227,20 @@ public class ElsaSerializerBase implements ElsaSerializer{
     protected static final Serializer SER_LONG_ARRAY = new Serializer<long[]>() {
         @Override
         public void serialize(DataOutput out, long[] val, ElsaStack objectStack) throws IOException {
-
-            long max = Long.MIN_VALUE;
-            long min = Long.MAX_VALUE;
-            for (long i : val) {
-                max = Math.max(max, i);
-                min = Math.min(min, i);
-            }
-            if (Byte.MIN_VALUE <= min && max <= Byte.MAX_VALUE) {
-                out.write(Header.ARRAY_LONG_BYTE);
-                ElsaUtil.packInt(out, val.length);
-                for (long i : val) out.write((int) i);
-            } else if (Short.MIN_VALUE <= min && max <= Short.MAX_VALUE) {
-                out.write(Header.ARRAY_LONG_SHORT);
-                ElsaUtil.packInt(out, val.length);
-                for (long i : val) out.writeShort((int) i);
-            } else if (0 <= min) {
-                out.write(Header.ARRAY_LONG_PACKED);
-                ElsaUtil.packInt(out, val.length);
-                for (long l : val) ElsaUtil.packLong(out, l);
-            } else if (Integer.MIN_VALUE <= min && max <= Integer.MAX_VALUE) {
-                out.write(Header.ARRAY_LONG_INT);
-                ElsaUtil.packInt(out, val.length);
-                for (long i : val) out.writeInt((int) i);
-            } else {
-                out.write(Header.ARRAY_LONG);
-                ElsaUtil.packInt(out, val.length);
-                for (long i : val) out.writeLong(i);
-            }
+            int encoding = longArrayEncoding(val);
+            out.write(Header.ARRAY_LONG_BYTE + encoding);
+            ElsaUtil.packInt(out, val.length);
+            writeLongArray(out, val, encoding);
         }
     };
 
     protected static final Serializer SER_INT_ARRAY = new Serializer<int[]>() {
         @Override
         public void serialize(DataOutput out, int[] val, ElsaStack objectStack) throws IOException {
-
-            int max = Integer.MIN_VALUE;
-            int min = Integer.MAX_VALUE;
-            for (int i : val) {
-                max = Math.max(max, i);
-                min = Math.min(min, i);
-            }
-            if (Byte.MIN_VALUE <= min && max <= Byte.MAX_VALUE) {
-                out.write(Header.ARRAY_INT_BYTE);
-                ElsaUtil.packInt(out, val.length);
-                for (int i : val) out.write(i);
-            } else if (Short.MIN_VALUE <= min && max <= Short.MAX_VALUE) {
-                out.write(Header.ARRAY_INT_SHORT);
-                ElsaUtil.packInt(out, val.length);
-                for (int i : val) out.writeShort(i);
-            } else if (0 <= min) {
-                out.write(Header.ARRAY_INT_PACKED);
-                ElsaUtil.packInt(out, val.length);
-                for (int l : val) ElsaUtil.packInt(out, l);
-            } else {
-                out.write(Header.ARRAY_INT);
-                ElsaUtil.packInt(out, val.length);
-                for (int i : val) out.writeInt(i);
-            }
+            int encoding = intArrayEncoding(val);
+            out.write(Header.ARRAY_INT_BYTE + encoding);
+            ElsaUtil.packInt(out, val.length);
+            writeIntArray(out, val, encoding);
         }
     };
 
@@ -1478,15 +1497,7 @@ public class ElsaSerializerBase implements ElsaSerializer{
     protected static final Serializer<byte[]> SER_BYTE_ARRAY = new Serializer<byte[]>() {
         @Override
         public void serialize(DataOutput out, byte[] b, ElsaStack objectStack) throws IOException {
-            boolean allEqual = b.length>0;
-            //check if all values in byte[] are equal
-            for(int i=1;i<b.length;i++){
-                if(b[i-1]!=b[i]){
-                    allEqual=false;
-                    break;
-                }
-            }
-            if(allEqual){
+            if(allEqual(b)){
                 out.write(Header.ARRAY_BYTE_ALL_EQUAL);
                 ElsaUtil.packInt(out, b.length);
                 out.write(b[0]);
@@ -1499,6 +1510,15 @@ public class ElsaSerializerBase implements ElsaSerializer{
     };
 
 
+    /** @return true if array is not empty and all its values are equal */
+    static boolean allEqual(byte[] b) {
+        for(int i=1;i<b.length;i++){
+            if(b[i-1]!=b[i])
+                return false;
+        }
+        return b.length>0;
+    }
+
     protected static final Deserializer<byte[]> DESER_BYTE_ARRAY = new Deserializer() {
         @Override
         public byte[] deserialize(DataInput in, ElsaStack objectStack) throws IOException {
@@ -1509,7 +1529,156 @@ public class ElsaSerializerBase implements ElsaSerializer{
         }
     };;
 
+    /**
+     * Writes low byte of each char in single batch.
+     *
+     * @param out write binary data here
+     * @param s string with all chars smaller than 256
+     * @throws IOException an exception from underlying stream
+     */
+    @SuppressWarnings("deprecation")
+    static void writeLatin1(DataOutput out, String s) throws IOException {
+        if(out instanceof ElsaOutput){
+            ((ElsaOutput) out).writeLatin1(s);
+            return;
+        }
+        byte[] b = new byte[s.length()];
+        s.getBytes(0, b.length, b, 0);
+        out.write(b);
+    }
+
+    static String readLatin1(DataInput in, int len) throws IOException {
+        if(in instanceof ElsaInput)
+            return ((ElsaInput) in).readLatin1(len);
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @param s string to encode
+     * @return number of bytes used by string in modified UTF-8 encoding
+     */
+    static long modifiedUtf8Length(String s) {
+        int len = s.length();
+        long utfLen = len;
+        for(int i=0;i<len;i++){
+            char c = s.charAt(i);
+            if(c >= 0x80 || c == 0)
+                utfLen += c >= 0x800 ? 2 : 1;
+        }
+        return utfLen;
+    }
+
+    /**
+     * Encodes string in modified UTF-8, zero char and surrogates are encoded the same way as {@link DataOutput#writeUTF(String)}.
+     *
+     * @param s string to encode
+     * @param buf array to write into, must have enough space
+     * @param pos position of first byte in {@code buf}
+     * @return position after last written byte
+     */
+    static int encodeModifiedUtf8(String s, byte[] buf, int pos) {
+        int len = s.length();
+        for(int i=0;i<len;i++){
+            char c = s.charAt(i);
+            if(c < 0x80 && c != 0){
+                buf[pos++] = (byte) c;
+            }else if(c < 0x800){
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }else{
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Decodes modified UTF-8 produced by {@link #encodeModifiedUtf8(String, byte[], int)}.
+     *
+     * @param buf array to read from
+     * @param pos position of first byte
+     * @param utfLen number of encoded bytes
+     * @param c array to fill with decoded chars
+     * @throws IOException if data are corrupted
+     */
+    static void decodeModifiedUtf8(byte[] buf, int pos, int utfLen, char[] c) throws IOException {
+        int end = pos + utfLen;
+        int i = 0;
+        try {
+            //fast path for ASCII prefix
+            while (i < c.length && buf[pos] >= 0)
+                c[i++] = (char) buf[pos++];
+            while (i < c.length) {
+                int b = buf[pos++];
+                if (b >= 0) {
+                    c[i++] = (char) b;
+                } else if ((b & 0xE0) == 0xC0) {
+                    c[i++] = (char) (((b & 0x1F) << 6) | (buf[pos++] & 0x3F));
+                } else {
+                    c[i++] = (char) (((b & 0x0F) << 12) | ((buf[pos++] & 0x3F) << 6) | (buf[pos++] & 0x3F));
+                }
+            }
+        }catch (ArrayIndexOutOfBoundsException e){
+            throw new ElsaException("Corrupted UTF-8 string");
+        }
+        if(pos != end)
+            throw new ElsaException("Corrupted UTF-8 string");
+    }
+
+    static void writeModifiedUtf8(DataOutput out, String s, int utfLen) throws IOException {
+        if(out instanceof ElsaOutput){
+            ((ElsaOutput) out).writeModifiedUtf8(s, utfLen);
+            return;
+        }
+        byte[] b = new byte[utfLen];
+        encodeModifiedUtf8(s, b, 0);
+        out.write(b);
+    }
+
+    static String readModifiedUtf8(DataInput in, int len, int utfLen) throws IOException {
+        if(in instanceof ElsaInput)
+            return ((ElsaInput) in).readModifiedUtf8(len, utfLen);
+        byte[] b = new byte[utfLen];
+        in.readFully(b);
+        char[] c = new char[len];
+        decodeModifiedUtf8(b, 0, utfLen, c);
+        return new String(c);
+    }
+
+    static void packChars(DataOutput out, String s) throws IOException {
+        if(out instanceof ElsaOutput){
+            ((ElsaOutput) out).packChars(s);
+            return;
+        }
+        for(int i=0;i<s.length();i++)
+            ElsaUtil.packInt(out, s.charAt(i));
+    }
+
+    static void packChars(DataOutput out, char[] v) throws IOException {
+        if(out instanceof ElsaOutput){
+            ((ElsaOutput) out).packChars(v);
+            return;
+        }
+        for(char c:v)
+            ElsaUtil.packInt(out, c);
+    }
+
+    static void unpackChars(DataInput in, char[] v) throws IOException {
+        if(in instanceof ElsaInput){
+            ((ElsaInput) in).unpackChars(v);
+            return;
+        }
+        for(int i=0;i<v.length;i++)
+            v[i] = (char) ElsaUtil.unpackInt(in);
+    }
+
     static String deserializeString(DataInput buf, int len) throws IOException {
+        if(buf instanceof ElsaInput)
+            return ((ElsaInput) buf).unpackString(len);
         char[] b = new char[len];
         for (int i = 0; i < len; i++)
             b[i] = (char) ElsaUtil.unpackInt(buf);
@@ -1519,165 +1688,597 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
     @Override
     public Object deserialize(DataInput input) throws IOException {
-        return deserialize(input, newElsaStack());
+        ElsaStack stack = acquireElsaReadStack();
+        Object ret = deserialize(input, stack);
+        releaseElsaReadStack(stack);
+        return ret;
     }
 
     public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+        return deserialize(in, in.readUnsignedByte(), objectStack);
+    }
 
-        final int head = in.readUnsignedByte();
+    /**
+     * Deserializes object whose header was already read from input.
+     * <p>
+     * Collections, arrays and POJOs are not decoded recursively. Each container is represented by {@link ReadFrame}
+     * on explicit stack, and child objects are delivered into top frame as they are read.
+     * So Java stack depth does not grow with depth of object graph.
+     * </p><p>
+     * Common headers (null, booleans, ints, longs, strings and backward references) are decoded by {@code switch}
+     * directly in this method, so they do not go through megamorphic {@link #headerDeser} call.
+     * Their entries in {@link #headerDeser} are not used by this method.
+     * </p>
+     * @param in read binary data from here
+     * @param head header of first object, already read from input
+     * @param objectStack objectStack for handling backward references
+     * @return deserialized object
+     * @throws IOException an exception from underlying stream
+     */
+    protected Object deserialize(DataInput in, int head, ElsaStack objectStack) throws IOException {
+        return deserialize(in, head, null, 0, objectStack);
+    }
 
-        int oldObjectStackSize = objectStack.getSize();
+    /**
+     * Reads child objects of frame, which was already started by caller.
+     * It is used to read container whose header and type is not stored in binary data.
+     *
+     * @param in read binary data from here
+     * @param frame started frame, its object must be already added into {@code objectStack}
+     * @param objectStack objectStack for handling backward references
+     * @return deserialized object from frame
+     * @throws IOException an exception from underlying stream
+     */
+    protected Object deserializeFrame(DataInput in, ReadFrame frame, ElsaStack objectStack) throws IOException {
+        if(frame.remaining == 0)
+            return frame.get();
+        ReadFrame[] frames = new ReadFrame[8];
+        frames[0] = frame;
+        return deserialize(in, in.readUnsignedByte(), frames, 1, objectStack);
+    }
 
-        Object ret;
-        Deserializer deser = headerDeser[head];
-        if(deser!=null){
-            ret = deser.deserialize(in, objectStack);
-        }else{
-            ret = deserializeUnknownHeader(in, head,objectStack);
-        }
+    private Object deserialize(DataInput in, int head, ReadFrame[] frames, int depth, ElsaStack objectStack) throws IOException {
+        for(;;){
+            Object ret;
+            //most common headers are decoded here, rest goes through headerDeser table
+            switch(head) {
+                case Header.NULL:
+                    ret = null;
+                    break;
+                case Header.OBJECT_STACK:
+                    ret = objectStack.getInstance(ElsaUtil.unpackInt(in));
+                    break;
+                case Header.BOOLEAN_TRUE:
+                    ret = Boolean.TRUE;
+                    objectStack.add(ret);
+                    break;
+                case Header.BOOLEAN_FALSE:
+                    ret = Boolean.FALSE;
+                    objectStack.add(ret);
+                    break;
+                case Header.INT_M9: case Header.INT_M8: case Header.INT_M7: case Header.INT_M6: case Header.INT_M5:
+                case Header.INT_M4: case Header.INT_M3: case Header.INT_M2: case Header.INT_M1: case Header.INT_0:
+                case Header.INT_1: case Header.INT_2: case Header.INT_3: case Header.INT_4: case Header.INT_5:
+                case Header.INT_6: case Header.INT_7: case Header.INT_8: case Header.INT_9: case Header.INT_10:
+                case Header.INT_11: case Header.INT_12: case Header.INT_13: case Header.INT_14: case Header.INT_15:
+                case Header.INT_16:
+                    ret = head - Header.INT_0;
+                    objectStack.add(ret);
+                    break;
+                case Header.INT_MF1: case Header.INT_F1: case Header.INT_MF2:
+                case Header.INT_F2: case Header.INT_MF3: case Header.INT_F3: {
+                    //header encodes number of bytes and sign
+                    int h = head - Header.INT_MF1;
+                    int val = (int) readDigits(in, h / 2 + 1);
+                    ret = (h & 1) == 0 ? -val : val;
+                    objectStack.add(ret);
+                    break;
+                }
+                case Header.INT:
+                    ret = in.readInt();
+                    objectStack.add(ret);
+                    break;
+                case Header.LONG_M9: case Header.LONG_M8: case Header.LONG_M7: case Header.LONG_M6: case Header.LONG_M5:
+                case Header.LONG_M4: case Header.LONG_M3: case Header.LONG_M2: case Header.LONG_M1: case Header.LONG_0:
+                case Header.LONG_1: case Header.LONG_2: case Header.LONG_3: case Header.LONG_4: case Header.LONG_5:
+                case Header.LONG_6: case Header.LONG_7: case Header.LONG_8: case Header.LONG_9: case Header.LONG_10:
+                case Header.LONG_11: case Header.LONG_12: case Header.LONG_13: case Header.LONG_14: case Header.LONG_15:
+                case Header.LONG_16:
+                    ret = (long) (head - Header.LONG_0);
+                    objectStack.add(ret);
+                    break;
+                case Header.LONG_MF1: case Header.LONG_F1: case Header.LONG_MF2: case Header.LONG_F2:
+                case Header.LONG_MF3: case Header.LONG_F3: case Header.LONG_MF4: case Header.LONG_F4:
+                case Header.LONG_MF5: case Header.LONG_F5: case Header.LONG_MF6: case Header.LONG_F6:
+                case Header.LONG_MF7: case Header.LONG_F7: {
+                    int h = head - Header.LONG_MF1;
+                    long val = readDigits(in, h / 2 + 1);
+                    ret = (h & 1) == 0 ? -val : val;
+                    objectStack.add(ret);
+                    break;
+                }
+                case Header.LONG:
+                    ret = in.readLong();
+                    objectStack.add(ret);
+                    break;
+                case Header.STRING_0:
+                    ret = "";
+                    objectStack.add(ret);
+                    break;
+                case Header.STRING_1: case Header.STRING_2: case Header.STRING_3: case Header.STRING_4:
+                case Header.STRING_5: case Header.STRING_6: case Header.STRING_7: case Header.STRING_8:
+                case Header.STRING_9: case Header.STRING_10:
+                    ret = deserializeString(in, head - Header.STRING_0);
+                    objectStack.add(ret);
+                    break;
+                case Header.STRING:
+                    ret = deserializeString(in, ElsaUtil.unpackInt(in));
+                    objectStack.add(ret);
+                    break;
+                case Header.STRING_LATIN1:
+                    ret = readLatin1(in, ElsaUtil.unpackInt(in));
+                    objectStack.add(ret);
+                    break;
+                case Header.STRING_UTF8: {
+                    int len = ElsaUtil.unpackInt(in);
+                    ret = readModifiedUtf8(in, len, ElsaUtil.unpackInt(in));
+                    objectStack.add(ret);
+                    break;
+                }
+                default: {
+                    ReadFrame frame = startFrame(in, head, objectStack);
+                    if (frame == null) {
+                        int oldObjectStackSize = objectStack.getSize();
+                        Deserializer deser = headerDeser[head];
+                        if (deser != null) {
+                            ret = deser.deserialize(in, objectStack);
+                        } else {
+                            ret = deserializeUnknownHeader(in, head, objectStack);
+                        }
+
+                        if (head != Header.OBJECT_STACK && ret != null && objectStack.getSize() == oldObjectStackSize) {
+                            //check if object was not already added to stack as part of collection
+                            objectStack.add(ret);
+                        }
+                    } else if (frame.remaining > 0) {
+                        //container has children, read them first
+                        if (frames == null)
+                            frames = new ReadFrame[8];
+                        else if (depth == frames.length)
+                            frames = Arrays.copyOf(frames, depth * 2);
+                        frames[depth++] = frame;
+                        head = in.readUnsignedByte();
+                        continue;
+                    } else {
+                        ret = frame.get();
+                    }
+                }
+            }
 
-        if (head != Header.OBJECT_STACK && ret!=null && objectStack.getSize() == oldObjectStackSize) {
-            //check if object was not already added to stack as part of collection
-            objectStack.add(ret);
+            //deliver object into parent, and complete all parents which received their last child
+            for(;;){
+                if(depth == 0)
+                    return ret;
+                ReadFrame parent = frames[depth - 1];
+                parent.remaining--;
+                parent.add(ret);
+                if(parent.remaining > 0)
+                    break;
+                frames[--depth] = null;
+                ret = parent.get();
+            }
+            head = in.readUnsignedByte();
         }
+    }
 
+    /**
+     * @param size number of entries
+     * @return initial capacity for {@code HashMap} or {@code HashSet} which holds all entries without rehashing
+     */
+    static int hashCapacity(int size) {
+        if(size < 3)
+            return size + 1;
+        //default load factor is 0.75
+        return size < (1 << 30) ? (int) (size / 0.75f + 1f) : Integer.MAX_VALUE;
+    }
+
+    /** reads unsigned number stored in given number of bytes, most significant byte first */
+    static long readDigits(DataInput in, int digits) throws IOException {
+        long ret = in.readUnsignedByte();
+        for(int i=1;i<digits;i++){
+            ret = (ret<<8) | in.readUnsignedByte();
+        }
         return ret;
     }
 
+    /**
+     * Starts deserialization of object which contains other objects (collection, array...).
+     * Returned frame receives child objects, which are deserialized by caller.
+     * Container must be added into {@code objectStack} before its children are read.
+     * <p>
+     * Override this method to extend ElsaSerializerBase functionality.
+     * </p>
+     *
+     * @param in read binary data from here
+     * @param head binary header read from input stream
+     * @param objectStack objectStack for handling backward references
+     * @return frame which expects child objects, or null if header is not container and should be decoded directly
+     * @throws IOException an exception from underlying stream
+     */
+    protected ReadFrame startFrame(DataInput in, int head, ElsaStack objectStack) throws IOException {
+        switch(head){
+            case Header.ARRAYLIST: {
+                int size = ElsaUtil.unpackInt(in);
+                ArrayList<Object> s = new ArrayList<Object>(size);
+                objectStack.add(s);
+                return new CollectionFrame(s, size);
+            }
+            case Header.ARRAY_OBJECT: {
+                int size = ElsaUtil.unpackInt(in);
+                Class clazz = loadClassCachedUnchecked(in.readUTF());
+                Object[] s = (Object[]) java.lang.reflect.Array.newInstance(clazz, size);
+                objectStack.add(s);
+                return new ArrayFrame(s);
+            }
+            case Header.LINKEDLIST: {
+                int size = ElsaUtil.unpackInt(in);
+                java.util.LinkedList<Object> s = new java.util.LinkedList<Object>();
+                objectStack.add(s);
+                return new CollectionFrame(s, size);
+            }
+            case Header.HASHSET: {
+                int size = ElsaUtil.unpackInt(in);
+                HashSet<Object> s = new HashSet<Object>(hashCapacity(size));
+                objectStack.add(s);
+                return new CollectionFrame(s, size);
+            }
+            case Header.LINKEDHASHSET: {
+                int size = ElsaUtil.unpackInt(in);
+                LinkedHashSet<Object> s = new LinkedHashSet<Object>(hashCapacity(size));
+                objectStack.add(s);
+                return new CollectionFrame(s, size);
+            }
+            case Header.TREESET: {
+                int size = ElsaUtil.unpackInt(in);
+                TreeSet<Object> s = new TreeSet<Object>();
+                objectStack.add(s);
+                return new TreeSetFrame(s, size);
+            }
+            case Header.HASHMAP: {
+                int size = ElsaUtil.unpackInt(in);
+                HashMap<Object, Object> s = new HashMap<Object, Object>(hashCapacity(size));
+                objectStack.add(s);
+                return new MapFrame(s, size);
+            }
+            case Header.LINKEDHASHMAP: {
+                int size = ElsaUtil.unpackInt(in);
+                LinkedHashMap<Object, Object> s = new LinkedHashMap<Object, Object>(hashCapacity(size));
+                objectStack.add(s);
+                return new MapFrame(s, size);
+            }
+            case Header.TREEMAP: {
+                int size = ElsaUtil.unpackInt(in);
+                TreeMap<Object, Object> s = new TreeMap<Object, Object>();
+                objectStack.add(s);
+                return new TreeMapFrame(s, size);
+            }
+            case Header.PROPERTIES: {
+                int size = ElsaUtil.unpackInt(in);
+                Properties s = new Properties();
+                objectStack.add(s);
+                return new MapFrame(s, size);
+            }
+            default:
+                return null;
+        }
+    }
 
-    protected Object deserializeSingleton(DataInput is, ElsaStack objectStack) throws IOException {
-        int head = ElsaUtil.unpackInt(is);
+    /**
+     * Partially deserialized object, which waits for its child objects.
+     * Used by {@link #deserialize(DataInput, int, ElsaStack)} instead of recursion.
+     */
+    protected static abstract class ReadFrame{
+        /** number of child objects which were not read yet */
+        protected int remaining;
 
-        Object singleton = singletons[head];
-        if(singleton == null){
-                throw new IOError(new IOException("Unknown header byte, data corrupted"));
+        protected ReadFrame(int remaining) {
+            this.remaining = remaining;
         }
 
-        if(singleton instanceof Deserializer){
-            singleton = ((Deserializer)singleton).deserialize(is,objectStack);
-        }
+        /** receives next child object */
+        protected abstract void add(Object child);
 
-        return singleton;
+        /** @return deserialized object, called after all children were received */
+        protected abstract Object get();
     }
 
+    /** frame without children, wraps already deserialized object */
+    protected static final class DoneFrame extends ReadFrame{
+        private final Object o;
+
+        protected DoneFrame(Object o) {
+            super(0);
+            this.o = o;
+        }
 
+        @Override protected void add(Object child) {
+            throw new AssertionError();
+        }
 
-    private Object[] deserializeArrayObject(DataInput is, ElsaStack objectStack) throws IOException {
-        int size = ElsaUtil.unpackInt(is);
-        Class clazz = loadClassCachedUnchecked(is.readUTF());
-        Object[] s = (Object[]) java.lang.reflect.Array.newInstance(clazz, size);
-        objectStack.add(s);
-        for (int i = 0; i < size; i++){
-            s[i] = deserialize(is, objectStack);
+        @Override protected Object get() {
+            return o;
         }
-        return s;
     }
 
+    static final class CollectionFrame extends ReadFrame{
+        private final Collection<Object> c;
 
-    private ArrayList<Object> deserializeArrayList(DataInput is, ElsaStack objectStack) throws IOException {
-        int size = ElsaUtil.unpackInt(is);
-        ArrayList<Object> s = new ArrayList<Object>(size);
-        objectStack.add(s);
-        for (int i = 0; i < size; i++) {
-            s.add(deserialize(is, objectStack));
+        CollectionFrame(Collection<Object> c, int size) {
+            super(size);
+            this.c = c;
         }
-        return s;
-    }
 
+        @Override protected void add(Object child) {
+            c.add(child);
+        }
 
-    private java.util.LinkedList deserializeLinkedList(DataInput is, ElsaStack objectStack) throws IOException {
-        int size = ElsaUtil.unpackInt(is);
-        java.util.LinkedList s = new java.util.LinkedList();
-        objectStack.add(s);
-        for (int i = 0; i < size; i++)
-            s.add(deserialize(is, objectStack));
-        return s;
+        @Override protected Object get() {
+            return c;
+        }
     }
 
+    static final class ArrayFrame extends ReadFrame{
+        private final Object[] a;
 
+        ArrayFrame(Object[] a) {
+            super(a.length);
+            this.a = a;
+        }
 
+        @Override protected void add(Object child) {
+            a[a.length - remaining - 1] = child;
+        }
 
-    private HashSet<Object> deserializeHashSet(DataInput is, ElsaStack objectStack) throws IOException {
-        int size = ElsaUtil.unpackInt(is);
-        HashSet<Object> s = new HashSet<Object>(size);
-        objectStack.add(s);
-        for (int i = 0; i < size; i++)
-            s.add(deserialize(is, objectStack));
-        return s;
+        @Override protected Object get() {
+            return a;
+        }
     }
 
+    /** map entries are read as key and value pairs */
+    static final class MapFrame extends ReadFrame{
+        private final Map<Object,Object> m;
+        private Object key;
+
+        MapFrame(Map<Object,Object> m, int size) {
+            super(size * 2);
+            this.m = m;
+        }
 
-    private LinkedHashSet<Object> deserializeLinkedHashSet(DataInput is, ElsaStack objectStack) throws IOException {
-        int size = ElsaUtil.unpackInt(is);
-        LinkedHashSet<Object> s = new LinkedHashSet<Object>(size);
-        objectStack.add(s);
-        for (int i = 0; i < size; i++)
-            s.add(deserialize(is, objectStack));
-        return s;
+        @Override protected void add(Object child) {
+            if((remaining & 1) == 1) {
+                key = child;
+            }else {
+                m.put(key, child);
+                key = null;
+            }
+        }
+
+        @Override protected Object get() {
+            return m;
+        }
     }
 
+    /**
+     * Comparator is read before elements, set is recreated if comparator is not null.
+     * Elements were written in sorted order, they are collected into array and inserted in single batch,
+     * so {@code TreeSet} is built in linear time without comparisons.
+     */
+    static final class TreeSetFrame extends ReadFrame{
+        private TreeSet<Object> s;
+        private final Object[] elements;
+
+        TreeSetFrame(TreeSet<Object> s, int size) {
+            super(size + 1);
+            this.s = s;
+            this.elements = new Object[size];
+        }
 
-    private TreeSet<Object> deserializeTreeSet(DataInput is, ElsaStack objectStack) throws IOException {
-        int size = ElsaUtil.unpackInt(is);
-        TreeSet<Object> s = new TreeSet<Object>();
-        objectStack.add(s);
-        Comparator comparator = (Comparator) deserialize(is, objectStack);
-        if (comparator != null)
-            s = new TreeSet<Object>(comparator);
+        @Override protected void add(Object child) {
+            if(remaining == elements.length){
+                if(child != null)
+                    s = new TreeSet<Object>((Comparator) child);
+            }else{
+                elements[elements.length - remaining - 1] = child;
+            }
+        }
 
-        for (int i = 0; i < size; i++)
-            s.add(deserialize(is, objectStack));
-        return s;
+        @Override protected Object get() {
+            if(elements.length > 0)
+                s.addAll(new SortedArraySet(s.comparator(), elements));
+            return s;
+        }
     }
 
+    /**
+     * Comparator is read before entries, map is recreated if comparator is not null.
+     * Entries are inserted in single batch, same way as in {@link TreeSetFrame}.
+     */
+    static final class TreeMapFrame extends ReadFrame{
+        private TreeMap<Object,Object> m;
+        private final Object[] keys;
+        private final Object[] values;
+
+        TreeMapFrame(TreeMap<Object,Object> m, int size) {
+            super(size * 2 + 1);
+            this.m = m;
+            this.keys = new Object[size];
+            this.values = new Object[size];
+        }
 
-    private TreeMap<Object, Object> deserializeTreeMap(DataInput is, ElsaStack objectStack) throws IOException {
-        int size = ElsaUtil.unpackInt(is);
+        @Override protected void add(Object child) {
+            int size = keys.length;
+            if(remaining == size * 2){
+                if(child != null)
+                    m = new TreeMap<Object, Object>((Comparator) child);
+                return;
+            }
+            int i = size - 1 - remaining / 2;
+            if((remaining & 1) == 1) {
+                keys[i] = child;
+            }else {
+                values[i] = child;
+            }
+        }
 
-        TreeMap<Object, Object> s = new TreeMap<Object, Object>();
-        objectStack.add(s);
-        Comparator comparator = (Comparator) deserialize(is, objectStack);
-        if (comparator != null)
-            s = new TreeMap<Object, Object>(comparator);
-        for (int i = 0; i < size; i++)
-            s.put(deserialize(is, objectStack), deserialize(is, objectStack));
-        return s;
+        @Override protected Object get() {
+            if(keys.length > 0)
+                m.putAll(new SortedArrayMap(m.comparator(), keys, values));
+            return m;
+        }
     }
 
+    /**
+     * Read-only {@link SortedSet} over already sorted array.
+     * {@link TreeSet#addAll(Collection)} recognizes sorted set with the same comparator
+     * and builds tree from its iterator in linear time.
+     * Only methods used by {@code TreeSet} are supported.
+     */
+    static final class SortedArraySet extends AbstractSet<Object> implements SortedSet<Object> {
+        private final Comparator<Object> comparator;
+        private final Object[] elements;
+
+        SortedArraySet(Comparator<Object> comparator, Object[] elements) {
+            this.comparator = comparator;
+            this.elements = elements;
+        }
+
+        @Override public Iterator<Object> iterator() {
+            return Arrays.asList(elements).iterator();
+        }
+
+        @Override public int size() {
+            return elements.length;
+        }
+
+        @Override public Comparator<Object> comparator() {
+            return comparator;
+        }
+
+        @Override public SortedSet<Object> subSet(Object fromElement, Object toElement) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public SortedSet<Object> headSet(Object toElement) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public SortedSet<Object> tailSet(Object fromElement) {
+            throw new UnsupportedOperationException();
+        }
 
-    private HashMap<Object, Object> deserializeHashMap(DataInput is, ElsaStack objectStack) throws IOException {
-        int size = ElsaUtil.unpackInt(is);
+        @Override public Object first() {
+            return elements[0];
+        }
 
-        HashMap<Object, Object> s = new HashMap<Object, Object>(size);
-        objectStack.add(s);
-        for (int i = 0; i < size; i++)
-            s.put(deserialize(is, objectStack), deserialize(is, objectStack));
-        return s;
+        @Override public Object last() {
+            return elements[elements.length - 1];
+        }
     }
 
+    /**
+     * Read-only {@link SortedMap} over sorted arrays of keys and values.
+     * {@link TreeMap#putAll(Map)} recognizes sorted map with the same comparator
+     * and builds tree from its entry iterator in linear time.
+     * Only methods used by {@code TreeMap} are supported.
+     */
+    static final class SortedArrayMap extends AbstractMap<Object, Object> implements SortedMap<Object, Object> {
+        private final Comparator<Object> comparator;
+        private final Object[] keys;
+        private final Object[] values;
+
+        SortedArrayMap(Comparator<Object> comparator, Object[] keys, Object[] values) {
+            this.comparator = comparator;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override public int size() {
+            return keys.length;
+        }
+
+        @Override public Set<Entry<Object, Object>> entrySet() {
+            return new AbstractSet<Entry<Object, Object>>() {
+                @Override public Iterator<Entry<Object, Object>> iterator() {
+                    return new Iterator<Entry<Object, Object>>() {
+                        int i = 0;
+
+                        @Override public boolean hasNext() {
+                            return i < keys.length;
+                        }
+
+                        @Override public Entry<Object, Object> next() {
+                            if(i >= keys.length)
+                                throw new NoSuchElementException();
+                            Entry<Object, Object> e = new SimpleImmutableEntry<Object, Object>(keys[i], values[i]);
+                            i++;
+                            return e;
+                        }
+
+                        @Override public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override public int size() {
+                    return keys.length;
+                }
+            };
+        }
+
+        @Override public Comparator<Object> comparator() {
+            return comparator;
+        }
+
+        @Override public SortedMap<Object, Object> subMap(Object fromKey, Object toKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public SortedMap<Object, Object> headMap(Object toKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public SortedMap<Object, Object> tailMap(Object fromKey) {
+            throw new UnsupportedOperationException();
+        }
 
-    private LinkedHashMap<Object, Object> deserializeLinkedHashMap(DataInput is, ElsaStack objectStack) throws IOException {
-        int size = ElsaUtil.unpackInt(is);
+        @Override public Object firstKey() {
+            return keys[0];
+        }
 
-        LinkedHashMap<Object, Object> s = new LinkedHashMap<Object, Object>(size);
-        objectStack.add(s);
-        for (int i = 0; i < size; i++)
-            s.put(deserialize(is, objectStack), deserialize(is, objectStack));
-        return s;
+        @Override public Object lastKey() {
+            return keys[keys.length - 1];
+        }
     }
 
 
+    protected Object deserializeSingleton(DataInput is, ElsaStack objectStack) throws IOException {
+        int head = ElsaUtil.unpackInt(is);
+
+        Object singleton = singletons[head];
+        if(singleton == null){
+                throw new IOError(new IOException("Unknown header byte, data corrupted"));
+        }
 
-    private Properties deserializeProperties(DataInput is, ElsaStack objectStack) throws IOException {
-        int size = ElsaUtil.unpackInt(is);
+        if(singleton instanceof Deserializer){
+            singleton = ((Deserializer)singleton).deserialize(is,objectStack);
+        }
 
-        Properties s = new Properties();
-        objectStack.add(s);
-        for (int i = 0; i < size; i++)
-            s.put(deserialize(is, objectStack), deserialize(is, objectStack));
-        return s;
+        return singleton;
     }
 
+
+
     /** override this method to extend ElsaSerializerBase functionality
      * @param out put binary data here
      * @param obj object to be serialized
@@ -1749,6 +2350,267 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
 
 
+    /**
+     * Chooses smallest encoding which can hold all values of {@code int[]}.
+     *
+     * @param val array to write
+     * @return offset from {@link Header#ARRAY_INT_BYTE}: 0 bytes, 1 shorts, 2 packed ints, 3 ints
+     */
+    static int intArrayEncoding(int[] val) {
+        int max = Integer.MIN_VALUE;
+        int min = Integer.MAX_VALUE;
+        for (int i : val) {
+            max = Math.max(max, i);
+            min = Math.min(min, i);
+        }
+        if (Byte.MIN_VALUE <= min && max <= Byte.MAX_VALUE)
+            return 0;
+        if (Short.MIN_VALUE <= min && max <= Short.MAX_VALUE)
+            return 1;
+        return 0 <= min ? 2 : 3;
+    }
+
+    /**
+     * Writes values of {@code int[]} without header and size.
+     *
+     * @param out write binary data here
+     * @param val values to write
+     * @param encoding returned by {@link #intArrayEncoding(int[])}
+     * @throws IOException an exception from underlying stream
+     */
+    static void writeIntArray(DataOutput out, int[] val, int encoding) throws IOException {
+        if (out instanceof ElsaOutput) {
+            ElsaOutput o = (ElsaOutput) out;
+            switch (encoding) {
+                case 0: o.writeIntsAsBytes(val); return;
+                case 1: o.writeIntsAsShorts(val); return;
+                case 2: o.packInts(val); return;
+                default: o.writeInts(val); return;
+            }
+        }
+        switch (encoding) {
+            case 0: for (int i : val) out.write(i); return;
+            case 1: for (int i : val) out.writeShort(i); return;
+            case 2: for (int i : val) ElsaUtil.packInt(out, i); return;
+            default: for (int i : val) out.writeInt(i);
+        }
+    }
+
+    /**
+     * Reads {@code int[]} written by {@link #writeIntArray(DataOutput, int[], int)}
+     *
+     * @param in read binary data from here
+     * @param size number of values
+     * @param encoding returned by {@link #intArrayEncoding(int[])}
+     * @return new array
+     * @throws IOException an exception from underlying stream
+     */
+    static int[] readIntArray(DataInput in, int size, int encoding) throws IOException {
+        int[] ret = new int[size];
+        if (in instanceof ElsaInput) {
+            ElsaInput i = (ElsaInput) in;
+            switch (encoding) {
+                case 0: i.readIntsAsBytes(ret); break;
+                case 1: i.readIntsAsShorts(ret); break;
+                case 2: i.unpackInts(ret); break;
+                default: i.readInts(ret);
+            }
+            return ret;
+        }
+        for (int i = 0; i < size; i++) {
+            switch (encoding) {
+                case 0: ret[i] = in.readByte(); break;
+                case 1: ret[i] = in.readShort(); break;
+                case 2: ret[i] = ElsaUtil.unpackInt(in); break;
+                default: ret[i] = in.readInt();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Chooses smallest encoding which can hold all values of {@code long[]}.
+     *
+     * @param val array to write
+     * @return offset from {@link Header#ARRAY_LONG_BYTE}: 0 bytes, 1 shorts, 2 packed longs, 3 ints, 4 longs
+     */
+    static int longArrayEncoding(long[] val) {
+        long max = Long.MIN_VALUE;
+        long min = Long.MAX_VALUE;
+        for (long i : val) {
+            max = Math.max(max, i);
+            min = Math.min(min, i);
+        }
+        if (Byte.MIN_VALUE <= min && max <= Byte.MAX_VALUE)
+            return 0;
+        if (Short.MIN_VALUE <= min && max <= Short.MAX_VALUE)
+            return 1;
+        if (0 <= min)
+            return 2;
+        return Integer.MIN_VALUE <= min && max <= Integer.MAX_VALUE ? 3 : 4;
+    }
+
+    /** same as {@link #writeIntArray(DataOutput, int[], int)} but for longs */
+    static void writeLongArray(DataOutput out, long[] val, int encoding) throws IOException {
+        if (out instanceof ElsaOutput) {
+            ElsaOutput o = (ElsaOutput) out;
+            switch (encoding) {
+                case 0: o.writeLongsAsBytes(val); return;
+                case 1: o.writeLongsAsShorts(val); return;
+                case 2: o.packLongs(val); return;
+                case 3: o.writeLongsAsInts(val); return;
+                default: o.writeLongs(val); return;
+            }
+        }
+        switch (encoding) {
+            case 0: for (long l : val) out.write((int) l); return;
+            case 1: for (long l : val) out.writeShort((int) l); return;
+            case 2: for (long l : val) ElsaUtil.packLong(out, l); return;
+            case 3: for (long l : val) out.writeInt((int) l); return;
+            default: for (long l : val) out.writeLong(l);
+        }
+    }
+
+    /** same as {@link #readIntArray(DataInput, int, int)} but for longs */
+    static long[] readLongArray(DataInput in, int size, int encoding) throws IOException {
+        long[] ret = new long[size];
+        if (in instanceof ElsaInput) {
+            ElsaInput i = (ElsaInput) in;
+            switch (encoding) {
+                case 0: i.readLongsAsBytes(ret); break;
+                case 1: i.readLongsAsShorts(ret); break;
+                case 2: i.unpackLongs(ret); break;
+                case 3: i.readLongsAsInts(ret); break;
+                default: i.readLongs(ret);
+            }
+            return ret;
+        }
+        for (int i = 0; i < size; i++) {
+            switch (encoding) {
+                case 0: ret[i] = in.readByte(); break;
+                case 1: ret[i] = in.readShort(); break;
+                case 2: ret[i] = ElsaUtil.unpackLong(in); break;
+                case 3: ret[i] = in.readInt(); break;
+                default: ret[i] = in.readLong();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Writes primitive array, each value is written with {@link DataOutput#writeShort(int)}.
+     * Uses bulk writes if output supports them.
+     *
+     * @param out write binary data here
+     * @param v values to write
+     * @throws IOException an exception from underlying stream
+     */
+    protected static void writeShorts(DataOutput out, short[] v) throws IOException {
+        if (out instanceof ElsaOutput) {
+            ((ElsaOutput) out).writeShorts(v);
+        } else {
+            for (short s : v)
+                out.writeShort(s);
+        }
+    }
+
+    /** same as {@link #writeShorts(DataOutput, short[])} but for ints */
+    protected static void writeInts(DataOutput out, int[] v) throws IOException {
+        if (out instanceof ElsaOutput) {
+            ((ElsaOutput) out).writeInts(v);
+        } else {
+            for (int i : v)
+                out.writeInt(i);
+        }
+    }
+
+    /** same as {@link #writeShorts(DataOutput, short[])} but for longs */
+    protected static void writeLongs(DataOutput out, long[] v) throws IOException {
+        if (out instanceof ElsaOutput) {
+            ((ElsaOutput) out).writeLongs(v);
+        } else {
+            for (long l : v)
+                out.writeLong(l);
+        }
+    }
+
+    /** same as {@link #writeShorts(DataOutput, short[])} but for floats */
+    protected static void writeFloats(DataOutput out, float[] v) throws IOException {
+        if (out instanceof ElsaOutput) {
+            ((ElsaOutput) out).writeFloats(v);
+        } else {
+            for (float f : v)
+                out.writeFloat(f);
+        }
+    }
+
+    /** same as {@link #writeShorts(DataOutput, short[])} but for doubles */
+    protected static void writeDoubles(DataOutput out, double[] v) throws IOException {
+        if (out instanceof ElsaOutput) {
+            ((ElsaOutput) out).writeDoubles(v);
+        } else {
+            for (double d : v)
+                out.writeDouble(d);
+        }
+    }
+
+    /**
+     * Fills primitive array, each value is read with {@link DataInput#readShort()}.
+     * Uses bulk reads if input supports them.
+     *
+     * @param in read binary data from here
+     * @param v array to fill
+     * @throws IOException an exception from underlying stream
+     */
+    protected static void readShorts(DataInput in, short[] v) throws IOException {
+        if (in instanceof ElsaInput) {
+            ((ElsaInput) in).readShorts(v);
+        } else {
+            for (int i = 0; i < v.length; i++)
+                v[i] = in.readShort();
+        }
+    }
+
+    /** same as {@link #readShorts(DataInput, short[])} but for ints */
+    protected static void readInts(DataInput in, int[] v) throws IOException {
+        if (in instanceof ElsaInput) {
+            ((ElsaInput) in).readInts(v);
+        } else {
+            for (int i = 0; i < v.length; i++)
+                v[i] = in.readInt();
+        }
+    }
+
+    /** same as {@link #readShorts(DataInput, short[])} but for longs */
+    protected static void readLongs(DataInput in, long[] v) throws IOException {
+        if (in instanceof ElsaInput) {
+            ((ElsaInput) in).readLongs(v);
+        } else {
+            for (int i = 0; i < v.length; i++)
+                v[i] = in.readLong();
+        }
+    }
+
+    /** same as {@link #readShorts(DataInput, short[])} but for floats */
+    protected static void readFloats(DataInput in, float[] v) throws IOException {
+        if (in instanceof ElsaInput) {
+            ((ElsaInput) in).readFloats(v);
+        } else {
+            for (int i = 0; i < v.length; i++)
+                v[i] = in.readFloat();
+        }
+    }
+
+    /** same as {@link #readShorts(DataInput, short[])} but for doubles */
+    protected static void readDoubles(DataInput in, double[] v) throws IOException {
+        if (in instanceof ElsaInput) {
+            ((ElsaInput) in).readDoubles(v);
+        } else {
+            for (int i = 0; i < v.length; i++)
+                v[i] = in.readDouble();
+        }
+    }
+
 
 
     /**
@@ -1918,8 +2780,10 @@ public class ElsaSerializerBase implements ElsaSerializer{
         int DATE = 140;
         int UUID = 141;
         int USER_DESER = 142;
+        int STRING_LATIN1 = 143;
+        int STRING_UTF8 = 144;
 
-        //142 to 158 reserved for other non recursive objects
+        //145 to 158 reserved for other non recursive objects
 
         int SINGLETON = 159;
         int  ARRAY_OBJECT = 160;
@@ -1960,6 +2824,42 @@ public class ElsaSerializerBase implements ElsaSerializer{
 
         /** Class Info stored in local stream */
         int POJO_CLASSINFO = 176;
+
+        /**
+         * Same as {@link #POJO}, but primitive field values are written inline after field IDs,
+         * rest of fields follows as objects
+         */
+        int POJO_PRIMITIVE = 177;
+
+        /** Same as {@link #POJO_PRIMITIVE}, but Class Info is fetched from ElsaClassInfoResolver */
+        int POJO_RESOLVER_PRIMITIVE = 178;
+
+        /**
+         * Same as {@link #POJO_PRIMITIVE}, but all fields are written in Class Info order,
+         * so field count and field IDs are not stored
+         */
+        int POJO_COMPACT = 179;
+
+        /** Same as {@link #POJO_COMPACT}, but Class Info is fetched from ElsaClassInfoResolver */
+        int POJO_RESOLVER_COMPACT = 180;
+
+        /**
+         * Same as {@link #POJO_COMPACT}, but followed by bitmap of fields with non default value.
+         * Only values of those fields are written.
+         */
+        int POJO_BITMAP = 181;
+
+        /** Same as {@link #POJO_BITMAP}, but Class Info is fetched from ElsaClassInfoResolver */
+        int POJO_RESOLVER_BITMAP = 182;
+
+        /**
+         * Same as {@link #POJO_COMPACT}, but values of fields with final declared type
+         * (String, boxed number, enum, primitive array) follow primitive values without header
+         */
+        int POJO_TYPED = 183;
+
+        /** Same as {@link #POJO_TYPED}, but Class Info is fetched from ElsaClassInfoResolver */
+        int POJO_RESOLVER_TYPED = 184;
     }
 
     /**
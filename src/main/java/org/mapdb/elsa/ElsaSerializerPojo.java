@@ -17,6 +17,7 @@ package org.mapdb.elsa;
 
 import java.io.*;
 import java.lang.reflect.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
@@ -46,6 +47,15 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
     protected final ElsaClassCallback missingClassNotification;
     protected final ElsaClassInfoResolver classInfoResolver;
 
+    /** write plans for already serialized classes */
+    protected final transient Map<Class, WritePlan> writePlans = new ConcurrentHashMap<Class, WritePlan>();
+    /** class infos read from streams, with resolved fields, key is class name */
+    protected final transient Map<String, ClassInfo> classInfoReadCache = new ConcurrentHashMap<String, ClassInfo>();
+    /** if true, POJO fields with default value are omitted and marked in presence bitmap */
+    protected final boolean presenceBitmap;
+    /** if true, fields with final declared type are written without header, see {@link FieldInfo#typedType} */
+    protected final boolean typedFields;
+
     public ElsaSerializerPojo(){
         this(null, 0, null, null,  null, null, null, null);
     }
@@ -59,11 +69,166 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
             Map<Integer, Deserializer> userDeser,
             ElsaClassCallback missingClassNotification,
             ElsaClassInfoResolver classInfoResolver){
-        super(classLoader, objectStackType, singletons, userSer, userSerHeaders, userDeser);
+        this(classLoader, objectStackType, ElsaStack.AdaptiveStack.DEFAULT_THRESHOLD, false, false, false,
+                singletons, userSer, userSerHeaders, userDeser, missingClassNotification, classInfoResolver);
+    }
+
+    public ElsaSerializerPojo(
+            ClassLoader classLoader,
+            int objectStackType,
+            int referenceThreshold,
+            boolean threadLocalStack,
+            boolean presenceBitmap,
+            boolean typedFields,
+            Object[] singletons,
+            Map<Class, Serializer> userSer,
+            Map<Class, Integer> userSerHeaders,
+            Map<Integer, Deserializer> userDeser,
+            ElsaClassCallback missingClassNotification,
+            ElsaClassInfoResolver classInfoResolver){
+        super(classLoader, objectStackType, referenceThreshold, threadLocalStack, singletons, userSer, userSerHeaders, userDeser);
+        this.presenceBitmap = presenceBitmap;
+        this.typedFields = typedFields;
         this.missingClassNotification = missingClassNotification!=null?missingClassNotification: ElsaClassCallback.VOID;
         this.classInfoResolver = classInfoResolver!=null?classInfoResolver: ElsaClassInfoResolver.VOID;
     }
 
+    /**
+     * Serializes object into {@link ByteBuffer}, heap and direct buffers are supported.
+     * Data are written at buffer position, after serialization the position is moved after written data.
+     * If serialization fails, buffer position is not changed.
+     *
+     * @param buf buffer to write data into
+     * @param obj object instance to be serialized
+     * @throws IOException an exception from underlying serializers
+     * @throws java.nio.BufferOverflowException if there is not enough space in buffer
+     */
+    public void serialize(ByteBuffer buf, Object obj) throws IOException {
+        ElsaByteBufferOutput out = new ElsaByteBufferOutput(buf);
+        serialize(out, obj);
+        out.finish();
+    }
+
+    /**
+     * Deserializes object from {@link ByteBuffer}, heap and direct buffers are supported.
+     * Data are read from buffer position, after deserialization the position is moved after consumed data.
+     *
+     * @param buf buffer to read data from
+     * @return deserialized object
+     * @throws IOException an exception from underlying deserializers, {@code EOFException} if buffer limit was reached
+     */
+    public Object deserialize(ByteBuffer buf) throws IOException {
+        ElsaByteBufferInput in = new ElsaByteBufferInput(buf);
+        Object ret = deserialize(in);
+        in.finish();
+        return ret;
+    }
+
+    /**
+     * Calculates number of bytes {@link #serialize(DataOutput, Object)} would produce for given object.
+     * Object graph is traversed the same way as in serialization, but no data are written and no buffer is allocated.
+     *
+     * @param obj object instance to calculate size for
+     * @return serialized size in bytes
+     * @throws IOException an exception from underlying serializers
+     */
+    public long serializedSize(Object obj) throws IOException {
+        ElsaCountingOutput out = new ElsaCountingOutput();
+        serialize(out, obj);
+        return out.size();
+    }
+
+    /**
+     * Returns codec bound to given top level type. If type is POJO, codec writes its fields without header
+     * and class ID, and deserialization does not have to resolve class from binary data.
+     * Data written by codec can be read only by codec for the same type,
+     * from serializer with the same registered classes and options.
+     * Other types (such as collections, interfaces or classes with Java serialization)
+     * use regular format with header.
+     *
+     * @param clazz type of top level object, POJO codec requires value of exactly this class
+     * @param <T> type of top level object
+     * @return new codec
+     */
+    public <T> ElsaCodec<T> codecFor(Class<T> clazz) {
+        if(clazz.isInterface() || clazz.isArray() || clazz.isPrimitive() || clazz.isEnum()
+                || Modifier.isAbstract(clazz.getModifiers())
+                || !Serializable.class.isAssignableFrom(clazz) || ser.containsKey(clazz))
+            return new ObjectCodec<T>(clazz);
+        //singleton would lose its identity
+        for (Object singleton : singletons) {
+            if (clazz.isInstance(singleton))
+                return new ObjectCodec<T>(clazz);
+        }
+
+        int classId = classToId(clazz.getName());
+        ClassInfo classInfo = classId>=0 ? getClassInfo(classId) : makeClassInfo(clazz, classLoader);
+        if(classInfo.useObjectStream || classInfo.externalizable || classInfo.isEnum)
+            return new ObjectCodec<T>(clazz);
+        boolean typed = typedFields && classInfo.typedFieldIds.length > 0 && !userSerializedTypes(classInfo);
+        return new PojoCodecFor<T>(clazz, classInfo, typed);
+    }
+
+    /** codec which uses regular format, with header */
+    protected final class ObjectCodec<T> implements ElsaCodec<T> {
+        private final Class<T> clazz;
+
+        protected ObjectCodec(Class<T> clazz) {
+            this.clazz = clazz;
+        }
+
+        @Override public void serialize(DataOutput output, T value) throws IOException {
+            ElsaSerializerPojo.this.serialize(output, value);
+        }
+
+        @Override public T deserialize(DataInput input) throws IOException {
+            Object ret = ElsaSerializerPojo.this.deserialize(input);
+            if(ret!=null && !clazz.isPrimitive())
+                return clazz.cast(ret);
+            return (T) ret;
+        }
+    }
+
+    /** codec for POJO, fields are written in compact layout without header and class ID */
+    protected final class PojoCodecFor<T> implements ElsaCodec<T> {
+        private final Class<T> clazz;
+        private final ClassInfo classInfo;
+        private final boolean typed;
+
+        protected PojoCodecFor(Class<T> clazz, ClassInfo classInfo, boolean typed) {
+            this.clazz = clazz;
+            this.classInfo = classInfo;
+            this.typed = typed;
+        }
+
+        @Override public void serialize(DataOutput output, T value) throws IOException {
+            if(value==null)
+                throw new NullPointerException("Codec for " + clazz.getName() + " can not write null");
+            if(value.getClass()!=clazz)
+                throw new ElsaException("Codec for " + clazz.getName() + " can not write " + value.getClass().getName());
+            ElsaStack stack = acquireElsaStack();
+            stack.add(value);
+            writeCompact(output, classInfo, value, typed, stack);
+            serializePushed(output, stack);
+            releaseElsaStack(stack);
+        }
+
+        @Override public T deserialize(DataInput input) throws IOException {
+            Object o;
+            try {
+                o = instantiator(classInfo).newInstance(ElsaSerializerPojo.this);
+            } catch (ClassNotFoundException e) {
+                throw new ElsaException(e);
+            }
+            ElsaStack stack = acquireElsaReadStack();
+            stack.add(o);
+            ReadFrame frame = readCompact(input, classInfo, o, typed, stack);
+            deserializeFrame(input, frame, stack);
+            releaseElsaReadStack(stack);
+            return (T) o;
+        }
+    }
+
     public void classInfoSerialize(DataOutput out, ClassInfo ci) throws IOException {
         out.writeUTF(ci.name);
         out.writeBoolean(ci.isEnum);
@@ -84,27 +249,41 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
 
     public ClassInfo classInfoDeserialize(DataInput in) throws IOException{
         String className = in.readUTF();
-        Class clazz = null;
         boolean isEnum = in.readBoolean();
         int flags = in.readUnsignedByte();
         boolean externalizable = (flags&2) != 0;
         boolean useObjectStream = (flags&1) != 0;
 
         int fieldsNum = useObjectStream? 0 : ElsaUtil.unpackInt(in);
-        FieldInfo[] fields = new FieldInfo[fieldsNum];
+        String[] fieldNames = new String[fieldsNum];
+        boolean[] primitives = new boolean[fieldsNum];
+        String[] types = new String[fieldsNum];
         for (int j = 0; j < fieldsNum; j++) {
-            String fieldName = in.readUTF();
-            boolean primitive = in.readBoolean();
-            String type = in.readUTF();
-            if(clazz == null)
-                clazz = loadClassCachedUnchecked(className);
+            fieldNames[j] = in.readUTF();
+            primitives[j] = in.readBoolean();
+            types[j] = in.readUTF();
+        }
 
-            fields[j] = new FieldInfo(fieldName,
-                    type,
-                    primitive?null: loadClassCachedUnchecked(type),
+        //class info with resolved fields is reused, if the same class was already read from other stream
+        ClassInfo cached = classInfoReadCache.get(className);
+        if(cached!=null && cached.sameLayout(isEnum, externalizable, useObjectStream, fieldNames, primitives, types))
+            return cached;
+
+        Class clazz = fieldsNum==0 ? null : loadClassCachedUnchecked(className);
+        FieldInfo[] fields = new FieldInfo[fieldsNum];
+        for (int j = 0; j < fieldsNum; j++) {
+            fields[j] = new FieldInfo(fieldNames[j],
+                    types[j],
+                    primitives[j]?null: loadClassCachedUnchecked(types[j]),
                     clazz);
         }
-        return new ClassInfo(className, fields, isEnum, externalizable, useObjectStream);
+        ClassInfo ret = new ClassInfo(className, fields, isEnum, externalizable, useObjectStream);
+        //class info generated at compile time with the same fields, reuse its field accessor
+        ClassInfo generated = clazz==null ? null : classInfoCache.get(clazz);
+        if(generated!=null && generated.accessor!=null && generated.equals(ret))
+            ret.accessor = generated.accessor;
+        classInfoReadCache.put(className, ret);
+        return ret;
     }
 
 
@@ -150,6 +329,18 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
         public final boolean externalizable;
         public final boolean useObjectStream;
 
+        /** field access generated by {@code elsa-processor}, null if fields are accessed with reflection */
+        public FieldAccessor accessor;
+
+        /** creates instances on deserialization, see {@link ElsaSerializerPojo#instantiator(ClassInfo)} */
+        volatile Instantiator instantiator;
+        /** IDs of non primitive fields in order, used to read compact POJO */
+        final int[] objectFieldIds;
+        /** IDs of non primitive fields with {@link FieldInfo#typedType}, written inline in typed POJO */
+        final int[] typedFieldIds;
+        /** IDs of other non primitive fields, written as objects in typed POJO */
+        final int[] untypedFieldIds;
+
         public ClassInfo(final String name, final FieldInfo[] fields, final boolean isEnum, final boolean externalizable,
                          final boolean useObjectStream) {
             this.name = name;
@@ -159,6 +350,31 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
 
             this.fields = fields.clone();
 
+            int objectCount = 0;
+            for (FieldInfo f : fields) {
+                if (!f.primitive)
+                    objectCount++;
+            }
+            objectFieldIds = new int[objectCount];
+            objectCount = 0;
+            int typedCount = 0;
+            for (int i = 0; i < fields.length; i++) {
+                if (!fields[i].primitive)
+                    objectFieldIds[objectCount++] = i;
+                if (fields[i].typedType != FIELD_OBJECT)
+                    typedCount++;
+            }
+            typedFieldIds = new int[typedCount];
+            untypedFieldIds = new int[objectCount - typedCount];
+            typedCount = 0;
+            int untypedCount = 0;
+            for (int fieldId : objectFieldIds) {
+                if (fields[fieldId].typedType != FIELD_OBJECT)
+                    typedFieldIds[typedCount++] = fieldId;
+                else
+                    untypedFieldIds[untypedCount++] = fieldId;
+            }
+
             //TODO constructing dictionary might be contraproductive, perhaps use linear scan for smaller sizes
             for (int i=0;i<fields.length;i++) {
                 FieldInfo f = fields[i];
@@ -167,6 +383,20 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
             }
         }
 
+        /** @return true if this class info has the same flags and fields as given values */
+        boolean sameLayout(boolean isEnum, boolean externalizable, boolean useObjectStream,
+                           String[] fieldNames, boolean[] primitives, String[] types) {
+            if(this.isEnum!=isEnum || this.externalizable!=externalizable || this.useObjectStream!=useObjectStream
+                    || fields.length!=fieldNames.length)
+                return false;
+            for(int i=0;i<fields.length;i++){
+                FieldInfo f = fields[i];
+                if(f.primitive!=primitives[i] || !f.name.equals(fieldNames[i]) || !f.type.equals(types[i]))
+                    return false;
+            }
+            return true;
+        }
+
         public int getFieldId(String name) {
             Integer fieldId = name2fieldId.get(name);
             if(fieldId != null)
@@ -217,6 +447,17 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
         public final String name;
         public final boolean primitive;
         public final String type;
+        /** one of {@code FIELD_*} constants, used to read and write primitive value without boxing */
+        public final int primitiveType;
+        /**
+         * Kind of value which can be written without header, because its class is known from declared type.
+         * {@code FIELD_*} constant for boxed primitive, {@link #TYPED_STRING}, {@link #TYPED_ENUM},
+         * or {@link #TYPED_ARRAY} plus {@code FIELD_*} constant for primitive array.
+         * {@code FIELD_OBJECT} if field is primitive or its declared type is not final.
+         */
+        final int typedType;
+        /** constants of enum, if field is declared as enum */
+        final Object[] enumConstants;
         public Class<?> typeClass;
         // Class containing this field
         public final Class<?> clazz;
@@ -238,8 +479,11 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
             this.name = name;
             this.primitive = typeClass == null;
             this.type = type;
+            this.primitiveType = primitive ? primitiveType(type) : FIELD_OBJECT;
             this.clazz = clazz;
             this.typeClass = typeClass;
+            this.typedType = typedType(typeClass);
+            this.enumConstants = typedType == TYPED_ENUM ? typeClass.getEnumConstants() : null;
 
             //init field
 
@@ -293,6 +537,120 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
     }
 
 
+    static final int FIELD_OBJECT = 0;
+    static final int FIELD_BOOLEAN = 1;
+    static final int FIELD_BYTE = 2;
+    static final int FIELD_CHAR = 3;
+    static final int FIELD_SHORT = 4;
+    static final int FIELD_INT = 5;
+    static final int FIELD_LONG = 6;
+    static final int FIELD_FLOAT = 7;
+    static final int FIELD_DOUBLE = 8;
+
+    /** default values of fields, indexed by {@code FIELD_*} constants */
+    static final Object[] FIELD_DEFAULTS = {null, false, (byte) 0, (char) 0, (short) 0, 0, 0L, 0F, 0D};
+
+    /** {@link FieldInfo#typedType} of {@code String} field */
+    static final int TYPED_STRING = 9;
+    /** {@link FieldInfo#typedType} of enum field */
+    static final int TYPED_ENUM = 10;
+    /** {@link FieldInfo#typedType} of primitive array is this value plus {@code FIELD_*} constant of component */
+    static final int TYPED_ARRAY = 16;
+
+    /** tags written before typed field value */
+    static final int TYPED_TAG_NULL = 0;
+    static final int TYPED_TAG_REFERENCE = 1;
+    static final int TYPED_TAG_SINGLETON = 2;
+    static final int TYPED_TAG_VALUE = 3;
+
+    /**
+     * Values of typed {@code Long} after {@link #TYPED_TAG_VALUE}: 0 is followed by raw long,
+     * 1-14 by 1-7 bytes of magnitude with sign in lowest bit, then min and max value and packed zigzag value.
+     */
+    static final int TYPED_LONG_MIN = 15;
+    static final int TYPED_LONG_MAX = 16;
+    static final int TYPED_LONG_PACKED = 17;
+
+    /**
+     * @param typeClass declared type of field, null for primitive field
+     * @return {@link FieldInfo#typedType} for given declared type
+     */
+    static int typedType(Class<?> typeClass) {
+        if(typeClass==null)
+            return FIELD_OBJECT;
+        if(typeClass.isArray() && typeClass.getComponentType().isPrimitive())
+            return TYPED_ARRAY + primitiveType(typeClass.getComponentType().getName());
+        if(typeClass.isEnum())
+            return TYPED_ENUM;
+        if(typeClass==String.class) return TYPED_STRING;
+        if(typeClass==Integer.class) return FIELD_INT;
+        if(typeClass==Long.class) return FIELD_LONG;
+        if(typeClass==Double.class) return FIELD_DOUBLE;
+        if(typeClass==Boolean.class) return FIELD_BOOLEAN;
+        if(typeClass==Float.class) return FIELD_FLOAT;
+        if(typeClass==Byte.class) return FIELD_BYTE;
+        if(typeClass==Character.class) return FIELD_CHAR;
+        if(typeClass==Short.class) return FIELD_SHORT;
+        return FIELD_OBJECT;
+    }
+
+    static int primitiveType(String type) {
+        if("int".equals(type)) return FIELD_INT;
+        if("long".equals(type)) return FIELD_LONG;
+        if("double".equals(type)) return FIELD_DOUBLE;
+        if("boolean".equals(type)) return FIELD_BOOLEAN;
+        if("float".equals(type)) return FIELD_FLOAT;
+        if("byte".equals(type)) return FIELD_BYTE;
+        if("char".equals(type)) return FIELD_CHAR;
+        if("short".equals(type)) return FIELD_SHORT;
+        throw new ElsaException("Unknown primitive type: " + type);
+    }
+
+    /**
+     * <p>
+     * Reads and writes fields of single class without reflection. It is generated at compile time by
+     * {@code elsa-processor} for {@link ElsaPojo} classes whose fields are accessible from generated code,
+     * and set into {@link ClassInfo#accessor}. Field IDs are indexes in {@link ClassInfo#fields}.
+     * </p><p>
+     * {@link #serialize(DataOutput, Object, ElsaStack)} writes fields of compact POJO: primitive values inline,
+     * object values are pushed into stack. Binary data are the same as written with reflection.
+     * </p>
+     */
+    public interface FieldAccessor extends Serializer<Object> {
+
+        /**
+         * Writes values of all primitive fields, in class info order.
+         *
+         * @param out write binary data here
+         * @param object object which contains fields
+         * @throws IOException an exception from underlying stream
+         */
+        void writePrimitives(DataOutput out, Object object) throws IOException;
+
+        /**
+         * Reads values written by {@link #writePrimitives(DataOutput, Object)} and sets them into fields.
+         *
+         * @param in read binary data from here
+         * @param object object which contains fields
+         * @throws IOException an exception from underlying stream
+         */
+        void readPrimitives(DataInput in, Object object) throws IOException;
+
+        /**
+         * @param object object which contains field
+         * @param fieldId index of field in class info
+         * @return field value, primitive value is boxed
+         */
+        Object get(Object object, int fieldId);
+
+        /**
+         * @param object object which contains field
+         * @param fieldId index of field in class info
+         * @param value new field value, primitive value is boxed
+         */
+        void set(Object object, int fieldId, Object value);
+    }
+
     //TODO this should not be static? classes if different shapes within the same JVM?
     static protected Map<Class, ClassInfo> classInfoCache = new ConcurrentHashMap<Class, ClassInfo>();
 
@@ -307,6 +665,21 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
         return ci;
     }
 
+    /**
+     * Puts class info into cache used by {@link #makeClassInfo(Class, ClassLoader)}.
+     * It is used by catalogs generated at compile time, so class does not have to be analyzed with reflection.
+     * Class info must have the same structure as class info created by reflection,
+     * and should have {@link ClassInfo#objectStreamFields} set.
+     *
+     * @param clazz class described by class info
+     * @param classInfo class structure
+     */
+    public static void cacheClassInfo(Class clazz, ClassInfo classInfo){
+        if(!clazz.getName().equals(classInfo.name))
+            throw new IllegalArgumentException("Class info does not match class: " + clazz.getName());
+        classInfoCache.put(clazz, classInfo);
+    }
+
     protected static ClassInfo makeClassInfo2(Class clazz, ClassLoader classLoader){
         classLoader = defaultClassLoaderIfNull(classLoader);
 
@@ -375,6 +748,10 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
             classInfo = getClassInfo(classId);
             fields = classInfo.getObjectStreamFields();
         }
+        if (fields == null && (classInfo = classInfoCache.get(clazz)) != null) {
+            //class info from generated catalog
+            fields = classInfo.getObjectStreamFields();
+        }
         if (fields == null) {
             fields = makeFieldsForClass(clazz);
         }
@@ -446,6 +823,125 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
 
     }
 
+    /** same as {@link #getFieldValue(FieldInfo, Object)}, but uses generated {@link ClassInfo#accessor} if class has one */
+    protected Object getFieldValue(ClassInfo classInfo, int fieldId, Object object) {
+        FieldAccessor accessor = classInfo.accessor;
+        if(accessor!=null)
+            return accessor.get(object, fieldId);
+        return getFieldValue(classInfo.fields[fieldId], object);
+    }
+
+    /** same as {@link #setFieldValue(FieldInfo, Object, Object)}, but uses generated {@link ClassInfo#accessor} if class has one */
+    protected void setFieldValue(ClassInfo classInfo, int fieldId, Object object, Object value) {
+        FieldAccessor accessor = classInfo.accessor;
+        if(accessor!=null)
+            accessor.set(object, fieldId, value);
+        else
+            setFieldValue(classInfo.fields[fieldId], object, value);
+    }
+
+
+    /**
+     * Writes primitive field value without boxing. Numbers are written in compact form:
+     * int and long as packed zigzag, char as packed int, rest with fixed size.
+     *
+     * @param out write binary data here
+     * @param fieldInfo primitive field
+     * @param object object which contains field
+     * @throws IOException an exception from underlying stream
+     */
+    protected void writePrimitiveField(DataOutput out, FieldInfo fieldInfo, Object object) throws IOException {
+        Field f = fieldInfo.field;
+        if(f==null)
+            throw new NoSuchFieldError(object.getClass() + "." + fieldInfo.name);
+        try {
+            switch (fieldInfo.primitiveType) {
+                case FIELD_INT: {
+                    int v = f.getInt(object);
+                    ElsaUtil.packInt(out, (v << 1) ^ (v >> 31));
+                    return;
+                }
+                case FIELD_LONG: {
+                    long v = f.getLong(object);
+                    ElsaUtil.packLong(out, (v << 1) ^ (v >> 63));
+                    return;
+                }
+                case FIELD_DOUBLE:
+                    out.writeDouble(f.getDouble(object));
+                    return;
+                case FIELD_BOOLEAN:
+                    out.writeBoolean(f.getBoolean(object));
+                    return;
+                case FIELD_FLOAT:
+                    out.writeFloat(f.getFloat(object));
+                    return;
+                case FIELD_BYTE:
+                    out.writeByte(f.getByte(object));
+                    return;
+                case FIELD_CHAR:
+                    ElsaUtil.packInt(out, f.getChar(object));
+                    return;
+                case FIELD_SHORT:
+                    out.writeShort(f.getShort(object));
+                    return;
+                default:
+                    throw new AssertionError();
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Could not get value from field", e);
+        }
+    }
+
+    /**
+     * Reads primitive field value written by {@link #writePrimitiveField(DataOutput, FieldInfo, Object)}
+     * and sets it without boxing.
+     *
+     * @param in read binary data from here
+     * @param fieldInfo primitive field
+     * @param object object which contains field
+     * @throws IOException an exception from underlying stream
+     */
+    protected void readPrimitiveField(DataInput in, FieldInfo fieldInfo, Object object) throws IOException {
+        Field f = fieldInfo.field;
+        if(f==null)
+            throw new NoSuchFieldError(object.getClass() + "." + fieldInfo.name);
+        try {
+            switch (fieldInfo.primitiveType) {
+                case FIELD_INT: {
+                    int v = ElsaUtil.unpackInt(in);
+                    f.setInt(object, (v >>> 1) ^ -(v & 1));
+                    return;
+                }
+                case FIELD_LONG: {
+                    long v = ElsaUtil.unpackLong(in);
+                    f.setLong(object, (v >>> 1) ^ -(v & 1));
+                    return;
+                }
+                case FIELD_DOUBLE:
+                    f.setDouble(object, in.readDouble());
+                    return;
+                case FIELD_BOOLEAN:
+                    f.setBoolean(object, in.readBoolean());
+                    return;
+                case FIELD_FLOAT:
+                    f.setFloat(object, in.readFloat());
+                    return;
+                case FIELD_BYTE:
+                    f.setByte(object, in.readByte());
+                    return;
+                case FIELD_CHAR:
+                    f.setChar(object, (char) ElsaUtil.unpackInt(in));
+                    return;
+                case FIELD_SHORT:
+                    f.setShort(object, in.readShort());
+                    return;
+                default:
+                    throw new AssertionError();
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Could not set field value: ", e);
+        }
+    }
 
     public int classToId(String className) {
         return classInfoResolver.classToId(className);
@@ -463,13 +959,13 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
         if(classId>=0){
             head = Header.POJO_RESOLVER;
             classInfo = getClassInfo(classId);
-        }else if((classId = objectStack.resolveClassId(obj.getClass().getName())) <0) {
+        }else if((classId = objectStack.resolveClassId(obj.getClass())) <0) {
             //class is not known
             notifyMissingClassInfo(obj.getClass());
             classInfo = makeClassInfo(obj.getClass(), classLoader);
 
             //write unknown class info into local class catalog
-            classId = objectStack.addClassInfo(classInfo);
+            classId = objectStack.addClassInfo(obj.getClass(), classInfo);
             out.write(Header.POJO_CLASSINFO);
             ElsaUtil.packInt(out, classId);
             classInfoSerialize(out, classInfo);
@@ -477,6 +973,24 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
             //classId is known in stream, get it from object stack
             classInfo = objectStack.resolveClassInfo(classId);
         }
+        WritePlan plan = null;
+        boolean compact = false;
+        long[] bitmap = null;
+        if(!classInfo.useObjectStream && !classInfo.externalizable && !classInfo.isEnum){
+            plan = writePlan(obj.getClass(), classInfo);
+            //all fields in class info order do not need field IDs, primitive fields are written inline
+            compact = plan.compact;
+            if(compact && presenceBitmap)
+                bitmap = presenceBitmap(classInfo, obj);
+            if(bitmap!=null)
+                head = head==Header.POJO ? Header.POJO_BITMAP : Header.POJO_RESOLVER_BITMAP;
+            else if(plan.typed)
+                head = head==Header.POJO ? Header.POJO_TYPED : Header.POJO_RESOLVER_TYPED;
+            else if(compact)
+                head = head==Header.POJO ? Header.POJO_COMPACT : Header.POJO_RESOLVER_COMPACT;
+            else if(plan.primitiveCount>0)
+                head = head==Header.POJO ? Header.POJO_PRIMITIVE : Header.POJO_RESOLVER_PRIMITIVE;
+        }
         out.write(head);
         //write class header
         ElsaUtil.packInt(out, classId);
@@ -499,46 +1013,641 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
             return;
         }
 
-        ObjectStreamField[] fields = fieldsForClass(obj.getClass());
-        ElsaUtil.packInt(out, fields.length);
+        if(plan==null)
+            plan = writePlan(obj.getClass(), classInfo);
+        if(!compact) {
+            int[] fieldIds = plan.fieldIds;
+            ElsaUtil.packInt(out, fieldIds.length);
+            for (int fieldId : fieldIds) {
+                ElsaUtil.packInt(out, fieldId);
+            }
+        }
+        if(bitmap!=null){
+            writePresent(out, classInfo, obj, bitmap, objectStack);
+            return;
+        }
+        if(plan.typed){
+            writeCompact(out, classInfo, obj, true, objectStack);
+            return;
+        }
+        //field values are written after all field IDs
+        FieldInfo[] fields = plan.fields;
+        if(plan.primitiveCount==0) {
+            for (FieldInfo f : fields) {
+                objectStack.stackPush(getFieldValue(f, obj));
+            }
+            return;
+        }
+        //primitive values first, object values follow in graph traversal
+        for (FieldInfo f : fields) {
+            if (f.primitive)
+                writePrimitiveField(out, f, obj);
+        }
+        for (FieldInfo f : fields) {
+            if (!f.primitive)
+                objectStack.stackPush(getFieldValue(f, obj));
+        }
+    }
+
+    /**
+     * Creates bitmap of fields with non default value (not null, not zero).
+     * Bitmap is returned only if it does not take more space, so at least one field per bitmap byte has default value.
+     *
+     * @param classInfo class info with fields in the same order as class
+     * @param obj serialized object
+     * @return presence bitmap, or null if object should be written without bitmap
+     */
+    protected long[] presenceBitmap(ClassInfo classInfo, Object obj) {
+        FieldInfo[] fields = classInfo.fields;
+        long[] bitmap = new long[(fields.length + 63) >>> 6];
+        int absent = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (isDefaultValue(fields[i], obj))
+                absent++;
+            else
+                bitmap[i >>> 6] |= 1L << i;
+        }
+        return absent >= (fields.length + 7) >>> 3 ? bitmap : null;
+    }
 
-        List fieldValues = new ArrayList(fields.length);
-        for (ObjectStreamField f : fields) {
-            //write field ID
-            int fieldId = classInfo.getFieldId(f.getName());
-            if (fieldId == -1) {
-                throw new AssertionError("Missing field: "+f.getName());
-                //TODO class info is immutable in 2.0, so this old code can not be used
-//                //field does not exists in class definition stored in db,
-//                //probably new field was added so add field descriptor
-//                fieldId = classInfo.addFieldInfo(new FieldInfo(f, clazz));
-//                saveClassInfo();
+    /** writes presence bitmap and values of present fields, primitive values first */
+    protected void writePresent(DataOutput out, ClassInfo classInfo, Object obj, long[] bitmap,
+                                ElsaStack objectStack) throws IOException {
+        FieldInfo[] fields = classInfo.fields;
+        for (int i = 0; i < fields.length; i += 8) {
+            out.write((int) (bitmap[i >>> 6] >>> i));
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (!fields[i].primitive || (bitmap[i >>> 6] & 1L << i) == 0)
+                continue;
+            writePrimitiveField(out, fields[i], obj);
+        }
+        for (int fieldId : classInfo.objectFieldIds) {
+            if ((bitmap[fieldId >>> 6] & 1L << fieldId) != 0)
+                objectStack.stackPush(getFieldValue(classInfo, fieldId, obj));
+        }
+    }
+
+    /**
+     * Writes all fields in class info order, primitive values first. If {@code typed} is true, typed field values
+     * are written inline after primitive values. Other object values follow in graph traversal.
+     */
+    protected void writeCompact(DataOutput out, ClassInfo classInfo, Object obj, boolean typed,
+                                ElsaStack objectStack) throws IOException {
+        FieldInfo[] fields = classInfo.fields;
+        FieldAccessor accessor = classInfo.accessor;
+        if (accessor != null && !typed) {
+            accessor.serialize(out, obj, objectStack);
+            return;
+        }
+        if (accessor != null) {
+            accessor.writePrimitives(out, obj);
+        } else if (classInfo.objectFieldIds.length != fields.length) {
+            for (int i = 0; i < fields.length; i++) {
+                if (!fields[i].primitive)
+                    continue;
+                writePrimitiveField(out, fields[i], obj);
+            }
+        }
+        if (typed) {
+            for (int fieldId : classInfo.typedFieldIds) {
+                writeTypedValue(out, fields[fieldId], getFieldValue(classInfo, fieldId, obj), objectStack);
+            }
+        }
+        for (int fieldId : typed ? classInfo.untypedFieldIds : classInfo.objectFieldIds) {
+            objectStack.stackPush(getFieldValue(classInfo, fieldId, obj));
+        }
+    }
+
+    /**
+     * Writes value of typed field without header. Value starts with packed tag, which is null, back reference,
+     * singleton or value. Small values (boolean, enum ordinal, number, length) are stored in tag itself,
+     * its lowest bits select encoding the same way as header does, so typed value is never larger than value with header.
+     * References are tracked the same way as in {@code serializeObject}.
+     *
+     * @param out write binary data here
+     * @param fieldInfo field with {@link FieldInfo#typedType}
+     * @param value field value
+     * @param objectStack objectStack for handling backward references
+     * @throws IOException an exception from underlying stream
+     */
+    protected void writeTypedValue(DataOutput out, FieldInfo fieldInfo, Object value, ElsaStack objectStack) throws IOException {
+        if (value == null) {
+            ElsaUtil.packInt(out, TYPED_TAG_NULL);
+            return;
+        }
+        int indexInObjectStack = objectStack.identityIndexOf(value);
+        if (indexInObjectStack != -1) {
+            ElsaUtil.packInt(out, TYPED_TAG_REFERENCE);
+            ElsaUtil.packInt(out, indexInObjectStack);
+            return;
+        }
+        objectStack.add(value);
+        Integer singleton = singletonsReverse.get(value);
+        if (singleton != null) {
+            ElsaUtil.packInt(out, TYPED_TAG_SINGLETON);
+            ElsaUtil.packInt(out, singleton);
+            return;
+        }
+
+        switch (fieldInfo.typedType) {
+            case TYPED_STRING: {
+                String s = (String) value;
+                int len = s.length();
+                int all = 0;
+                for (int i = 0; i < len; i++)
+                    all |= s.charAt(i);
+                //lowest bit of length marks chars stored as packed ints
+                if (all < 256) {
+                    ElsaUtil.packLong(out, TYPED_TAG_VALUE + ((long) len << 1));
+                    writeLatin1(out, s);
+                } else {
+                    ElsaUtil.packLong(out, TYPED_TAG_VALUE + ((long) len << 1 | 1));
+                    packChars(out, s);
+                }
+                return;
+            }
+            case TYPED_ENUM:
+                ElsaUtil.packInt(out, TYPED_TAG_VALUE + ((Enum<?>) value).ordinal());
+                return;
+            case FIELD_INT: {
+                //min and max value have their own tags, other values are packed zigzag
+                int v = (Integer) value;
+                if (v == Integer.MIN_VALUE)
+                    ElsaUtil.packInt(out, TYPED_TAG_VALUE);
+                else if (v == Integer.MAX_VALUE)
+                    ElsaUtil.packInt(out, TYPED_TAG_VALUE + 1);
+                else
+                    ElsaUtil.packLong(out, TYPED_TAG_VALUE + 2 + (((v << 1) ^ (v >> 31)) & 0xFFFFFFFFL));
+                return;
+            }
+            case FIELD_LONG: {
+                long v = (Long) value;
+                if (v == Long.MIN_VALUE) {
+                    ElsaUtil.packInt(out, TYPED_TAG_VALUE + TYPED_LONG_MIN);
+                    return;
+                }
+                if (v == Long.MAX_VALUE) {
+                    ElsaUtil.packInt(out, TYPED_TAG_VALUE + TYPED_LONG_MAX);
+                    return;
+                }
+                long zigzag = (v << 1) ^ (v >> 63);
+                long abs = Math.abs(v);
+                int digits = 8 - Long.numberOfLeadingZeros(abs) / 8;
+                if (zigzag >= 0 && zigzag <= Long.MAX_VALUE - TYPED_TAG_VALUE - TYPED_LONG_PACKED
+                        && ElsaCountingOutput.packedLongSize(TYPED_TAG_VALUE + TYPED_LONG_PACKED + zigzag) <= 1 + digits) {
+                    ElsaUtil.packLong(out, TYPED_TAG_VALUE + TYPED_LONG_PACKED + zigzag);
+                } else if (digits < 8) {
+                    //packed value would be larger, write magnitude bytes as header LONG_F* does
+                    ElsaUtil.packInt(out, TYPED_TAG_VALUE + 2 * digits - 1 + (v < 0 ? 1 : 0));
+                    for (int shift = digits * 8 - 8; shift >= 0; shift -= 8)
+                        out.write((int) (abs >>> shift));
+                } else {
+                    ElsaUtil.packInt(out, TYPED_TAG_VALUE);
+                    out.writeLong(v);
+                }
+                return;
+            }
+            case FIELD_BOOLEAN:
+                ElsaUtil.packInt(out, TYPED_TAG_VALUE + ((Boolean) value ? 1 : 0));
+                return;
+            case FIELD_BYTE: {
+                int v = (Byte) value;
+                ElsaUtil.packInt(out, TYPED_TAG_VALUE + ((v << 1) ^ (v >> 31)));
+                return;
+            }
+            case FIELD_CHAR:
+                ElsaUtil.packInt(out, TYPED_TAG_VALUE + (Character) value);
+                return;
+            case FIELD_SHORT: {
+                int v = (Short) value;
+                ElsaUtil.packInt(out, TYPED_TAG_VALUE + ((v << 1) ^ (v >> 31)));
+                return;
+            }
+            case FIELD_DOUBLE: {
+                //integral value is packed zigzag, raw bits comparison keeps negative zero
+                double v = (Double) value;
+                int i = (int) v;
+                if (Double.doubleToRawLongBits(i) == Double.doubleToRawLongBits(v)) {
+                    ElsaUtil.packLong(out, TYPED_TAG_VALUE + 1 + (((i << 1) ^ (i >> 31)) & 0xFFFFFFFFL));
+                } else {
+                    ElsaUtil.packInt(out, TYPED_TAG_VALUE);
+                    out.writeDouble(v);
+                }
+                return;
+            }
+            case FIELD_FLOAT: {
+                float v = (Float) value;
+                int i = (int) v;
+                if (Float.floatToRawIntBits(i) == Float.floatToRawIntBits(v)) {
+                    ElsaUtil.packLong(out, TYPED_TAG_VALUE + 1 + (((i << 1) ^ (i >> 31)) & 0xFFFFFFFFL));
+                } else {
+                    ElsaUtil.packInt(out, TYPED_TAG_VALUE);
+                    out.writeFloat(v);
+                }
+                return;
+            }
+            case TYPED_ARRAY + FIELD_INT: {
+                //lowest bits of length select encoding, same as ARRAY_INT_* headers
+                int[] v = (int[]) value;
+                int encoding = intArrayEncoding(v);
+                ElsaUtil.packLong(out, TYPED_TAG_VALUE + ((long) v.length << 2 | encoding));
+                writeIntArray(out, v, encoding);
+                return;
+            }
+            case TYPED_ARRAY + FIELD_LONG: {
+                long[] v = (long[]) value;
+                int encoding = longArrayEncoding(v);
+                ElsaUtil.packLong(out, TYPED_TAG_VALUE + ((long) v.length << 3 | encoding));
+                writeLongArray(out, v, encoding);
+                return;
+            }
+            case TYPED_ARRAY + FIELD_DOUBLE: {
+                double[] v = (double[]) value;
+                ElsaUtil.packInt(out, TYPED_TAG_VALUE + v.length);
+                writeDoubles(out, v);
+                return;
+            }
+            case TYPED_ARRAY + FIELD_FLOAT: {
+                float[] v = (float[]) value;
+                ElsaUtil.packInt(out, TYPED_TAG_VALUE + v.length);
+                writeFloats(out, v);
+                return;
+            }
+            case TYPED_ARRAY + FIELD_SHORT: {
+                short[] v = (short[]) value;
+                ElsaUtil.packInt(out, TYPED_TAG_VALUE + v.length);
+                writeShorts(out, v);
+                return;
+            }
+            case TYPED_ARRAY + FIELD_BYTE: {
+                byte[] v = (byte[]) value;
+                boolean allEqual = allEqual(v);
+                ElsaUtil.packLong(out, TYPED_TAG_VALUE + ((long) v.length << 1 | (allEqual ? 1 : 0)));
+                if (allEqual)
+                    out.write(v[0]);
+                else
+                    out.write(v);
+                return;
+            }
+            case TYPED_ARRAY + FIELD_BOOLEAN: {
+                boolean[] v = (boolean[]) value;
+                ElsaUtil.packInt(out, TYPED_TAG_VALUE + v.length);
+                writeBooleanArray(out, v);
+                return;
+            }
+            case TYPED_ARRAY + FIELD_CHAR: {
+                char[] v = (char[]) value;
+                ElsaUtil.packInt(out, TYPED_TAG_VALUE + v.length);
+                packChars(out, v);
+                return;
+            }
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    /**
+     * Reads value written by {@link #writeTypedValue(DataOutput, FieldInfo, Object, ElsaStack)}
+     * and adds it into object stack.
+     *
+     * @param in read binary data from here
+     * @param fieldInfo field with {@link FieldInfo#typedType}
+     * @param objectStack objectStack for handling backward references
+     * @return field value
+     * @throws IOException an exception from underlying stream
+     */
+    protected Object readTypedValue(DataInput in, FieldInfo fieldInfo, ElsaStack objectStack) throws IOException {
+        long tag = ElsaUtil.unpackLong(in);
+        if (tag == TYPED_TAG_NULL)
+            return null;
+        if (tag == TYPED_TAG_REFERENCE)
+            return objectStack.getInstance(ElsaUtil.unpackInt(in));
+        if (tag == TYPED_TAG_SINGLETON) {
+            int oldObjectStackSize = objectStack.getSize();
+            Object ret = deserializeSingleton(in, objectStack);
+            if (ret != null && objectStack.getSize() == oldObjectStackSize)
+                objectStack.add(ret);
+            return ret;
+        }
+        tag -= TYPED_TAG_VALUE;
+
+        Object ret;
+        switch (fieldInfo.typedType) {
+            case TYPED_STRING: {
+                int len = (int) (tag >>> 1);
+                ret = (tag & 1) == 0
+                        ? readLatin1(in, len)
+                        : deserializeString(in, len);
+                break;
+            }
+            case TYPED_ENUM: {
+                Object[] constants = fieldInfo.enumConstants;
+                if (tag >= constants.length)
+                    throw new ElsaException("Unknown enum ordinal: " + tag + " - " + fieldInfo.typeClass.getName());
+                ret = constants[(int) tag];
+                break;
+            }
+            case FIELD_INT: {
+                int v = (int) (tag - 2);
+                ret = tag == 0 ? Integer.MIN_VALUE
+                        : tag == 1 ? Integer.MAX_VALUE
+                        : (v >>> 1) ^ -(v & 1);
+                break;
+            }
+            case FIELD_LONG:
+                if (tag == 0) {
+                    ret = in.readLong();
+                } else if (tag < TYPED_LONG_MIN) {
+                    long abs = readDigits(in, (int) (tag + 1) / 2);
+                    ret = (tag & 1) == 0 ? -abs : abs;
+                } else if (tag == TYPED_LONG_MIN) {
+                    ret = Long.MIN_VALUE;
+                } else if (tag == TYPED_LONG_MAX) {
+                    ret = Long.MAX_VALUE;
+                } else {
+                    long v = tag - TYPED_LONG_PACKED;
+                    ret = (v >>> 1) ^ -(v & 1);
+                }
+                break;
+            case FIELD_BOOLEAN:
+                ret = tag != 0;
+                break;
+            case FIELD_BYTE: {
+                int v = (int) tag;
+                ret = (byte) ((v >>> 1) ^ -(v & 1));
+                break;
+            }
+            case FIELD_CHAR:
+                ret = (char) tag;
+                break;
+            case FIELD_SHORT: {
+                int v = (int) tag;
+                ret = (short) ((v >>> 1) ^ -(v & 1));
+                break;
+            }
+            case FIELD_DOUBLE: {
+                int v = (int) (tag - 1);
+                ret = tag == 0 ? in.readDouble() : (double) ((v >>> 1) ^ -(v & 1));
+                break;
+            }
+            case FIELD_FLOAT: {
+                int v = (int) (tag - 1);
+                ret = tag == 0 ? in.readFloat() : (float) ((v >>> 1) ^ -(v & 1));
+                break;
+            }
+            case TYPED_ARRAY + FIELD_INT:
+                ret = readIntArray(in, (int) (tag >>> 2), (int) tag & 3);
+                break;
+            case TYPED_ARRAY + FIELD_LONG:
+                ret = readLongArray(in, (int) (tag >>> 3), (int) tag & 7);
+                break;
+            case TYPED_ARRAY + FIELD_DOUBLE: {
+                double[] v = new double[(int) tag];
+                readDoubles(in, v);
+                ret = v;
+                break;
+            }
+            case TYPED_ARRAY + FIELD_FLOAT: {
+                float[] v = new float[(int) tag];
+                readFloats(in, v);
+                ret = v;
+                break;
+            }
+            case TYPED_ARRAY + FIELD_SHORT: {
+                short[] v = new short[(int) tag];
+                readShorts(in, v);
+                ret = v;
+                break;
+            }
+            case TYPED_ARRAY + FIELD_BYTE: {
+                byte[] v = new byte[(int) (tag >>> 1)];
+                if ((tag & 1) != 0)
+                    Arrays.fill(v, in.readByte());
+                else
+                    in.readFully(v);
+                ret = v;
+                break;
+            }
+            case TYPED_ARRAY + FIELD_BOOLEAN:
+                ret = readBooleanArray((int) tag, in);
+                break;
+            case TYPED_ARRAY + FIELD_CHAR: {
+                char[] v = new char[(int) tag];
+                unpackChars(in, v);
+                ret = v;
+                break;
+            }
+            default:
+                throw new AssertionError();
+        }
+        objectStack.add(ret);
+        return ret;
+    }
+
+    /**
+     * @param fieldInfo field to check
+     * @param object object which contains field
+     * @return true if field is null, zero or false
+     */
+    protected boolean isDefaultValue(FieldInfo fieldInfo, Object object) {
+        Field f = fieldInfo.field;
+        if(f==null)
+            throw new NoSuchFieldError(object.getClass() + "." + fieldInfo.name);
+        try {
+            switch (fieldInfo.primitiveType) {
+                case FIELD_OBJECT: return f.get(object) == null;
+                case FIELD_INT: return f.getInt(object) == 0;
+                case FIELD_LONG: return f.getLong(object) == 0L;
+                case FIELD_DOUBLE: return Double.doubleToRawLongBits(f.getDouble(object)) == 0L;
+                case FIELD_BOOLEAN: return !f.getBoolean(object);
+                case FIELD_FLOAT: return Float.floatToRawIntBits(f.getFloat(object)) == 0;
+                case FIELD_BYTE: return f.getByte(object) == 0;
+                case FIELD_CHAR: return f.getChar(object) == 0;
+                case FIELD_SHORT: return f.getShort(object) == 0;
+                default: throw new AssertionError();
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Could not get value from field", e);
+        }
+    }
+
+    /**
+     * Fields of single class in order they are written, with their IDs in {@link ClassInfo}.
+     * Plan is immutable and created only once for each class.
+     */
+    protected static final class WritePlan {
+        protected final ClassInfo classInfo;
+        protected final FieldInfo[] fields;
+        protected final int[] fieldIds;
+        /** number of primitive fields */
+        protected final int primitiveCount;
+        /** true if all fields are written in class info order, field IDs do not have to be written */
+        protected final boolean compact;
+        /** true if object can be written as typed POJO, see {@link ElsaSerializerPojo#typedFields} */
+        protected final boolean typed;
+
+        protected WritePlan(ClassInfo classInfo, FieldInfo[] fields, int[] fieldIds, boolean typedFields) {
+            this.classInfo = classInfo;
+            this.fields = fields;
+            this.fieldIds = fieldIds;
+            int primitiveCount = 0;
+            for (FieldInfo f : fields) {
+                if (f.primitive)
+                    primitiveCount++;
+            }
+            this.primitiveCount = primitiveCount;
+            boolean compact = fieldIds.length == classInfo.fields.length;
+            for (int i = 0; compact && i < fieldIds.length; i++) {
+                compact = fieldIds[i] == i;
+            }
+            this.compact = compact;
+            this.typed = compact && typedFields && classInfo.typedFieldIds.length > 0;
+        }
+    }
+
+    /**
+     * Returns cached write plan, or creates new plan from {@link #fieldsForClass(Class)}.
+     *
+     * @param clazz class of serialized object
+     * @param classInfo class info used to write object
+     * @return plan with fields in order they are written
+     */
+    protected WritePlan writePlan(Class<?> clazz, ClassInfo classInfo) {
+        WritePlan plan = writePlans.get(clazz);
+        if(plan!=null && plan.classInfo==classInfo)
+            return plan;
+
+        ObjectStreamField[] streamFields = fieldsForClass(clazz);
+        FieldInfo[] fields = new FieldInfo[streamFields.length];
+        int[] fieldIds = new int[streamFields.length];
+        for (int i = 0; i < streamFields.length; i++) {
+            String name = streamFields[i].getName();
+            int fieldId = classInfo.getFieldId(name);
+            if (fieldId == -1)
+                throw new AssertionError("Missing field: " + name);
+            fieldIds[i] = fieldId;
+            fields[i] = classInfo.fields[fieldId];
+        }
+        plan = new WritePlan(classInfo, fields, fieldIds, typedFields && !userSerializedTypes(classInfo));
+        writePlans.put(clazz, plan);
+        return plan;
+    }
+
+    /** @return true if some typed field has declared type with user serializer, such field can not be written inline */
+    protected boolean userSerializedTypes(ClassInfo classInfo) {
+        for (int fieldId : classInfo.typedFieldIds) {
+            if (ser.get(classInfo.fields[fieldId].typeClass) instanceof UserSerializer)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns instantiator cached in class info. Class is loaded and checked only once,
+     * instantiator is recreated only if class info is used by serializer with different class loader.
+     *
+     * @param classInfo class info of deserialized object
+     * @return instantiator for class
+     * @throws ClassNotFoundException if class could not be loaded
+     * @throws NotSerializableException if class is not serializable
+     */
+    protected Instantiator instantiator(ClassInfo classInfo) throws ClassNotFoundException, NotSerializableException {
+        Instantiator instantiator = classInfo.instantiator;
+        if(instantiator!=null && instantiator.classLoader==classLoader)
+            return instantiator;
+
+        Class<?> clazz = loadClassCached(classInfo.name);
+        if (!Serializable.class.isAssignableFrom(clazz))
+            throw new NotSerializableException(clazz.getName());
+        instantiator = new Instantiator(classLoader, clazz);
+        classInfo.instantiator = instantiator;
+        return instantiator;
+    }
+
+    /**
+     * Creates instances of single class. Enum constants are shared in single array,
+     * other classes keep their constructor, so there is no map lookup on each instance.
+     */
+    protected static final class Instantiator {
+        /** class loader used to load class */
+        protected final ClassLoader classLoader;
+        protected final Class<?> clazz;
+        /** constants of enum class, this array is shared and must not be modified */
+        protected final Object[] enumConstants;
+        /** constructor which skips class constructor, null on Android */
+        protected final Constructor<?> constructor;
+        /** true if new instance has all fields with default value, false if class constructor is called */
+        protected final boolean skipsConstructor;
+
+        protected Instantiator(ClassLoader classLoader, Class<?> clazz) {
+            this.classLoader = classLoader;
+            this.clazz = clazz;
+            this.enumConstants = clazz.getEnumConstants();
+            Constructor<?> c = null;
+            if (enumConstants == null) {
+                try {
+                    c = instanceConstructor(clazz);
+                } catch (Exception e) {
+                    //fallback into createInstanceSkippinkConstructor, it reports error on first use
+                }
+            }
+            this.constructor = c;
+            this.skipsConstructor = sunConstructor != null || c == null;
+        }
+
+        protected Object newInstance(ElsaSerializerPojo serializer) {
+            if (constructor == null)
+                return serializer.createInstanceSkippinkConstructor(clazz);
+            try {
+                return constructor.newInstance();
+            } catch (InvocationTargetException e) {
+                throw new RuntimeException(e);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            } catch (InstantiationException e) {
+                throw new RuntimeException(e);
             }
-            ElsaUtil.packInt(out, fieldId);
-            //and write value
-            Object fieldValue = getFieldValue(classInfo.fields[fieldId], obj);
-            fieldValues.add(fieldValue);
         }
-        objectStack.stackPushIter(fieldValues);
     }
 
     @Override
     protected Object deserializeUnknownHeader(DataInput in, int head, ElsaStack objectStack) throws IOException {
+        if(head!=Header.POJO_CLASSINFO && head!= Header.POJO_RESOLVER && head!= Header.POJO
+                && head!=Header.POJO_PRIMITIVE && head!=Header.POJO_RESOLVER_PRIMITIVE
+                && head!=Header.POJO_COMPACT && head!=Header.POJO_RESOLVER_COMPACT
+                && head!=Header.POJO_BITMAP && head!=Header.POJO_RESOLVER_BITMAP
+                && head!=Header.POJO_TYPED && head!=Header.POJO_RESOLVER_TYPED)
+            throw new ElsaException("wrong header");
+        return deserialize(in, head, objectStack);
+    }
 
+    @Override
+    protected ReadFrame startFrame(DataInput in, int head, ElsaStack objectStack) throws IOException {
         if(head==Header.POJO_CLASSINFO){
             int classId = ElsaUtil.unpackInt(in);
             ClassInfo classInfo = classInfoDeserialize(in);
             int classId2 = objectStack.addClassInfo(classInfo);
             if(classId!=classId2)
                 throw new ElsaException("Wrong Stream ClassInfo order");
-            return deserialize(in, objectStack);
+            //class info is always followed by object which uses it
+            head = in.readUnsignedByte();
+            if(head!=Header.POJO && head!=Header.POJO_PRIMITIVE && head!=Header.POJO_COMPACT && head!=Header.POJO_BITMAP
+                    && head!=Header.POJO_TYPED)
+                throw new ElsaException("wrong header");
         }
-        if(head!= Header.POJO_RESOLVER && head!= Header.POJO)
-            throw new ElsaException("wrong header");
+        boolean bitmap = head==Header.POJO_BITMAP || head==Header.POJO_RESOLVER_BITMAP;
+        boolean typed = head==Header.POJO_TYPED || head==Header.POJO_RESOLVER_TYPED;
+        boolean compact = typed || head==Header.POJO_COMPACT || head==Header.POJO_RESOLVER_COMPACT;
+        boolean inlinePrimitives = compact || bitmap || head==Header.POJO_PRIMITIVE || head==Header.POJO_RESOLVER_PRIMITIVE;
+        if(head!= Header.POJO_RESOLVER && head!= Header.POJO && !inlinePrimitives)
+            return super.startFrame(in, head, objectStack);
         try {
             int classId = ElsaUtil.unpackInt(in);
             ClassInfo classInfo =
-                    head==Header.POJO_RESOLVER
+                    head==Header.POJO_RESOLVER || head==Header.POJO_RESOLVER_PRIMITIVE
+                            || head==Header.POJO_RESOLVER_COMPACT || head==Header.POJO_RESOLVER_BITMAP
+                            || head==Header.POJO_RESOLVER_TYPED
                             ? getClassInfo(classId)
                             : objectStack.resolveClassInfo(classId);
 
@@ -549,19 +1658,16 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
                 ObjectInputStream2 in2 = new ObjectInputStream2(this, wrapStream(in));
                 Object o = in2.readObject();
                 objectStack.add(o);
-                return o;
+                return new DoneFrame(o);
             }
 
-            Class<?> clazz = loadClassCached(classInfo.name);
-            if (!Serializable.class.isAssignableFrom(clazz))
-                throw new NotSerializableException(clazz.getName());
-
+            Instantiator instantiator = instantiator(classInfo);
             Object o;
             if (classInfo.isEnum) {
                 int ordinal = ElsaUtil.unpackInt(in);
-                o = clazz.getEnumConstants()[ordinal];
+                o = instantiator.enumConstants[ordinal];
             } else {
-                o = createInstanceSkippinkConstructor(clazz);
+                o = instantiator.newInstance(this);
             }
 
             objectStack.add(o);
@@ -569,27 +1675,118 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
             if(classInfo.externalizable){
                 ElsaObjectInputStream in2 = new ElsaObjectInputStream(in, this);
                 ((Externalizable)o).readExternal(in2);
-                return o;
+                return new DoneFrame(o);
             }
 
+            if(bitmap)
+                return readPresent(in, classInfo, o, instantiator.skipsConstructor);
+            if(compact)
+                return readCompact(in, classInfo, o, typed, objectStack);
+
             int fieldCount = ElsaUtil.unpackInt(in);
             int[] fieldIds = new int[fieldCount];
             for (int i = 0; i < fieldCount; i++) {
                 fieldIds[i] = ElsaUtil.unpackInt(in);
             }
 
-            for (int fieldId:fieldIds) {
-                FieldInfo f = classInfo.fields[fieldId];
-                Object fieldValue = deserialize(in, objectStack);
-                setFieldValue(f, o, fieldValue);
+            if(inlinePrimitives){
+                //set primitive fields, frame receives only object fields
+                int objectCount = 0;
+                for (int fieldId : fieldIds) {
+                    FieldInfo f = classInfo.fields[fieldId];
+                    if (!f.primitive)
+                        fieldIds[objectCount++] = fieldId;
+                    else
+                        readPrimitiveField(in, f, o);
+                }
+                if(objectCount != fieldCount)
+                    fieldIds = Arrays.copyOf(fieldIds, objectCount);
             }
 
-            return o;
+            return new PojoFrame(o, classInfo, fieldIds);
         }catch(ClassNotFoundException e){
             throw new ElsaException(e);
         }
     }
 
+    /**
+     * Reads fields written by {@link #writeCompact(DataOutput, ClassInfo, Object, boolean, ElsaStack)}.
+     * Primitive and typed values are set directly, returned frame receives other object values.
+     */
+    protected ReadFrame readCompact(DataInput in, ClassInfo classInfo, Object o, boolean typed,
+                                    ElsaStack objectStack) throws IOException {
+        FieldInfo[] fields = classInfo.fields;
+        if(classInfo.accessor != null) {
+            classInfo.accessor.readPrimitives(in, o);
+        } else if(classInfo.objectFieldIds.length != fields.length) {
+            for (int i = 0; i < fields.length; i++) {
+                if (!fields[i].primitive)
+                    continue;
+                readPrimitiveField(in, fields[i], o);
+            }
+        }
+        if(!typed)
+            return new PojoFrame(o, classInfo, classInfo.objectFieldIds);
+        //typed values follow primitive values, rest of fields are objects
+        for (int fieldId : classInfo.typedFieldIds) {
+            setFieldValue(classInfo, fieldId, o, readTypedValue(in, fields[fieldId], objectStack));
+        }
+        return new PojoFrame(o, classInfo, classInfo.untypedFieldIds);
+    }
+
+    /**
+     * Reads presence bitmap and values of present fields. Fields which are not present are skipped,
+     * they already have default value if instance was created without calling constructor.
+     */
+    protected ReadFrame readPresent(DataInput in, ClassInfo classInfo, Object o, boolean skipsConstructor) throws IOException {
+        FieldInfo[] fields = classInfo.fields;
+        long[] bitmap = new long[(fields.length + 63) >>> 6];
+        for (int i = 0; i < fields.length; i += 8) {
+            bitmap[i >>> 6] |= (long) in.readUnsignedByte() << i;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            FieldInfo f = fields[i];
+            boolean present = (bitmap[i >>> 6] & 1L << i) != 0;
+            if (!present && !skipsConstructor)
+                setFieldValue(classInfo, i, o, FIELD_DEFAULTS[f.primitiveType]);
+            else if (present && f.primitive)
+                readPrimitiveField(in, f, o);
+        }
+        int[] objectFieldIds = classInfo.objectFieldIds;
+        int[] fieldIds = new int[objectFieldIds.length];
+        int objectCount = 0;
+        for (int fieldId : objectFieldIds) {
+            if ((bitmap[fieldId >>> 6] & 1L << fieldId) != 0)
+                fieldIds[objectCount++] = fieldId;
+        }
+        if (objectCount != fieldIds.length)
+            fieldIds = Arrays.copyOf(fieldIds, objectCount);
+        return new PojoFrame(o, classInfo, fieldIds);
+    }
+
+    /** POJO which receives its field values */
+    protected final class PojoFrame extends ReadFrame{
+        private final Object o;
+        private final ClassInfo classInfo;
+        private final int[] fieldIds;
+
+        protected PojoFrame(Object o, ClassInfo classInfo, int[] fieldIds) {
+            super(fieldIds.length);
+            this.o = o;
+            this.classInfo = classInfo;
+            this.fieldIds = fieldIds;
+        }
+
+        @Override protected void add(Object child) {
+            int fieldId = fieldIds[fieldIds.length - remaining - 1];
+            setFieldValue(classInfo, fieldId, o, child);
+        }
+
+        @Override protected Object get() {
+            return o;
+        }
+    }
+
     private InputStream wrapStream(DataInput in) throws IOException {
         if(in instanceof InputStream)
             return (InputStream) in;
@@ -693,35 +1890,18 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
 	protected <T> T createInstanceSkippinkConstructor(Class<T> clazz) {
 
         try {
-            if (sunConstructor != null) {
-                //Sun specific way
-                Constructor<?> intConstr = class2constuctor.get(clazz);
-
-                if (intConstr == null) {
-                    Constructor<?> objDef = Object.class.getDeclaredConstructor();
-                    intConstr = (Constructor<?>) sunConstructor.invoke(sunReflFac, clazz, objDef);
-                    class2constuctor.put(clazz, intConstr);
-                }
-
-                return (T) intConstr.newInstance();
+            Constructor<?> c = instanceConstructor(clazz);
+            if (c != null) {
+                return (T) c.newInstance();
             } else if (androidConstructor != null) {
                 //android (harmony) specific way
                 return (T) androidConstructor.invoke(null, clazz, Object.class);
             } else if (androidConstructorGinger != null) {
                 //android (post ginger) specific way
                 return (T) androidConstructorGinger.invoke(null, clazz, constructorId);
-            } else if (androidConstructorJelly != null) {
+            } else {
                 //android (post 4.2) specific way
                 return (T) androidConstructorJelly.invoke(null, clazz, constructorId);
-            } else {
-                //try usual generic stuff which does not skip constructor
-                Constructor<?> c = class2constuctor.get(clazz);
-                if (c == null) {
-                    c = clazz.getConstructor();
-                    if (!c.isAccessible()) c.setAccessible(true);
-                    class2constuctor.put(clazz, c);
-                }
-                return (T) c.newInstance();
             }
         } catch (NoSuchMethodException e) {
             throw new RuntimeException(e);
@@ -734,5 +1914,33 @@ public class ElsaSerializerPojo extends ElsaSerializerBase implements Serializab
         }
     }
 
+    /**
+     * Returns constructor used by {@link #createInstanceSkippinkConstructor(Class)}, constructors are cached.
+     *
+     * @param clazz class of object
+     * @return constructor which does not call class constructor if possible, or null on Android
+     * @throws NoSuchMethodException if no suitable constructor was found
+     * @throws InvocationTargetException if serialization constructor could not be created
+     * @throws IllegalAccessException if serialization constructor could not be created
+     */
+    protected static Constructor<?> instanceConstructor(Class<?> clazz)
+            throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+        Constructor<?> c = class2constuctor.get(clazz);
+        if (c != null)
+            return c;
+        if (sunConstructor != null) {
+            //Sun specific way
+            Constructor<?> objDef = Object.class.getDeclaredConstructor();
+            c = (Constructor<?>) sunConstructor.invoke(sunReflFac, clazz, objDef);
+        } else if (androidConstructor != null || androidConstructorGinger != null || androidConstructorJelly != null) {
+            return null;
+        } else {
+            //try usual generic stuff which does not skip constructor
+            c = clazz.getConstructor();
+            if (!c.isAccessible()) c.setAccessible(true);
+        }
+        class2constuctor.put(clazz, c);
+        return c;
+    }
 
-}
\ No newline at end of file
+}
@@ -8,7 +8,12 @@ import java.util.*;
  * Elsa check for backward references, by comparing newly serialized objects against Stack content.
  * This comparation could be major overhead, so there are three strategies (Stack implementations) for object comparation:
  * <ul>
- *  <li>IdentityHashMap is good for large object arrays, is enabled by default</li>
+ *  <li>Identity hash table with primitive indexes, is good for large object arrays, is enabled by default</li>
+ *
+ *  <li>IdentityHashMap, same as above but boxes indexes and uses more memory.</li>
+ *
+ *  <li>Adaptive, starts as array with linear search and switches to identity hash table once it grows.
+ *      It is recommended default and is used by {@link ElsaMaker}</li>
  *
  * <li>HashMap is very slow (full Object.equals()), but performs full deduplication.</li>
  *
@@ -77,6 +82,258 @@ public abstract class ElsaStack{
             return data[i];
         }
 
+        @Override
+        public void reset() {
+            super.reset();
+            Arrays.fill(data, 0, size, null);
+            size = 0;
+            forwardRefs = false;
+        }
+    }
+
+
+    /**
+     * Open addressing identity hash table with linear probing on {@link System#identityHashCode(Object)}.
+     * Object references and their indexes are stored in flat arrays, so there is no boxing and no entry objects.
+     * It is default stack.
+     */
+    public static final class IdentityHashStack extends ElsaStack{
+
+        private static final Object NULL_KEY = new Object();
+
+        /** objects in order they were added */
+        private Object[] objects;
+        private int size;
+        /** hash table, contains object references */
+        private Object[] keys;
+        /** hash table, contains index of object in {@code objects} */
+        private int[] indexes;
+        private int mask;
+
+        public IdentityHashStack(){
+            this(16);
+        }
+
+        public IdentityHashStack(int initialCapacity){
+            int cap = Integer.highestOneBit(Math.max(4, initialCapacity) * 2 - 1) * 2;
+            keys = new Object[cap];
+            indexes = new int[cap];
+            mask = cap - 1;
+            objects = new Object[cap / 2];
+            size = 0;
+        }
+
+        static int hash(Object o, int mask){
+            int h = System.identityHashCode(o);
+            //identity hash has weak low bits, spread them
+            h *= 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        @Override
+        public void add(Object o) {
+            if (size == objects.length) {
+                objects = Arrays.copyOf(objects, size * 2);
+                rehash(keys.length * 2);
+            }
+            objects[size] = o;
+            insert(keys, indexes, mask, o, size);
+            size++;
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            if (size == 0)
+                return;
+            removeKeys(keys, indexes, mask, objects, size);
+            Arrays.fill(objects, 0, size, null);
+            size = 0;
+        }
+
+        private void rehash(int cap) {
+            keys = new Object[cap];
+            indexes = new int[cap];
+            mask = cap - 1;
+            for (int i = 0; i < size; i++)
+                insert(keys, indexes, mask, objects[i], i);
+        }
+
+        /** inserts object into hash table, if object is already present its first index is kept */
+        static void insert(Object[] keys, int[] indexes, int mask, Object o, int index) {
+            if (o == null)
+                o = NULL_KEY;
+            int i = hash(o, mask);
+            while (keys[i] != null) {
+                if (keys[i] == o)
+                    return;
+                i = (i + 1) & mask;
+            }
+            keys[i] = o;
+            indexes[i] = index;
+        }
+
+        /**
+         * Removes objects from hash table, so it can be reused. Only slots used by objects are cleared,
+         * so small graph does not pay for table grown by large graph before.
+         * Objects must be inserted in the same order as they are in {@code objects}. They are removed in reverse order,
+         * so slots on probe path of each object are still occupied by objects inserted before it.
+         */
+        static void removeKeys(Object[] keys, int[] indexes, int mask, Object[] objects, int size) {
+            for (int j = size - 1; j >= 0; j--) {
+                Object o = objects[j];
+                if (o == null)
+                    o = NULL_KEY;
+                int i = hash(o, mask);
+                Object k;
+                while ((k = keys[i]) != null && k != o)
+                    i = (i + 1) & mask;
+                //duplicate object keeps slot until its first index is removed
+                if (k == o && indexes[i] == j)
+                    keys[i] = null;
+            }
+        }
+
+        @Override
+        public int identityIndexOf(Object obj) {
+            if (obj == null)
+                obj = NULL_KEY;
+            int i = hash(obj, mask);
+            Object k;
+            while ((k = keys[i]) != null) {
+                if (k == obj)
+                    return indexes[i];
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public Object getInstance(int i) {
+            if (i >= size)
+                throw new IndexOutOfBoundsException();
+            return objects[i];
+        }
+    }
+
+
+    /**
+     * Starts as array with linear identity search, same as {@link IdentityArray}, so tiny graphs have minimal overhead.
+     * Once number of objects crosses threshold, it builds identity hash index
+     * (same as in {@link IdentityHashStack}) and uses it for all further lookups.
+     */
+    public static final class AdaptiveStack extends ElsaStack{
+
+        /** default number of objects after which hash index is created */
+        public static final int DEFAULT_THRESHOLD = 16;
+
+        private final int threshold;
+
+        /** objects in order they were added */
+        private Object[] objects;
+        private int size;
+        /** true if hash table is used for lookups */
+        private boolean hashed = false;
+        /** hash table, null until threshold is crossed, it is kept after reset */
+        private Object[] keys;
+        private int[] indexes;
+        private int mask;
+
+        public AdaptiveStack(){
+            this(DEFAULT_THRESHOLD);
+        }
+
+        public AdaptiveStack(int threshold){
+            if(threshold<0)
+                throw new IllegalArgumentException("Negative threshold");
+            this.threshold = threshold;
+            objects = new Object[Math.max(1, Math.min(threshold, 8))];
+            size = 0;
+        }
+
+        /** @return true if hash index was already created */
+        public boolean isHashed(){
+            return hashed;
+        }
+
+        @Override
+        public void add(Object o) {
+            if (size == objects.length) {
+                objects = Arrays.copyOf(objects, size * 2);
+                if (hashed)
+                    rehash(keys.length * 2);
+            }
+            objects[size] = o;
+            size++;
+            if (hashed) {
+                IdentityHashStack.insert(keys, indexes, mask, o, size - 1);
+            } else if (size > threshold) {
+                //upgrade, index all objects
+                rehash(Integer.highestOneBit(objects.length * 2 - 1) * 2);
+            }
+        }
+
+        private void rehash(int cap) {
+            if (keys != null && keys.length >= cap) {
+                //reuse table left from previous use
+                cap = keys.length;
+            } else {
+                keys = new Object[cap];
+                indexes = new int[cap];
+            }
+            mask = cap - 1;
+            hashed = true;
+            for (int i = 0; i < size; i++)
+                IdentityHashStack.insert(keys, indexes, mask, objects[i], i);
+        }
+
+        @Override
+        public int identityIndexOf(Object obj) {
+            if (!hashed) {
+                for (int i = 0; i < size; i++) {
+                    if (obj == objects[i])
+                        return i;
+                }
+                return -1;
+            }
+            if (obj == null)
+                obj = IdentityHashStack.NULL_KEY;
+            int i = IdentityHashStack.hash(obj, mask);
+            Object k;
+            while ((k = keys[i]) != null) {
+                if (k == obj)
+                    return indexes[i];
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public Object getInstance(int i) {
+            if (i >= size)
+                throw new IndexOutOfBoundsException();
+            return objects[i];
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            if (hashed)
+                IdentityHashStack.removeKeys(keys, indexes, mask, objects, size);
+            Arrays.fill(objects, 0, size, null);
+            hashed = false;
+            size = 0;
+        }
     }
 
 
@@ -112,6 +369,65 @@ public abstract class ElsaStack{
         public Object getInstance(int i) {
             return reverse.get(i);
         }
+
+        @Override
+        public void reset() {
+            super.reset();
+            data.clear();
+            reverse.clear();
+        }
+    }
+
+    /**
+     * Stack used for deserialization. Deserialization only appends objects and resolves them by index,
+     * so this stack is just an array without identity index, {@link #identityIndexOf(Object)} is a linear scan.
+     * It is used for deserialization regardless of stack type configured for serialization.
+     */
+    public static final class ReadStack extends ElsaStack{
+
+        private Object[] data;
+        private int size;
+
+        public ReadStack(){
+            data = new Object[16];
+            size = 0;
+        }
+
+        @Override
+        public void add(Object o) {
+            if (data.length == size)
+                data = Arrays.copyOf(data, size * 2);
+            data[size++] = o;
+        }
+
+        /** linear scan, deserialization only adds and reads by index, so lookup is not optimized */
+        @Override
+        public int identityIndexOf(Object obj) {
+            for (int i = 0; i < size; i++) {
+                if (data[i] == obj)
+                    return i;
+            }
+            return -1;
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public Object getInstance(int i) {
+            if (i >= size)
+                throw new IndexOutOfBoundsException();
+            return data[i];
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            Arrays.fill(data, 0, size, null);
+            size = 0;
+        }
     }
 
     /** No backward references are resolved, no stack is maintained */
@@ -143,30 +459,125 @@ public abstract class ElsaStack{
     public abstract int getSize();
     public abstract Object getInstance(int i);
 
+    /**
+     * Clears content of this stack, so it can be reused for another serialization or deserialization.
+     * Backing arrays are kept, so reused stack does not allocate memory for small object graphs.
+     * Subclasses must call {@code super.reset()}.
+     */
+    public void reset(){
+        if(classInfosSize>0) {
+            Arrays.fill(classInfos, 0, classInfosSize, null);
+            if (classKeys != null && classInfosSize * 8 < classKeys.length) {
+                //table was grown by stream with many classes, do not clear it on every reset
+                classKeys = null;
+                classIndexes = null;
+            } else if (classKeys != null) {
+                Arrays.fill(classKeys, null);
+            }
+            classInfosSize = 0;
+        }
+        if(stack!=null) {
+            stack.clear();
+            curr.clear();
+        }
+    }
+
 
+    /** class catalog of this stream, grows in amortized way */
     private ElsaSerializerPojo.ClassInfo[] classInfos = null;
-
+    private int classInfosSize = 0;
+    /** identity hash table which maps Class to its index in class catalog, null if there are no classes */
+    private Class[] classKeys = null;
+    private int[] classIndexes = null;
+
+    /**
+     * Finds class in class catalog by its name. It uses linear scan,
+     * {@link #resolveClassId(Class)} should be used if Class is known.
+     *
+     * @param clazzName name of class
+     * @return index in class catalog or -1 if not found
+     */
     public int resolveClassId(String clazzName) {
-        if(classInfos==null)
-            return -1;
-        for(int i=0;i<classInfos.length;i++){
+        for(int i=0;i<classInfosSize;i++){
             if(classInfos[i].name.equals(clazzName))
                 return i;
         }
         return -1;
     }
 
+    /**
+     * Finds class in class catalog with identity hash lookup.
+     * It only finds classes added with {@link #addClassInfo(Class, ElsaSerializerPojo.ClassInfo)}.
+     *
+     * @param clazz class to find
+     * @return index in class catalog or -1 if not found
+     */
+    public int resolveClassId(Class clazz) {
+        if(classKeys==null)
+            return -1;
+        int mask = classKeys.length-1;
+        int i = IdentityHashStack.hash(clazz, mask);
+        Class k;
+        while((k=classKeys[i])!=null){
+            if(k==clazz)
+                return classIndexes[i];
+            i = (i+1) & mask;
+        }
+        return -1;
+    }
+
     public int addClassInfo(ElsaSerializerPojo.ClassInfo clazzInfo){
         if(classInfos==null)
-            classInfos = new ElsaSerializerPojo.ClassInfo[0];
+            classInfos = new ElsaSerializerPojo.ClassInfo[4];
+        else if(classInfos.length==classInfosSize)
+            classInfos = Arrays.copyOf(classInfos, classInfosSize*2);
+
+        classInfos[classInfosSize] = clazzInfo;
+        return classInfosSize++;
+    }
 
-        int size = classInfos.length;
-        classInfos = Arrays.copyOf(classInfos, size+1);
-        classInfos[size] = clazzInfo;
-        return size;
+    /**
+     * Adds class into class catalog and indexes it, so it can be found with {@link #resolveClassId(Class)}
+     *
+     * @param clazz class
+     * @param clazzInfo class info for given class
+     * @return index in class catalog
+     */
+    public int addClassInfo(Class clazz, ElsaSerializerPojo.ClassInfo clazzInfo){
+        int ret = addClassInfo(clazzInfo);
+        if(classKeys==null){
+            classKeys = new Class[8];
+            classIndexes = new int[8];
+        }else if(classInfosSize*2>classKeys.length){
+            //keep load factor under 0.5
+            Class[] oldKeys = classKeys;
+            int[] oldIndexes = classIndexes;
+            classKeys = new Class[oldKeys.length*2];
+            classIndexes = new int[oldKeys.length*2];
+            for(int i=0;i<oldKeys.length;i++){
+                if(oldKeys[i]!=null)
+                    classIndexPut(oldKeys[i], oldIndexes[i]);
+            }
+        }
+        classIndexPut(clazz, ret);
+        return ret;
+    }
+
+    private void classIndexPut(Class clazz, int index){
+        int mask = classKeys.length-1;
+        int i = IdentityHashStack.hash(clazz, mask);
+        while(classKeys[i]!=null){
+            if(classKeys[i]==clazz)
+                return;
+            i = (i+1) & mask;
+        }
+        classKeys[i] = clazz;
+        classIndexes[i] = index;
     }
 
     public ElsaSerializerPojo.ClassInfo resolveClassInfo(int classId) {
+        if(classId>=classInfosSize)
+            throw new ElsaException("Class is not in stream class catalog: "+classId);
         return classInfos[classId];
     }
 
@@ -22,6 +22,8 @@ public final class ElsaUtil {
      * @throws java.io.IOException in case of IO error
      */
     static public int unpackInt(DataInput is) throws IOException {
+        if(is instanceof ElsaInput)
+            return ((ElsaInput) is).unpackInt();
         int ret = 0;
         byte v;
         do{
@@ -41,6 +43,8 @@ public final class ElsaUtil {
      * @throws java.io.IOException in case of IO error
      */
     static public long unpackLong(DataInput in) throws IOException {
+        if(in instanceof ElsaInput)
+            return ((ElsaInput) in).unpackLong();
         long ret = 0;
         byte v;
         do{
@@ -105,6 +109,10 @@ public final class ElsaUtil {
      * @throws java.io.IOException in case of IO error
      */
     static public void packLong(DataOutput out, long value) throws IOException {
+        if(out instanceof ElsaOutput){
+            ((ElsaOutput) out).packLong(value);
+            return;
+        }
         //$DELAY$
         int shift = 63-Long.numberOfLeadingZeros(value);
         shift -= shift%7; // round down to nearest multiple of 7
@@ -152,6 +160,10 @@ public final class ElsaUtil {
         // Optimize for the common case where value is small. This is particular important where our caller
         // is ElsaSerializerBase.SER_STRING.serialize because most chars will be ASCII characters and hence in this range.
         // credit Max Bolingbroke https://github.com/jankotek/MapDB/pull/489
+        if(out instanceof ElsaOutput){
+            ((ElsaOutput) out).packInt(value);
+            return;
+        }
 
         int shift = (value & ~0x7F); //reuse variable
         if (shift != 0) {
@@ -216,7 +228,7 @@ public final class ElsaUtil {
         }, null);
         for(Object o:e){
             try {
-                p.serialize(new DataOutputStream(new ByteArrayOutputStream()), o);
+                p.serialize(new ElsaDataOutput(), o);
             } catch (IOException e1) {
                 throw new IOError(e1);
             }
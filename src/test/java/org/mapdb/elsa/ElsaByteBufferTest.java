@@ -0,0 +1,89 @@
+package org.mapdb.elsa;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@SuppressWarnings({"rawtypes","unchecked"})
+public class ElsaByteBufferTest {
+
+    ElsaSerializerPojo p = new ElsaSerializerPojo();
+
+    void check(Object o) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        p.serialize(new DataOutputStream(out), o);
+        byte[] expected = out.toByteArray();
+
+        for (ByteBuffer buf : new ByteBuffer[]{
+                ByteBuffer.allocate(expected.length + 20),
+                ByteBuffer.allocateDirect(expected.length + 20),
+                ByteBuffer.allocateDirect(expected.length + 20).order(ByteOrder.LITTLE_ENDIAN)}) {
+            buf.position(10);
+            p.serialize(buf, o);
+            assertEquals(10 + expected.length, buf.position());
+
+            //compare binary data
+            byte[] b = new byte[expected.length];
+            buf.position(10);
+            buf.get(b);
+            assertArrayEquals(expected, b);
+
+            buf.position(10);
+            Object o2 = p.deserialize(buf);
+            assertEquals(10 + expected.length, buf.position());
+            assertTrue(Arrays.deepEquals(new Object[]{o}, new Object[]{o2}));
+        }
+    }
+
+    @Test public void same_format() throws IOException {
+        check("aaa");
+        check("\u0000ሴ￿ zzz");
+        check(new char[]{0, 'a', 1000, Character.MAX_VALUE});
+        check(new short[]{Short.MIN_VALUE, -1, 0, 1, Short.MAX_VALUE});
+        check(new float[]{Float.MIN_VALUE, -1, 0, 1.1f, Float.NaN});
+        check(new double[]{Double.MIN_VALUE, -1, 0, 1.1, Double.MAX_VALUE});
+        check(new int[]{-1000, 1, 100});
+        check(new int[]{0, 1, Integer.MAX_VALUE});
+        check(new int[]{Integer.MIN_VALUE, 1, Integer.MAX_VALUE});
+        check(new long[]{0, 1, Long.MAX_VALUE});
+        check(new long[]{Integer.MIN_VALUE, 1, Integer.MAX_VALUE});
+        check(new long[]{Long.MIN_VALUE, 1, Long.MAX_VALUE});
+        check(new byte[]{1, 2, 3});
+        check(new ArrayList(Arrays.asList(1, 2L, "aa", null, UUID.randomUUID(), new Date())));
+        check(new Serialization2Bean());
+        check(String.class);
+    }
+
+    @Test public void overflow() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(10);
+        buf.position(2);
+        try {
+            p.serialize(buf, new long[]{Long.MIN_VALUE, Long.MAX_VALUE});
+            fail();
+        } catch (BufferOverflowException e) {
+            //expected
+        }
+        //position is not changed on failure
+        assertEquals(2, buf.position());
+    }
+
+    @Test public void eof() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(100);
+        p.serialize(buf, new long[]{Long.MIN_VALUE, Long.MAX_VALUE});
+        buf.flip();
+        buf.limit(buf.limit() - 1);
+        try {
+            p.deserialize(buf);
+            fail();
+        } catch (EOFException e) {
+            //expected
+        }
+        assertEquals(0, buf.position());
+    }
+}
@@ -0,0 +1,126 @@
+package org.mapdb.elsa;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@SuppressWarnings({"rawtypes","unchecked"})
+public class ElsaChannelOutputTest {
+
+    ElsaSerializerPojo p = new ElsaSerializerPojo();
+
+    List records() {
+        List l = new ArrayList();
+        for (int i = 0; i < 300; i++) {
+            l.add(i);
+            l.add("record" + i);
+            l.add(new long[]{i, Long.MAX_VALUE - i, -i});
+            l.add(new double[]{i, 1.1 * i});
+            l.add(new Serialization2Bean());
+            l.add(new ArrayList(Arrays.asList(i, 1.1D * i, UUID.randomUUID(), null)));
+        }
+        return l;
+    }
+
+    byte[] expected(List records) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream out2 = new DataOutputStream(out);
+        for (Object o : records)
+            p.serialize(out2, o);
+        return out.toByteArray();
+    }
+
+    void check(WritableByteChannel channel, ByteArrayOutputStream result, int bufferSize, int bufferCount) throws IOException {
+        List records = records();
+        ElsaChannelOutput out = new ElsaChannelOutput(channel, bufferSize, bufferCount);
+        for (Object o : records)
+            p.serialize(out, o);
+        out.close();
+        assertFalse(channel.isOpen());
+        assertArrayEquals(expected(records), result.toByteArray());
+    }
+
+    @Test public void stream_channel() throws IOException {
+        for (int bufferSize : new int[]{8, 13, 100, ElsaChannelOutput.DEFAULT_BUFFER_SIZE}) {
+            for (int bufferCount = 1; bufferCount < 4; bufferCount++) {
+                ByteArrayOutputStream result = new ByteArrayOutputStream();
+                check(Channels.newChannel(result), result, bufferSize, bufferCount);
+            }
+        }
+    }
+
+    /** channel which accepts only few bytes in each write */
+    static class SlowChannel implements WritableByteChannel {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        boolean open = true;
+
+        @Override public int write(ByteBuffer src) {
+            int count = Math.min(3, src.remaining());
+            for (int i = 0; i < count; i++)
+                result.write(src.get());
+            return count;
+        }
+
+        @Override public boolean isOpen() {
+            return open;
+        }
+
+        @Override public void close() {
+            open = false;
+        }
+    }
+
+    @Test public void partial_writes() throws IOException {
+        SlowChannel channel = new SlowChannel();
+        check(channel, channel.result, 16, 2);
+    }
+
+    @Test public void file_channel_gathering() throws IOException {
+        File f = File.createTempFile("elsa", "channel");
+        f.deleteOnExit();
+        List records = records();
+        FileChannel channel = new RandomAccessFile(f, "rw").getChannel();
+        ElsaChannelOutput out = new ElsaChannelOutput(channel, 32, 4);
+        for (Object o : records)
+            p.serialize(out, o);
+        out.close();
+
+        byte[] expected = expected(records);
+        assertEquals(expected.length, f.length());
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        byte[] b = new byte[expected.length];
+        in.readFully(b);
+        in.close();
+        assertArrayEquals(expected, b);
+
+        //and read it back with mapped reader
+        ElsaMappedFileReader r = new ElsaMappedFileReader(f, p);
+        for (Object o : records)
+            assertTrue(Arrays.deepEquals(new Object[]{o}, new Object[]{r.next()}));
+        assertFalse(r.hasNext());
+        r.close();
+    }
+
+    @Test public void flush() throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        ElsaChannelOutput out = new ElsaChannelOutput(Channels.newChannel(result));
+        p.serialize(out, "aaa");
+        assertEquals(0, result.size());
+        out.flush();
+        assertArrayEquals(expected(Arrays.asList("aaa")), result.toByteArray());
+        out.close();
+        try {
+            out.writeLong(1L);
+            fail();
+        } catch (IOException e) {
+            //expected
+        }
+    }
+}
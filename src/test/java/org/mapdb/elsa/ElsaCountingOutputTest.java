@@ -0,0 +1,80 @@
+package org.mapdb.elsa;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@SuppressWarnings({"rawtypes","unchecked"})
+public class ElsaCountingOutputTest {
+
+    ElsaSerializerPojo p = new ElsaSerializerPojo();
+
+    void check(Object o) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        p.serialize(new DataOutputStream(out), o);
+        assertEquals(out.size(), p.serializedSize(o));
+    }
+
+    @Test public void same_as_serialize() throws IOException {
+        check(null);
+        check("");
+        check("aaa");
+        check("qwertyuiopasdfghjkl");
+        check("\u0000\u007F\u0080㿿䀀ሴ￿ zzz");
+        check(new char[]{0, 'a', 0x7F, 0x80, 0x3FFF, 0x4000, Character.MAX_VALUE});
+        check(new short[]{Short.MIN_VALUE, -1, 0, 1, Short.MAX_VALUE});
+        check(new float[]{Float.MIN_VALUE, -1, 0, 1.1f, Float.NaN});
+        check(new double[]{Double.MIN_VALUE, -1, 0, 1.1, Double.MAX_VALUE});
+        check(new int[]{-1, 1, 100});
+        check(new int[]{-1000, 1, 100});
+        check(new int[]{0, 1, Integer.MAX_VALUE});
+        check(new int[]{Integer.MIN_VALUE, 1, Integer.MAX_VALUE});
+        check(new long[]{-1, 1, 100});
+        check(new long[]{0, 1, Long.MAX_VALUE});
+        check(new long[]{Integer.MIN_VALUE, 1, Integer.MAX_VALUE});
+        check(new long[]{Long.MIN_VALUE, 1, Long.MAX_VALUE});
+        check(new boolean[]{true, false, true});
+        check(new byte[]{1, 2, 3});
+        check(new BigDecimal("1212.3324"));
+        check(new BigInteger("-1212332412123324"));
+        check(new ArrayList(Arrays.asList(1, 2L, "aa", null, UUID.randomUUID(), new Date())));
+        check(new HashMap(Collections.singletonMap("key", new Object[]{1, "a", 1.1})));
+        check(new Serialization2Bean());
+        check(String.class);
+        //self references
+        ArrayList l = new ArrayList();
+        l.add(l);
+        l.add("a");
+        l.add("a");
+        check(l);
+    }
+
+    @Test public void packed_size() throws IOException {
+        for (long i = 0; i > 0 || i == 0; i = i * 2 + 1) {
+            ElsaDataOutput out = new ElsaDataOutput();
+            out.packLong(i);
+            assertEquals(out.pos, ElsaCountingOutput.packedLongSize(i));
+            if (i <= Integer.MAX_VALUE) {
+                out.reset();
+                out.packInt((int) i);
+                assertEquals(out.pos, ElsaCountingOutput.packedIntSize((int) i));
+            }
+        }
+    }
+
+    @Test public void utf() throws IOException {
+        String s = "cc\u0000Āሴ";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new DataOutputStream(out).writeUTF(s);
+        ElsaCountingOutput c = new ElsaCountingOutput();
+        c.writeUTF(s);
+        assertEquals(out.size(), c.size());
+        c.reset();
+        assertEquals(0, c.size());
+    }
+}
@@ -0,0 +1,112 @@
+package org.mapdb.elsa;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@SuppressWarnings({"rawtypes","unchecked"})
+public class ElsaDataInputTest {
+
+    ElsaSerializerPojo p = new ElsaSerializerPojo();
+
+    void check(Object o) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        p.serialize(new DataOutputStream(out), o);
+        byte[] b = out.toByteArray();
+
+        //put some garbage around data, to check offset
+        byte[] b2 = new byte[b.length + 20];
+        System.arraycopy(b, 0, b2, 10, b.length);
+        Object o2 = p.deserialize(b2, 10, b.length);
+        assertTrue(Arrays.deepEquals(new Object[]{o}, new Object[]{o2}));
+
+        //missing last byte
+        try {
+            p.deserialize(b, 0, b.length - 1);
+            fail();
+        } catch (EOFException e) {
+            //expected
+        }
+    }
+
+    @Test public void same_format() throws IOException {
+        check("aaa");
+        check("qwertyuiopasdfghjkl");
+        check("\u0000ሴ￿ zzz");
+        check(new char[]{0, 'a', 1000, Character.MAX_VALUE});
+        check(new short[]{Short.MIN_VALUE, -1, 0, 1, Short.MAX_VALUE});
+        check(new float[]{Float.MIN_VALUE, -1, 0, 1.1f, Float.NaN});
+        check(new double[]{Double.MIN_VALUE, -1, 0, 1.1, Double.MAX_VALUE});
+        check(new int[]{-1, 1, 100});
+        check(new int[]{-1000, 1, 100});
+        check(new int[]{0, 1, Integer.MAX_VALUE});
+        check(new int[]{Integer.MIN_VALUE, 1, Integer.MAX_VALUE});
+        check(new long[]{-1, 1, 100});
+        check(new long[]{-1000, 1, 100});
+        check(new long[]{0, 1, Long.MAX_VALUE});
+        check(new long[]{Integer.MIN_VALUE, 1, Integer.MAX_VALUE});
+        check(new long[]{Long.MIN_VALUE, 1, Long.MAX_VALUE});
+        check(new boolean[]{true, false, true});
+        check(new byte[]{1, 2, 3});
+        check(new BigDecimal("1212.3324"));
+        check(new ArrayList(Arrays.asList(1, 2L, "aa", null, UUID.randomUUID())));
+        check(new Serialization2Bean());
+    }
+
+    @Test public void unpack() throws IOException {
+        for (long i = 0; i > 0 || i == 0; i = i * 2 + 1) {
+            ElsaDataOutput out = new ElsaDataOutput();
+            out.packLong(i);
+            assertEquals(i, new ElsaDataInput(out.copyBytes()).unpackLong());
+            if (i <= Integer.MAX_VALUE)
+                assertEquals(i, new ElsaDataInput(out.copyBytes()).unpackInt());
+        }
+    }
+
+    @Test public void primitives() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream o = new DataOutputStream(out);
+        o.writeBoolean(true);
+        o.writeByte(-1);
+        o.writeShort(Short.MIN_VALUE);
+        o.writeChar('z');
+        o.writeInt(Integer.MIN_VALUE);
+        o.writeLong(Long.MAX_VALUE);
+        o.writeFloat(1.1f);
+        o.writeDouble(-1.1);
+        o.writeUTF("cc\u0000Āሴ");
+        o.writeShort(-1);
+
+        ElsaDataInput in = new ElsaDataInput(out.toByteArray());
+        assertEquals(true, in.readBoolean());
+        assertEquals(-1, in.readByte());
+        assertEquals(Short.MIN_VALUE, in.readShort());
+        assertEquals('z', in.readChar());
+        assertEquals(Integer.MIN_VALUE, in.readInt());
+        assertEquals(Long.MAX_VALUE, in.readLong());
+        assertEquals(1.1f, in.readFloat(), 0);
+        assertEquals(-1.1, in.readDouble(), 0);
+        assertEquals("cc\u0000Āሴ", in.readUTF());
+        assertEquals(0xFFFF, in.readUnsignedShort());
+        assertEquals(0, in.remaining());
+        assertEquals(-1, in.read());
+    }
+
+    @Test public void checkAvail_overflow() throws IOException {
+        ElsaDataInput in = new ElsaDataInput(new byte[16]);
+        //length of long[] in bytes, wraps around to small positive int
+        long n = ((1 << 29) + 1) * 8L;
+        assertEquals(8, (int) n);
+        try {
+            in.checkAvail(n);
+            fail();
+        } catch (EOFException e) {
+            //expected
+        }
+        in.checkAvail(16);
+    }
+}
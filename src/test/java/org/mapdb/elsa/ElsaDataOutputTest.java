@@ -0,0 +1,135 @@
+package org.mapdb.elsa;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@SuppressWarnings({"rawtypes","unchecked"})
+public class ElsaDataOutputTest {
+
+    ElsaSerializerPojo p = new ElsaSerializerPojo();
+
+    static byte[] serStream(ElsaSerializer ser, Object o) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ser.serialize(new DataOutputStream(out), o);
+        return out.toByteArray();
+    }
+
+    static byte[] serElsa(ElsaSerializer ser, Object o) throws IOException {
+        ElsaDataOutput out = new ElsaDataOutput(1);
+        ser.serialize(out, o);
+        return out.copyBytes();
+    }
+
+    void check(Object o) throws IOException {
+        byte[] b = serElsa(p, o);
+        assertArrayEquals(serStream(p, o), b);
+        Object o2 = p.deserialize(new DataInputStream(new ByteArrayInputStream(b)));
+        assertTrue(Arrays.deepEquals(new Object[]{o}, new Object[]{o2}));
+    }
+
+    @Test public void same_format() throws IOException {
+        check("");
+        check("aaa");
+        check("qwertyuiopasdfghjkl");
+        check("\u0000ሴ￿ zzz");
+        char[] c = new char[1000];
+        Arrays.fill(c, 'x');
+        check(new String(c));
+        check(new char[]{0, 'a', 1000, Character.MAX_VALUE});
+        check(new short[]{Short.MIN_VALUE, -1, 0, 1, Short.MAX_VALUE});
+        check(new float[]{Float.MIN_VALUE, -1, 0, 1.1f, Float.NaN});
+        check(new double[]{Double.MIN_VALUE, -1, 0, 1.1, Double.MAX_VALUE});
+        check(new int[]{-1, 1, 100});
+        check(new int[]{-1000, 1, 100});
+        check(new int[]{0, 1, Integer.MAX_VALUE});
+        check(new int[]{Integer.MIN_VALUE, 1, Integer.MAX_VALUE});
+        check(new long[]{-1, 1, 100});
+        check(new long[]{-1000, 1, 100});
+        check(new long[]{0, 1, Long.MAX_VALUE});
+        check(new long[]{Integer.MIN_VALUE, 1, Integer.MAX_VALUE});
+        check(new long[]{Long.MIN_VALUE, 1, Long.MAX_VALUE});
+        check(new boolean[]{true, false, true});
+        check(new ArrayList(Arrays.asList(1, 2L, "aa", null, UUID.randomUUID())));
+        check(new byte[]{1, 2, 3});
+        check(new Serialization2Bean());
+    }
+
+    @Test public void pack() throws IOException {
+        for (long i = 0; i > 0 || i == 0; i = i * 2 + 1) {
+            ElsaDataOutput out = new ElsaDataOutput();
+            out.packLong(i);
+            ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+            ElsaUtil.packLong((DataOutput) new DataOutputStream(out2), i);
+            assertArrayEquals(out2.toByteArray(), out.copyBytes());
+
+            if (i <= Integer.MAX_VALUE) {
+                out.reset();
+                out.packInt((int) i);
+                assertArrayEquals(out2.toByteArray(), out.copyBytes());
+            }
+        }
+    }
+
+    @Test public void primitives() throws IOException {
+        ElsaDataOutput out = new ElsaDataOutput(1);
+        ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+        for (DataOutput o : new DataOutput[]{out, new DataOutputStream(out2)}) {
+            o.writeBoolean(true);
+            o.writeByte(-1);
+            o.writeShort(Short.MIN_VALUE);
+            o.writeChar('z');
+            o.writeInt(Integer.MIN_VALUE);
+            o.writeLong(Long.MAX_VALUE);
+            o.writeFloat(1.1f);
+            o.writeDouble(-1.1);
+            o.writeBytes("aa");
+            o.writeChars("bbሴ");
+            o.writeUTF("cc\u0000Āሴ");
+        }
+        assertArrayEquals(out2.toByteArray(), out.copyBytes());
+    }
+
+    @Test public void ensureAvail_overflow() {
+        ElsaDataOutput out = new ElsaDataOutput(16);
+        out.writeInt(1);
+        try {
+            //size of long[] packed in worst case, does not fit into int
+            out.ensureAvail(Integer.MAX_VALUE * 10L);
+            fail();
+        } catch (OutOfMemoryError e) {
+            //expected
+        }
+        assertEquals(16, out.buf.length);
+        assertEquals(4, out.pos);
+    }
+
+    @Test public void pack_arrays_in_chunks() throws IOException {
+        long[] l = new long[3000];
+        int[] i = new int[3000];
+        char[] c = new char[3000];
+        for (int j = 0; j < l.length; j++) {
+            l[j] = j % 3 == 0 ? Long.MAX_VALUE : j;
+            i[j] = j % 3 == 0 ? Integer.MAX_VALUE : j;
+            c[j] = j % 3 == 0 ? Character.MAX_VALUE : (char) j;
+        }
+        ElsaDataOutput out = new ElsaDataOutput(1);
+        ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+        DataOutput o2 = new DataOutputStream(out2);
+        out.packLongs(l);
+        out.packInts(i);
+        out.packChars(c);
+        out.packChars(new String(c));
+        for (long v : l)
+            ElsaUtil.packLong(o2, v);
+        for (int v : i)
+            ElsaUtil.packInt(o2, v);
+        for (int k = 0; k < 2; k++)
+            for (char v : c)
+                ElsaUtil.packInt(o2, v);
+        assertArrayEquals(out2.toByteArray(), out.copyBytes());
+    }
+}
@@ -78,11 +78,21 @@ public class ElsaMakerTest {
     }
 
 
-    @Test public void objectStackIdentHash(){
+    @Test public void objectStackAdaptive(){
         ElsaSerializerPojo ser = new ElsaMaker().make();
         Object stack = Reflection.method("newElsaStack").withReturnType(ElsaStack.class).in(ser).invoke();
-        assertTrue(stack instanceof ElsaStack.MapStack);
-        assertTrue(((ElsaStack.MapStack)stack).data instanceof IdentityHashMap);
+        assertTrue(stack instanceof ElsaStack.AdaptiveStack);
+
+        ser = new ElsaMaker().referenceAdaptiveEnable(0).make();
+        ElsaStack.AdaptiveStack stack2 = (ElsaStack.AdaptiveStack) Reflection.method("newElsaStack").withReturnType(ElsaStack.class).in(ser).invoke();
+        stack2.add("a");
+        assertTrue(stack2.isHashed());
+    }
+
+    @Test public void objectStackIdentHash(){
+        ElsaSerializerPojo ser = new ElsaMaker().referenceIdentityHashEnable().make();
+        Object stack = Reflection.method("newElsaStack").withReturnType(ElsaStack.class).in(ser).invoke();
+        assertTrue(stack instanceof ElsaStack.IdentityHashStack);
     }
 
 
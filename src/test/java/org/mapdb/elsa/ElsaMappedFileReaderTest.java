@@ -0,0 +1,106 @@
+package org.mapdb.elsa;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@SuppressWarnings({"rawtypes","unchecked"})
+public class ElsaMappedFileReaderTest {
+
+    ElsaSerializerPojo p = new ElsaSerializerPojo();
+
+    List records() {
+        List l = new ArrayList();
+        for (int i = 0; i < 1000; i++) {
+            l.add(i);
+            l.add("record" + i);
+            l.add(new long[]{i, Long.MAX_VALUE - i, -i});
+            if (i % 10 == 0) {
+                //primitive arrays, packed numbers and strings read directly from segment
+                l.add(new int[]{i, Integer.MAX_VALUE - i, -i});
+                l.add(new short[]{(short) i, -1});
+                l.add(new float[]{i, 0.5F});
+                l.add(new double[]{i, -1.5D * i});
+                l.add(Long.MAX_VALUE - i);
+                l.add("\u00e9t\u00e9" + i);
+                l.add("\u0444" + i);
+            }
+            l.add(new Serialization2Bean());
+            l.add(new ArrayList(Arrays.asList(i, 1.1D * i, UUID.randomUUID(), null)));
+        }
+        return l;
+    }
+
+    File write(List records) throws IOException {
+        File f = File.createTempFile("elsa", "records");
+        f.deleteOnExit();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        for (Object o : records)
+            p.serialize(out, o);
+        out.close();
+        return f;
+    }
+
+    void check(int segmentShift) throws IOException {
+        List records = records();
+        File f = write(records);
+        ElsaMappedFileReader r = new ElsaMappedFileReader(f, p, segmentShift);
+        assertEquals(f.length(), r.size());
+        List read = new ArrayList();
+        while (r.hasNext())
+            read.add(r.next());
+        r.close();
+
+        assertEquals(records.size(), read.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertTrue(Arrays.deepEquals(new Object[]{records.get(i)}, new Object[]{read.get(i)}));
+        }
+    }
+
+    @Test public void single_segment() throws IOException {
+        check(ElsaMappedFileReader.DEFAULT_SEGMENT_SHIFT);
+    }
+
+    @Test public void records_cross_segments() throws IOException {
+        //tiny segments, most records will cross segment boundary
+        check(3);
+        check(4);
+        check(12);
+    }
+
+    @Test public void empty() throws IOException {
+        File f = write(new ArrayList());
+        ElsaMappedFileReader r = new ElsaMappedFileReader(f, p);
+        assertFalse(r.hasNext());
+        try {
+            r.next();
+            fail();
+        } catch (EOFException e) {
+            //expected
+        }
+        r.close();
+    }
+
+    @Test public void truncated() throws IOException {
+        File f = write(Arrays.asList(1L, "some string"));
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+
+        ElsaMappedFileReader r = new ElsaMappedFileReader(f, p, 3);
+        assertEquals(1L, r.next());
+        long pos = r.position();
+        try {
+            r.next();
+            fail();
+        } catch (EOFException e) {
+            //expected
+        }
+        r.position(pos);
+        assertEquals(pos, r.position());
+        r.close();
+    }
+}
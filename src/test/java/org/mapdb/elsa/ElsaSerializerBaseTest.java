@@ -253,6 +253,38 @@ public class ElsaSerializerBaseTest {
         }
     }
 
+    static final class CountingComparator implements Comparator<Integer>, Serializable {
+        static int count = 0;
+
+        @Override public int compare(Integer o1, Integer o2) {
+            count++;
+            return o2.compareTo(o1);
+        }
+    }
+
+    @Test public void tree_built_without_comparator_calls() throws IOException {
+        TreeMap m = new TreeMap(new CountingComparator());
+        TreeSet s = new TreeSet(new CountingComparator());
+        for (int i = 0; i < 10000; i++) {
+            m.put(i, "a" + i);
+            s.add(i);
+        }
+        CountingComparator.count = 0;
+        TreeMap m2 = clone(m);
+        TreeSet s2 = clone(s);
+        assertEquals(0, CountingComparator.count);
+
+        assertTrue(m2.comparator() instanceof CountingComparator);
+        assertTrue(s2.comparator() instanceof CountingComparator);
+        assertEquals(m, m2);
+        assertEquals(s, s2);
+        assertEquals(new ArrayList(m.keySet()), new ArrayList(m2.keySet()));
+        assertEquals(new ArrayList(s), new ArrayList(s2));
+        assertEquals("a100", m2.get(100));
+        m2.put(-1, "b");
+        assertEquals(-1, m2.lastKey());
+    }
+
     @Test public void testLinkedHashMap() throws ClassNotFoundException, IOException {
         Map c = new LinkedHashMap();
         for (int i = 0; i < 2000; i++) {
@@ -449,6 +481,79 @@ public class ElsaSerializerBaseTest {
         assertEquals(s,clone((s)));
     }
 
+    @Test public void string_encodings() throws IOException {
+        ElsaSerializerPojo ser = new ElsaSerializerPojo();
+        String[] strings = {
+                "abcdefghijklmnopqrstuvwxyz",
+                "\u00e9\u00e8\u00ff latin one string",
+                "\u0000 zero char string",
+                "\u0800\u07ff\u0080\u007f\u0001 boundaries \uffff",
+                "\ud83d\ude00 surrogates \ud83d\ude00",
+                "\u4eba\u53e3, \u65e5\u672c\u3001\u4eba\u53e3, \u65e5\u672c"};
+        int[] headers = {
+                ElsaSerializerBase.Header.STRING_LATIN1,
+                ElsaSerializerBase.Header.STRING_LATIN1,
+                ElsaSerializerBase.Header.STRING_LATIN1,
+                ElsaSerializerBase.Header.STRING_UTF8,
+                ElsaSerializerBase.Header.STRING_UTF8,
+                ElsaSerializerBase.Header.STRING_UTF8};
+        for(int i=0;i<strings.length;i++){
+            String s = strings[i];
+            ElsaDataOutput out = new ElsaDataOutput();
+            ser.serialize(out, s);
+            assertEquals(headers[i], out.buf[0]&0xFF);
+            assertEquals(out.pos, ser.serializedSize(s));
+
+            ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+            ser.serialize(new DataOutputStream(out2), s);
+            assertArrayEquals(out.copyBytes(), out2.toByteArray());
+
+            assertEquals(s, ser.deserialize(new ElsaDataInput(out.copyBytes())));
+            assertEquals(s, ser.deserialize(new DataInputStream(new ByteArrayInputStream(out.copyBytes()))));
+        }
+    }
+
+    @Test public void string_old_header_readable() throws IOException {
+        String s = "\u4eba\u53e3 old format with packed chars";
+        ElsaDataOutput out = new ElsaDataOutput();
+        out.write(ElsaSerializerBase.Header.STRING);
+        out.packInt(s.length());
+        out.packChars(s);
+        assertEquals(s, new ElsaSerializerBase().deserialize(new ElsaDataInput(out.copyBytes())));
+        assertEquals(s, new ElsaSerializerBase().deserialize(new DataInputStream(new ByteArrayInputStream(out.copyBytes()))));
+    }
+
+    @Test public void hash_capacity_no_rehash(){
+        for(int size=0;size<100000;size++){
+            int cap = ElsaSerializerBase.hashCapacity(size);
+            //same table size rounding as HashMap
+            int table = cap<=1 ? 1 : Integer.highestOneBit(cap-1)<<1;
+            assertTrue(size<=(int)(table*0.75f));
+        }
+    }
+
+    static ArrayList hashCollections(int... sizes) {
+        ArrayList l = new ArrayList();
+        for(int size: sizes){
+            HashMap m = new HashMap();
+            LinkedHashSet set = new LinkedHashSet();
+            for(int i=0;i<size;i++){
+                m.put(i, (long)i);
+                set.add(i);
+            }
+            l.add(m);
+            l.add(new LinkedHashMap(m));
+            l.add(new HashSet(set));
+            l.add(set);
+        }
+        return l;
+    }
+
+    @Test public void presized_hash_collections() throws IOException {
+        ArrayList l = hashCollections(0, 1, 1000);
+        assertEquals(l, new ElsaSerializerPojo().clone(l));
+    }
+
     @Test public void testBooleanArray2() throws IOException {
         for(int i=0;i<1000;i++){
             boolean[] b = new boolean[i];
@@ -509,7 +614,15 @@ public class ElsaSerializerBaseTest {
 
             if(value!= ElsaSerializerBase.Header.POJO_RESOLVER
                     && value!= ElsaSerializerBase.Header.POJO
-                    && value!= ElsaSerializerBase.Header.POJO_CLASSINFO)
+                    && value!= ElsaSerializerBase.Header.POJO_CLASSINFO
+                    && value!= ElsaSerializerBase.Header.POJO_PRIMITIVE
+                    && value!= ElsaSerializerBase.Header.POJO_RESOLVER_PRIMITIVE
+                    && value!= ElsaSerializerBase.Header.POJO_COMPACT
+                    && value!= ElsaSerializerBase.Header.POJO_RESOLVER_COMPACT
+                    && value!= ElsaSerializerBase.Header.POJO_BITMAP
+                    && value!= ElsaSerializerBase.Header.POJO_RESOLVER_BITMAP
+                    && value!= ElsaSerializerBase.Header.POJO_TYPED
+                    && value!= ElsaSerializerBase.Header.POJO_RESOLVER_TYPED)
                 assertNotNull("deser does not contain value: "+value + " - "+f.getName(), b.headerDeser[value]);
 
         }
@@ -579,4 +692,55 @@ public class ElsaSerializerBaseTest {
         ElsaSerializerPojo s = new ElsaMaker().singletons(singleton).make();
         assertTrue(singleton == clonePojo(singleton, s));
     }
-}
\ No newline at end of file
+
+    /** values which are decoded by switch in {@link ElsaSerializerBase#deserialize(DataInput, int, ElsaStack)} */
+    static List dispatchValues(){
+        List ret = new ArrayList();
+        ret.add(null);
+        ret.add(true);
+        ret.add(false);
+        for(long i=-20;i<20;i++){
+            ret.add((int) i);
+            ret.add(i);
+        }
+        for(int shift=0;shift<63;shift++){
+            long l = 1L<<shift;
+            ret.add(l);
+            ret.add(-l);
+            ret.add(l+1);
+            ret.add((int)l);
+            ret.add(-(int)l);
+        }
+        ret.add(Integer.MIN_VALUE);
+        ret.add(Integer.MAX_VALUE);
+        ret.add(Long.MIN_VALUE);
+        ret.add(Long.MAX_VALUE);
+        String s = "";
+        for(int i=0;i<20;i++){
+            ret.add(s);
+            s += (char)('a'+i);
+        }
+        ret.add("\u1234\u0000");
+        return ret;
+    }
+
+    /** decodes value using only headerDeser table */
+    static Object deserializeTable(ElsaSerializerBase ser, DataInput in, ElsaStack stack) throws IOException {
+        return ser.headerDeser[in.readUnsignedByte()].deserialize(in, stack);
+    }
+
+    @Test public void switch_dispatch_same_as_table() throws IOException {
+        ElsaSerializerBase ser = new ElsaSerializerBase();
+        for(Object o: dispatchValues()){
+            ElsaDataOutput out = new ElsaDataOutput();
+            ser.serialize(out, o);
+            byte[] b = out.copyBytes();
+            Object o2 = ser.deserialize(new ElsaDataInput(b));
+            Object o3 = deserializeTable(ser, new ElsaDataInput(b), new ElsaStack.ReadStack());
+            assertEquals(o, o2);
+            assertEquals(o3, o2);
+            if(o!=null)
+                assertEquals(o3.getClass(), o2.getClass());
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package org.mapdb.elsa;
+
+import org.junit.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ElsaStackTest {
+
+    void check(ElsaStack s) {
+        int size = 10000;
+        Object[] objs = new Object[size];
+        for (int i = 0; i < size; i++) {
+            //include equal but not identical objects
+            objs[i] = i % 2 == 0 ? new Object() : new String("aa");
+            assertEquals(-1, s.identityIndexOf(objs[i]));
+            s.add(objs[i]);
+            assertEquals(i + 1, s.getSize());
+        }
+        for (int i = 0; i < size; i++) {
+            assertEquals(i, s.identityIndexOf(objs[i]));
+            assertSame(objs[i], s.getInstance(i));
+        }
+        assertEquals(-1, s.identityIndexOf(new String("aa")));
+        assertEquals(-1, s.identityIndexOf(null));
+
+        s.add(null);
+        assertEquals(size, s.identityIndexOf(null));
+        assertNull(s.getInstance(size));
+    }
+
+    @Test public void identityHashStack() {
+        check(new ElsaStack.IdentityHashStack());
+        check(new ElsaStack.IdentityHashStack(1));
+    }
+
+    @Test public void adaptiveStack() {
+        for (int threshold : new int[]{0, 1, 5, 16, 100, 100000}) {
+            ElsaStack.AdaptiveStack s = new ElsaStack.AdaptiveStack(threshold);
+            check(s);
+            assertEquals(threshold < 10000, s.isHashed());
+        }
+    }
+
+    @Test public void adaptiveStackUpgrade() {
+        ElsaStack.AdaptiveStack s = new ElsaStack.AdaptiveStack(3);
+        Object[] objs = new Object[]{new Object(), new Object(), new Object(), new Object()};
+        for (int i = 0; i < 3; i++)
+            s.add(objs[i]);
+        assertFalse(s.isHashed());
+        assertEquals(-1, s.identityIndexOf(objs[3]));
+        s.add(objs[3]);
+        assertTrue(s.isHashed());
+        for (int i = 0; i < objs.length; i++)
+            assertEquals(i, s.identityIndexOf(objs[i]));
+    }
+
+    @Test public void identityMapStack() {
+        check(new ElsaStack.MapStack(new IdentityHashMap()));
+    }
+
+    @Test public void reset() {
+        ElsaStack[] stacks = new ElsaStack[]{
+                new ElsaStack.IdentityArray(),
+                new ElsaStack.IdentityHashStack(),
+                new ElsaStack.AdaptiveStack(),
+                new ElsaStack.AdaptiveStack(3),
+                new ElsaStack.MapStack(new IdentityHashMap())};
+        for (ElsaStack s : stacks) {
+            for (int i = 0; i < 3; i++) {
+                check(s);
+                s.stackPush("a");
+                s.reset();
+                assertEquals(0, s.getSize());
+                assertTrue(s.stackEmpty());
+                assertEquals(-1, s.identityIndexOf(null));
+            }
+        }
+    }
+
+    @Test public void resetAfterLargeGraph() {
+        ElsaStack[] stacks = new ElsaStack[]{
+                new ElsaStack.IdentityHashStack(),
+                new ElsaStack.AdaptiveStack(),
+                new ElsaStack.AdaptiveStack(0)};
+        Object[] large = new Object[10000];
+        for (int i = 0; i < large.length; i++)
+            large[i] = i % 7 == 0 ? null : i % 5 == 0 ? large[i / 2] : new Object();
+        for (ElsaStack s : stacks) {
+            for (Object o : large)
+                s.add(o);
+            s.reset();
+            //only slots used by objects are cleared, table must not contain any of them
+            for (Object o : large)
+                assertEquals(-1, s.identityIndexOf(o));
+            for (int round = 0; round < 3; round++) {
+                s.add("small");
+                assertEquals(0, s.identityIndexOf("small"));
+                for (Object o : large)
+                    assertEquals(-1, s.identityIndexOf(o));
+                s.reset();
+            }
+        }
+    }
+
+    @Test public void readStack() {
+        ElsaStack.ReadStack s = new ElsaStack.ReadStack();
+        for (int i = 0; i < 1000; i++) {
+            s.add(i);
+            assertEquals(i + 1, s.getSize());
+        }
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i, s.getInstance(i));
+        Object o = new Object();
+        assertEquals(-1, s.identityIndexOf(o));
+        s.add(o);
+        assertEquals(1000, s.identityIndexOf(o));
+        s.reset();
+        assertEquals(-1, s.identityIndexOf(o));
+        assertEquals(0, s.getSize());
+    }
+
+    @Test public void readStackUsedForAllModes() throws Exception {
+        ElsaSerializerPojo[] sers = new ElsaSerializerPojo[]{
+                new ElsaSerializerPojo(),
+                new ElsaMaker().make(),
+                new ElsaMaker().referenceArrayEnable().make(),
+                new ElsaMaker().referenceHashMapEnable().make(),
+                new ElsaMaker().referenceDisable().make()};
+        for (ElsaSerializerPojo ser : sers) {
+            assertTrue(ser.newElsaReadStack() instanceof ElsaStack.ReadStack);
+            ArrayList l = new ArrayList(Arrays.asList("a", new Serialization2Bean(), 1L));
+            l.add(l.get(1));
+            ArrayList l2 = ser.clone(l);
+            assertEquals(l, l2);
+        }
+    }
+
+    static ArrayList graph(int size) {
+        ArrayList graph = new ArrayList();
+        for (int i = 0; i < size; i++)
+            graph.add(new ArrayList(Arrays.asList(i, "a" + i)));
+        return graph;
+    }
+
+    @Test public void readStackSameAsMapStack() throws Exception {
+        ArrayList graph = graph(1000);
+        ElsaSerializerPojo ser = new ElsaSerializerPojo();
+        ElsaDataOutput out = new ElsaDataOutput();
+        ser.serialize(out, graph);
+        byte[] b = out.copyBytes();
+        assertEquals(graph, ser.deserialize(new ElsaDataInput(b), new ElsaStack.MapStack(new IdentityHashMap())));
+        assertEquals(graph, ser.deserialize(new ElsaDataInput(b)));
+    }
+
+    @Test public void classCatalog() {
+        ElsaStack s = new ElsaStack.AdaptiveStack();
+        for (int round = 0; round < 2; round++) {
+            //many distinct classes, use array classes with different dimensions
+            Class[] classes = new Class[200];
+            for (int i = 0; i < classes.length; i++) {
+                classes[i] = java.lang.reflect.Array.newInstance(int.class, new int[i + 1]).getClass();
+                assertEquals(-1, s.resolveClassId(classes[i]));
+                ElsaSerializerPojo.ClassInfo ci = new ElsaSerializerPojo.ClassInfo(classes[i].getName(),
+                        new ElsaSerializerPojo.FieldInfo[0], false, false, false);
+                assertEquals(i, s.addClassInfo(classes[i], ci));
+            }
+            for (int i = 0; i < classes.length; i++) {
+                assertEquals(i, s.resolveClassId(classes[i]));
+                assertEquals(i, s.resolveClassId(classes[i].getName()));
+                assertEquals(classes[i].getName(), s.resolveClassInfo(i).name);
+            }
+            assertEquals(-1, s.resolveClassId(String.class));
+            s.reset();
+            assertEquals(-1, s.resolveClassId(classes[0]));
+        }
+        //small stream after large one
+        for (int round = 0; round < 2; round++) {
+            assertEquals(0, s.addClassInfo(String.class, new ElsaSerializerPojo.ClassInfo(String.class.getName(),
+                    new ElsaSerializerPojo.FieldInfo[0], false, false, false)));
+            assertEquals(0, s.resolveClassId(String.class));
+            s.reset();
+            assertEquals(-1, s.resolveClassId(String.class));
+        }
+    }
+
+    @Test public void threadLocalStack() throws Exception {
+        ElsaSerializerPojo ser = new ElsaMaker().threadLocalStackEnable().make();
+        ArrayList l = new ArrayList();
+        l.add(l);
+        l.add(new Serialization2Bean());
+        for (int i = 0; i < 100; i++)
+            l.add("a" + i);
+
+        ArrayList l2 = ser.clone(l);
+        assertSame(l2, l2.get(0));
+        ElsaStack stack = ser.stackCache.get();
+        assertNotNull(stack);
+        assertEquals(0, stack.getSize());
+
+        for (int i = 0; i < 10; i++) {
+            l2 = ser.clone(l);
+            assertSame(l2, l2.get(0));
+            assertEquals(l.subList(1, l.size()), l2.subList(1, l2.size()));
+            //the same stack instance is reused
+            assertSame(stack, ser.stackCache.get());
+        }
+
+        //stack is not shared when serialization is reentrant
+        final ElsaSerializerPojo[] ser2 = new ElsaSerializerPojo[1];
+        ElsaSerializerBase.Serializer<Serialization2Bean> nested = new ElsaSerializerBase.Serializer<Serialization2Bean>() {
+            @Override
+            public void serialize(DataOutput out, Serialization2Bean value, ElsaStack objectStack) throws IOException {
+                ElsaDataOutput out2 = new ElsaDataOutput();
+                ser2[0].serialize(out2, new ArrayList(Arrays.asList("nested", "nested")));
+                out.write(out2.copyBytes());
+            }
+        };
+        ElsaSerializerBase.Deserializer<Object> nestedDeser = new ElsaSerializerBase.Deserializer<Object>() {
+            @Override
+            public Object deserialize(DataInput in, ElsaStack objectStack) throws IOException {
+                return ser2[0].deserialize(in);
+            }
+        };
+        ser2[0] = new ElsaMaker().threadLocalStackEnable()
+                .registerSerializer(1, Serialization2Bean.class, nested)
+                .registerDeserializer(1, nestedDeser)
+                .make();
+        l2 = ser2[0].clone(l);
+        assertSame(l2, l2.get(0));
+        assertEquals(Arrays.asList("nested", "nested"), l2.get(1));
+        assertEquals(l.subList(2, l.size()), l2.subList(2, l2.size()));
+    }
+
+    @Test public void callerSuppliedStack() throws Exception {
+        ElsaSerializerPojo ser = new ElsaSerializerPojo();
+        ElsaStack stack = new ElsaStack.AdaptiveStack();
+        ArrayList l = new ArrayList(Arrays.asList("a", "a", new Serialization2Bean()));
+        l.add(l);
+        ElsaDataOutput expected = new ElsaDataOutput();
+        ser.serialize(expected, l);
+        for (int i = 0; i < 3; i++) {
+            ElsaDataOutput out = new ElsaDataOutput();
+            ser.serialize(out, l, stack);
+            assertEquals(0, stack.getSize());
+            assertArrayEquals(expected.copyBytes(), out.copyBytes());
+
+            stack.reset();
+            ArrayList l2 = (ArrayList) ser.deserialize(new ElsaDataInput(out.copyBytes()), stack);
+            assertSame(l2, l2.get(3));
+            stack.reset();
+        }
+    }
+
+    static ElsaSerializerPojo mapStackSerializer() {
+        return new ElsaSerializerPojo() {
+            @Override
+            protected ElsaStack newElsaStack() {
+                return new ElsaStack.MapStack(new IdentityHashMap());
+            }
+        };
+    }
+
+    @Test public void stacksProduceSameData() throws Exception {
+        ArrayList graph = graph(1000);
+        ElsaSerializerPojo mapStack = mapStackSerializer();
+        ElsaSerializerPojo hashStack = new ElsaSerializerPojo();
+        assertTrue(hashStack.newElsaStack() instanceof ElsaStack.IdentityHashStack);
+        ElsaSerializerPojo adaptiveStack = new ElsaMaker().make();
+        assertTrue(adaptiveStack.newElsaStack() instanceof ElsaStack.AdaptiveStack);
+
+        ElsaDataOutput out1 = new ElsaDataOutput();
+        mapStack.serialize(out1, graph);
+        ElsaDataOutput out2 = new ElsaDataOutput();
+        hashStack.serialize(out2, graph);
+        assertArrayEquals(out1.copyBytes(), out2.copyBytes());
+        ElsaDataOutput out3 = new ElsaDataOutput();
+        adaptiveStack.serialize(out3, graph);
+        assertArrayEquals(out1.copyBytes(), out3.copyBytes());
+    }
+}
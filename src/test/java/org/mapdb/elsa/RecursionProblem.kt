@@ -38,10 +38,31 @@ class RecursionProblem{
 
         val in0 = ByteArrayInputStream(out0.toByteArray())
         val in1 = DataInputStream(in0)
-        assertFailsWith<StackOverflowError> {
-            val elem2 = ser.deserialize(in1)
-            assertEquals(elem, elem2)
+        val elem2 = ser.deserialize(in1)
+        assertEquals(elem, elem2)
+    }
+
+    @Test
+    fun elsa_nested_collections(){
+        val ser = ElsaSerializerPojo()
+        var list = ArrayList<Any?>()
+        val root = list
+        for(i in 0 until depth){
+            val list2 = ArrayList<Any?>()
+            list.add(i)
+            list.add(list2)
+            list = list2
+        }
+        val out0 = ByteArrayOutputStream()
+        ser.serialize(DataOutputStream(out0), root)
+
+        var list3 = ser.deserialize(DataInputStream(ByteArrayInputStream(out0.toByteArray()))) as List<*>
+        for(i in 0 until depth){
+            assertEquals(2, list3.size)
+            assertEquals(i, list3[0])
+            list3 = list3[1] as List<*>
         }
+        assertEquals(0, list3.size)
     }
 
 }
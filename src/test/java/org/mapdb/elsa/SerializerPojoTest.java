@@ -4,10 +4,14 @@ package org.mapdb.elsa;
 import org.junit.Test;
 
 import java.io.*;
+import java.lang.reflect.Field;
 import java.util.*;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @SuppressWarnings({ "unchecked", "rawtypes" })
 public class SerializerPojoTest{
@@ -421,11 +425,9 @@ public class SerializerPojoTest{
         assertEquals(0, ElsaUtil.unpackInt(in));
         assertEquals(p.makeClassInfo(IntBean.class, null), p.classInfoDeserialize(in));
 
-        assertEquals(ElsaSerializerBase.Header.POJO, in.readUnsignedByte());
+        assertEquals(ElsaSerializerBase.Header.POJO_COMPACT, in.readUnsignedByte());
         assertEquals(0, ElsaUtil.unpackInt(in)); //class id
-        assertEquals(1, ElsaUtil.unpackInt(in)); //number of fields
-        assertEquals(0, ElsaUtil.unpackInt(in)); //field id
-        assertEquals(ElsaSerializerBase.Header.INT_5, in.readUnsignedByte()); //field value
+        assertEquals(10, ElsaUtil.unpackInt(in)); //field value, zigzag encoded
 
         assertEquals(-1, ((InputStream)in).read());
     }
@@ -443,4 +445,441 @@ public class SerializerPojoTest{
         assertEquals(c, c2);
     }
 
+    @Test public void writePlanCached() throws IOException {
+        ElsaSerializerPojo ser = new ElsaSerializerPojo();
+        ElsaSerializerPojo.ClassInfo ci = ElsaSerializerPojo.makeClassInfo(Bean2.class, null);
+        ElsaSerializerPojo.WritePlan plan = ser.writePlan(Bean2.class, ci);
+        assertTrue(plan == ser.writePlan(Bean2.class, ci));
+        assertEquals(ci.fields.length, plan.fields.length);
+        for (int i = 0; i < plan.fields.length; i++)
+            assertTrue(plan.fields[i] == ci.fields[plan.fieldIds[i]]);
+
+        assertEquals(b2, ElsaSerializerBaseTest.clonePojo(b2, ser));
+        assertTrue(plan == ser.writePlans.get(Bean2.class));
+    }
+
+    @Test public void classInfoReadCached() throws IOException {
+        ElsaSerializerPojo.ClassInfo c = p.makeClassInfo(IntBean.class, null);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        p.classInfoSerialize(new DataOutputStream(bout), c);
+
+        ElsaSerializerPojo ser = new ElsaSerializerPojo();
+        ElsaSerializerPojo.ClassInfo c2 = ser.classInfoDeserialize(new DataInputStream(new ByteArrayInputStream(bout.toByteArray())));
+        ElsaSerializerPojo.ClassInfo c3 = ser.classInfoDeserialize(new DataInputStream(new ByteArrayInputStream(bout.toByteArray())));
+        assertEquals(c, c2);
+        assertTrue(c2 == c3);
+
+        //different layout of the same class is not taken from cache
+        ElsaSerializerPojo.ClassInfo c4 = new ElsaSerializerPojo.ClassInfo(c.name, new ElsaSerializerPojo.FieldInfo[0], false, false, false);
+        bout = new ByteArrayOutputStream();
+        p.classInfoSerialize(new DataOutputStream(bout), c4);
+        ElsaSerializerPojo.ClassInfo c5 = ser.classInfoDeserialize(new DataInputStream(new ByteArrayInputStream(bout.toByteArray())));
+        assertEquals(0, c5.fields.length);
+    }
+
+    static class PrimitiveBean implements Serializable {
+        boolean bo;
+        byte b;
+        char c;
+        short s;
+        int i;
+        long l;
+        float f;
+        double d;
+        String str;
+        Integer boxed;
+        int[] arr;
+    }
+
+    @Test public void primitiveFields() throws IOException {
+        ElsaSerializerPojo ser = new ElsaSerializerPojo();
+        long[] longs = {0, 1, -1, 63, -64, 64, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long v : longs) {
+            PrimitiveBean b = new PrimitiveBean();
+            b.bo = v % 2 == 0;
+            b.b = (byte) v;
+            b.c = (char) v;
+            b.s = (short) v;
+            b.i = (int) v;
+            b.l = v;
+            b.f = v / 3F;
+            b.d = v / 3D;
+            b.str = "aa" + v;
+            b.boxed = (int) v;
+            b.arr = new int[]{(int) v};
+
+            ElsaDataOutput out = new ElsaDataOutput();
+            ser.serialize(out, b);
+            assertEquals(out.pos, ser.serializedSize(b));
+            PrimitiveBean b2 = (PrimitiveBean) ser.deserialize(new ElsaDataInput(out.copyBytes()));
+            PrimitiveBean b3 = ElsaSerializerBaseTest.clonePojo(b, ser);
+            for (PrimitiveBean c : new PrimitiveBean[]{b2, b3}) {
+                assertEquals(b.bo, c.bo);
+                assertEquals(b.b, c.b);
+                assertEquals(b.c, c.c);
+                assertEquals(b.s, c.s);
+                assertEquals(b.i, c.i);
+                assertEquals(b.l, c.l);
+                assertEquals(b.f, c.f, 0);
+                assertEquals(b.d, c.d, 0);
+                assertEquals(b.str, c.str);
+                assertEquals(b.boxed, c.boxed);
+                assertEquals(b.arr[0], c.arr[0]);
+            }
+        }
+    }
+
+    @Test public void primitiveFieldsOldHeaderReadable() throws IOException {
+        //IntBean(5) written with POJO header and boxed field value
+        ElsaDataOutput out = new ElsaDataOutput();
+        out.write(ElsaSerializerBase.Header.POJO_CLASSINFO);
+        out.packInt(0);
+        p.classInfoSerialize(out, p.makeClassInfo(IntBean.class, null));
+        out.write(ElsaSerializerBase.Header.POJO);
+        out.packInt(0);
+        out.packInt(1);
+        out.packInt(0);
+        out.write(ElsaSerializerBase.Header.INT_5);
+        assertEquals(new IntBean(5), p.deserialize(new ElsaDataInput(out.copyBytes())));
+    }
+
+    /** serializer which writes {@link Order} as enum ordinal, without references */
+    static ElsaSerializerPojo enumOrdinalSerializer() {
+        ElsaSerializerPojo.ClassInfo order = new ElsaSerializerPojo.ClassInfo(
+                Order.class.getName(), new ElsaSerializerPojo.FieldInfo[0], true, false, false);
+        return new ElsaSerializerPojo(null, 1, null, null, null, null, null,
+                new ElsaClassInfoResolver.ArrayBased(new ElsaSerializerPojo.ClassInfo[]{order}));
+    }
+
+    @Test public void instantiatorCached() throws IOException {
+        ElsaSerializerPojo ser = enumOrdinalSerializer();
+        List<Object> l = new ArrayList<Object>();
+        l.add(Order.DESCENDING);
+        l.add(Order.ASCENDING);
+        l.add(new IntBean(1));
+        assertEquals(l, ser.clone(l));
+
+        ElsaSerializerPojo.Instantiator enumInst = ser.getClassInfo(0).instantiator;
+        assertTrue(Order.class == enumInst.clazz);
+        assertTrue(Order.DESCENDING == enumInst.enumConstants[1]);
+        ElsaSerializerPojo.Instantiator beanInst = ser.classInfoReadCache.get(IntBean.class.getName()).instantiator;
+        assertNotNull(beanInst.constructor);
+
+        //the same instantiator is used for next objects
+        assertEquals(l, ser.clone(l));
+        assertTrue(enumInst == ser.getClassInfo(0).instantiator);
+        assertTrue(beanInst == ser.classInfoReadCache.get(IntBean.class.getName()).instantiator);
+    }
+
+    @Test public void compactLayout() throws IOException {
+        ElsaSerializerPojo.ClassInfo c = ElsaSerializerPojo.makeClassInfo(PrimitiveBean.class, null);
+        PrimitiveBean b = new PrimitiveBean();
+        b.i = 11;
+        b.str = "aa";
+
+        ElsaSerializerPojo ser = new ElsaMaker().registerClasses(PrimitiveBean.class).make();
+        ElsaDataOutput out = new ElsaDataOutput();
+        ser.serialize(out, b);
+        byte[] compact = out.copyBytes();
+        assertEquals(ElsaSerializerBase.Header.POJO_RESOLVER_COMPACT, compact[0] & 0xFF);
+        PrimitiveBean b2 = (PrimitiveBean) ser.deserialize(new ElsaDataInput(compact));
+        assertEquals(11, b2.i);
+        assertEquals("aa", b2.str);
+
+        //class info with different field order needs field IDs
+        ElsaSerializerPojo.FieldInfo[] fields = c.fields.clone();
+        Collections.reverse(Arrays.asList(fields));
+        ElsaSerializerPojo.ClassInfo evolved = new ElsaSerializerPojo.ClassInfo(c.name, fields, false, false, false);
+        ElsaSerializerPojo ser2 = new ElsaSerializerPojo(null, 0, null, null, null, null, null,
+                new ElsaClassInfoResolver.ArrayBased(new ElsaSerializerPojo.ClassInfo[]{evolved}));
+        out = new ElsaDataOutput();
+        ser2.serialize(out, b);
+        byte[] withIds = out.copyBytes();
+        assertEquals(ElsaSerializerBase.Header.POJO_RESOLVER_PRIMITIVE, withIds[0] & 0xFF);
+        assertEquals(compact.length + 1 + fields.length, withIds.length);
+        b2 = (PrimitiveBean) ser2.deserialize(new ElsaDataInput(withIds));
+        assertEquals(11, b2.i);
+        assertEquals("aa", b2.str);
+    }
+
+    static class SparseBean implements Serializable {
+        int i1, i2, i3, i4, i5, i6, i7, i8, i9;
+        long l;
+        double d;
+        boolean b;
+        String s1, s2, s3, s4, s5;
+        Object o;
+    }
+
+    @Test public void presenceBitmap() throws IOException {
+        SparseBean b = new SparseBean();
+        b.i9 = -3;
+        b.d = -0D;
+        b.s5 = "aa";
+
+        ElsaSerializerPojo compact = new ElsaSerializerPojo();
+        ElsaSerializerPojo ser = new ElsaMaker().presenceBitmapEnable().make();
+        ElsaDataOutput out = new ElsaDataOutput();
+        compact.serialize(out, b);
+        byte[] compactBytes = out.copyBytes();
+
+        out = new ElsaDataOutput();
+        ser.serialize(out, b);
+        byte[] bytes = out.copyBytes();
+        assertEquals(out.pos, ser.serializedSize(b));
+        assertTrue(bytes.length < compactBytes.length);
+
+        //class info is followed by object with bitmap
+        ElsaDataInput in = new ElsaDataInput(bytes);
+        assertEquals(ElsaSerializerBase.Header.POJO_CLASSINFO, in.readUnsignedByte());
+        ElsaUtil.unpackInt((DataInput) in);
+        ser.classInfoDeserialize(in);
+        assertEquals(ElsaSerializerBase.Header.POJO_BITMAP, in.readUnsignedByte());
+
+        for (ElsaSerializerPojo reader : Arrays.asList(compact, ser)) {
+            SparseBean b2 = (SparseBean) reader.deserialize(new ElsaDataInput(bytes));
+            assertEquals(-3, b2.i9);
+            assertEquals(0, b2.i1);
+            assertEquals(Double.doubleToRawLongBits(-0D), Double.doubleToRawLongBits(b2.d));
+            assertEquals("aa", b2.s5);
+            assertEquals(null, b2.s1);
+            assertEquals(null, b2.o);
+        }
+
+        //dense object is written without bitmap
+        IntBean dense = new IntBean(1);
+        out = new ElsaDataOutput();
+        ser.serialize(out, dense);
+        assertEquals(dense, ser.deserialize(new ElsaDataInput(out.copyBytes())));
+        in = new ElsaDataInput(out.copyBytes());
+        in.readUnsignedByte();
+        ElsaUtil.unpackInt((DataInput) in);
+        ser.classInfoDeserialize(in);
+        assertEquals(ElsaSerializerBase.Header.POJO_COMPACT, in.readUnsignedByte());
+    }
+
+
+    static class TypedBean implements Serializable {
+        int i;
+        String s1, s2, utf;
+        Integer n, nul;
+        Long l, big;
+        Boolean b;
+        Short sh;
+        Byte by;
+        Character c;
+        Double d;
+        Float f;
+        Order order;
+        long[] longs;
+        char[] chars;
+        boolean[] bools;
+        byte[] bytes;
+        Object o;
+    }
+
+    @Test public void typedFields() throws IOException {
+        TypedBean b = new TypedBean();
+        b.i = 7;
+        b.s1 = "aa";
+        b.s2 = b.s1;
+        b.utf = "\u0158\u0000";
+        b.n = -100000;
+        b.l = 5L;
+        b.big = Long.MIN_VALUE;
+        b.b = true;
+        b.sh = -2;
+        b.by = -1;
+        b.c = '\uFFFF';
+        b.d = 1.5;
+        b.f = -1F;
+        b.order = Order.DESCENDING;
+        b.longs = new long[]{1, -1, Long.MAX_VALUE};
+        b.chars = new char[]{'a', '\u2222'};
+        b.bools = new boolean[]{true, false, true};
+        b.bytes = new byte[]{1, 2};
+        b.o = b.s1;
+
+        ElsaSerializerPojo plain = new ElsaSerializerPojo();
+        ElsaSerializerPojo ser = new ElsaMaker().typedFieldsEnable().make();
+        ElsaDataOutput out = new ElsaDataOutput();
+        plain.serialize(out, b);
+        byte[] plainBytes = out.copyBytes();
+
+        out = new ElsaDataOutput();
+        ser.serialize(out, b);
+        byte[] bytes = out.copyBytes();
+        assertEquals(out.pos, ser.serializedSize(b));
+        assertTrue(bytes.length < plainBytes.length);
+
+        //stream output uses generic encoding path
+        ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+        ser.serialize(new DataOutputStream(out2), b);
+        assertArrayEquals(bytes, out2.toByteArray());
+
+        ElsaDataInput in = new ElsaDataInput(bytes);
+        assertEquals(ElsaSerializerBase.Header.POJO_CLASSINFO, in.readUnsignedByte());
+        ElsaUtil.unpackInt((DataInput) in);
+        ser.classInfoDeserialize(in);
+        assertEquals(ElsaSerializerBase.Header.POJO_TYPED, in.readUnsignedByte());
+
+        for (ElsaSerializerPojo reader : Arrays.asList(plain, ser)) {
+            for (TypedBean b2 : Arrays.asList(
+                    (TypedBean) reader.deserialize(new ElsaDataInput(bytes)),
+                    (TypedBean) reader.deserialize(new DataInputStream(new ByteArrayInputStream(bytes))))) {
+                assertEquals(7, b2.i);
+                assertEquals("aa", b2.s1);
+                assertTrue(b2.s1 == b2.s2);
+                assertTrue(b2.s1 == b2.o);
+                assertEquals(b.utf, b2.utf);
+                assertEquals(b.n, b2.n);
+                assertEquals(null, b2.nul);
+                assertEquals(b.l, b2.l);
+                assertEquals(b.big, b2.big);
+                assertEquals(b.b, b2.b);
+                assertEquals(b.sh, b2.sh);
+                assertEquals(b.by, b2.by);
+                assertEquals(b.c, b2.c);
+                assertEquals(b.d, b2.d);
+                assertEquals(b.f, b2.f);
+                assertEquals(Order.DESCENDING, b2.order);
+                assertArrayEquals(b.longs, b2.longs);
+                assertArrayEquals(b.chars, b2.chars);
+                assertTrue(Arrays.equals(b.bools, b2.bools));
+                assertArrayEquals(b.bytes, b2.bytes);
+            }
+        }
+
+        //singleton keeps its identity
+        String singleton = "singleton";
+        b.s1 = singleton;
+        b.s2 = singleton;
+        b.o = null;
+        ElsaSerializerPojo serSingleton = new ElsaMaker().typedFieldsEnable().singletons(singleton).make();
+        TypedBean b2 = serSingleton.clone(b);
+        assertTrue(singleton == b2.s1);
+        assertTrue(singleton == b2.s2);
+    }
+
+    static class TypedSizeBean implements Serializable {
+        Integer i;
+        Long l;
+        Boolean b;
+        Short sh;
+        Byte by;
+        Character c;
+        Double d;
+        Float f;
+        String s;
+        Order order;
+        int[] ints;
+        long[] longs;
+        short[] shorts;
+        byte[] bytes;
+        char[] chars;
+        boolean[] bools;
+        double[] doubles;
+        float[] floats;
+    }
+
+    @Test public void typedFieldsNotLarger() throws Exception {
+        Object[][] values = {
+                {"i", Integer.MIN_VALUE, Integer.MAX_VALUE, 0, -9, 16, 17, -255, 255, 256, -65536, 65536,
+                        (1 << 24) - 1, -(1 << 24), 1 << 24},
+                {"l", Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE + 1, 0L, -9L, 16L, 300L, -(1L << 48) + 1,
+                        1L << 48, -(1L << 55), 1L << 56, 1L << 62},
+                {"b", true, false},
+                {"sh", (short) -1, (short) 0, (short) 254, (short) -254, (short) 255, Short.MIN_VALUE, Short.MAX_VALUE},
+                {"by", (byte) -1, (byte) 0, (byte) 1, (byte) 2, Byte.MIN_VALUE, Byte.MAX_VALUE},
+                {"c", (char) 0, (char) 1, (char) 255, (char) 256, '\uFFFF'},
+                {"d", -1D, 0D, 1D, 255D, 256D, -32768D, 32768D, 1e9, 1e15, 1.5, Double.NaN, Double.MAX_VALUE},
+                {"f", -1F, 0F, 255F, 32767F, 40000F, 1.5F, Float.NaN},
+                {"s", "", "a", "\u00FF\u00FF", "0123456789a", "\u0158", "\u0158\u0000", "\u0158 and longer string"},
+                {"order", Order.ASCENDING},
+                {"ints", new int[0], new int[]{1, 2, 3}, new int[]{1000}, new int[]{100000}, new int[]{-100000, 5}},
+                {"longs", new long[0], new long[]{1, 2, 3}, new long[]{1000}, new long[]{1L << 40},
+                        new long[]{-100000}, new long[]{Long.MIN_VALUE}},
+                {"shorts", new short[]{1, 2}},
+                {"bytes", new byte[]{1, 2}, new byte[100]},
+                {"chars", new char[]{'a', '\u2222'}},
+                {"bools", new boolean[]{true}},
+                {"doubles", new double[]{1.5}},
+                {"floats", new float[]{1.5F}},
+        };
+        ElsaSerializerPojo plain = new ElsaMaker().make();
+        ElsaSerializerPojo typed = new ElsaMaker().typedFieldsEnable().make();
+        for (Object[] row : values) {
+            Field field = TypedSizeBean.class.getDeclaredField((String) row[0]);
+            for (int i = 1; i < row.length; i++) {
+                TypedSizeBean b = new TypedSizeBean();
+                field.set(b, row[i]);
+                String msg = row[0] + " " + Arrays.deepToString(new Object[]{row[i]});
+                assertTrue(msg, typed.serializedSize(b) <= plain.serializedSize(b));
+                Object cloned = field.get(typed.clone(b));
+                assertTrue(msg, Arrays.deepEquals(new Object[]{row[i]}, new Object[]{cloned}));
+            }
+        }
+
+        //negative zero keeps its sign
+        TypedSizeBean b = new TypedSizeBean();
+        b.d = -0D;
+        b.f = -0F;
+        TypedSizeBean b2 = typed.clone(b);
+        assertEquals(Double.doubleToRawLongBits(-0D), Double.doubleToRawLongBits(b2.d));
+        assertEquals(Float.floatToRawIntBits(-0F), Float.floatToRawIntBits(b2.f));
+    }
+
+
+    @Test public void codecFor() throws IOException {
+        TypedBean b = new TypedBean();
+        b.i = 7;
+        b.s1 = "aa";
+        b.s2 = b.s1;
+        b.order = Order.ASCENDING;
+        b.longs = new long[]{1, 2};
+        b.o = new ArrayList(Arrays.asList(b, b.s1));
+
+        for (ElsaSerializerPojo ser : Arrays.asList(
+                new ElsaSerializerPojo(),
+                new ElsaMaker().typedFieldsEnable().make(),
+                new ElsaMaker().registerClasses(TypedBean.class).make())) {
+            ElsaCodec<TypedBean> codec = ser.codecFor(TypedBean.class);
+            ElsaDataOutput out = new ElsaDataOutput();
+            ser.serialize(out, b);
+            int size = out.pos;
+            out = new ElsaDataOutput();
+            codec.serialize(out, b);
+            assertTrue(out.pos < size);
+
+            byte[] bytes = out.copyBytes();
+            for (TypedBean b2 : Arrays.asList(
+                    codec.deserialize(bytes, 0, bytes.length),
+                    codec.deserialize(new DataInputStream(new ByteArrayInputStream(bytes))))) {
+                assertEquals(7, b2.i);
+                assertEquals("aa", b2.s1);
+                assertTrue(b2.s1 == b2.s2);
+                assertEquals(Order.ASCENDING, b2.order);
+                assertArrayEquals(b.longs, b2.longs);
+                List l = (List) b2.o;
+                assertTrue(b2 == l.get(0));
+                assertTrue(b2.s1 == l.get(1));
+            }
+        }
+
+        //other types use regular format
+        ElsaSerializerPojo ser = new ElsaSerializerPojo();
+        ElsaCodec<ArrayList> listCodec = ser.codecFor(ArrayList.class);
+        ElsaDataOutput out = new ElsaDataOutput();
+        listCodec.serialize(out, new ArrayList(Arrays.asList(1, 2)));
+        assertEquals(Arrays.asList(1, 2), ser.deserialize(out.copyBytes(), 0, out.pos));
+        assertEquals(Arrays.asList(1, 2), listCodec.deserialize(out.copyBytes(), 0, out.pos));
+
+        try {
+            ser.codecFor(Bean1.class).serialize(new ElsaDataOutput(), new Bean2("a", "b", "c"));
+            fail();
+        } catch (ElsaException e) {
+            //subclass needs its own codec
+        }
+    }
+
 }